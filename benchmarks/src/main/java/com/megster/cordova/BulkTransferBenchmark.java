@@ -0,0 +1,122 @@
+package com.megster.cordova;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A 512 KB bulk transfer through startTransfer and writeChunk with 4 chunks
+ * in flight, the way the JavaScript side sends a firmware image. The device
+ * end of a PipeTransport drains the data. The Cordova bridge and the base64
+ * decoding of each chunk are not included.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BulkTransferBenchmark {
+
+    private static final int TOTAL_SIZE = 512 * 1024;
+    private static final int IN_FLIGHT = 4;
+
+    @Param({ "512", "4096", "16384" })
+    public int chunkSize;
+
+    private ScheduledExecutorService scheduler;
+    private SerialConnection connection;
+    private Thread drain;
+    private byte[] chunk;
+
+    private final Semaphore inFlight = new Semaphore(IN_FLIGHT);
+    private final Semaphore complete = new Semaphore(0);
+    private volatile String error;
+
+    // Completes a chunk, making room for the next one
+    private final CallbackContext chunkCallback = new CallbackContext("chunk") {
+        public void sendPluginResult(PluginResult result) {
+            if (result.getStatus() == PluginResult.Status.ERROR.ordinal()) {
+                error = result.getMessage();
+            }
+            inFlight.release();
+        }
+    };
+
+    // Waits for the last progress event
+    private final CallbackContext progressCallback = new CallbackContext("progress") {
+        public void sendPluginResult(PluginResult result) {
+            if (result.getStatus() == PluginResult.Status.ERROR.ordinal()) {
+                error = result.getMessage();
+                complete.release();
+            } else if (result.getStatus() == PluginResult.Status.OK.ordinal() && !result.getKeepCallback()) {
+                complete.release();
+            }
+        }
+    };
+
+    @Setup
+    public void setUp() throws Exception {
+        chunk = new byte[chunkSize];
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        connection = new SerialConnection(scheduler);
+        final InputStream device = ReceivePathBenchmark.connect(connection, 64 * 1024).getInputStream();
+        drain = new Thread(new Runnable() {
+            public void run() {
+                byte[] buffer = new byte[64 * 1024];
+                try {
+                    while (device.read(buffer, 0, buffer.length) >= 0) {
+                        // discard
+                    }
+                } catch (IOException e) {
+                    // disconnected
+                }
+            }
+        });
+        drain.start();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        connection.destroy();
+        scheduler.shutdownNow();
+        drain.join(1000);
+    }
+
+    @Benchmark
+    public int transfer512k() throws Exception {
+        connection.startTransfer(TOTAL_SIZE, progressCallback);
+        int sequence = 0;
+        for (int sent = 0; sent < TOTAL_SIZE; sent += chunkSize) {
+            inFlight.acquire();
+            // every chunk arrives from the bridge in a new array
+            byte[] data = chunk.clone();
+            connection.writeChunk(sequence++, data, chunkCallback);
+        }
+        complete.acquire();
+        inFlight.acquire(IN_FLIGHT);
+        inFlight.release(IN_FLIGHT);
+        if (error != null) {
+            throw new IllegalStateException(error);
+        }
+        return sequence;
+    }
+}
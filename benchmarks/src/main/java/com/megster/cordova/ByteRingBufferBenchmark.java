@@ -0,0 +1,135 @@
+package com.megster.cordova;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * readUntil, read and available over a growing backlog, on the ring buffer
+ * and on the StringBuffer the plugin used before it.
+ *
+ * The readUntil benchmarks receive a long line in 64 byte chunks and look
+ * for the delimiter after every chunk, the way the subscriber does. The line
+ * is backlog bytes long, so the delimiter search runs over a backlog that
+ * grows up to that size. The score is the time per chunk.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ByteRingBufferBenchmark {
+
+    private static final int CHUNK_SIZE = 64;
+    private static final byte[] DELIMITER = { '\n' };
+
+    @Param({ "1024", "16384", "262144" })
+    public int backlog;
+
+    private byte[] chunk;
+    private byte[] lastChunk;
+    private String chunkString;
+    private String lastChunkString;
+    private byte[] backlogData;
+    private String backlogString;
+    private int chunksPerLine;
+    private int chunkCount;
+
+    private ByteRingBuffer ringBuffer;
+    private StringBuffer stringBuffer;
+
+    @Setup
+    public void setUp() {
+        chunk = new byte[CHUNK_SIZE];
+        Arrays.fill(chunk, (byte) 'a');
+        lastChunk = chunk.clone();
+        lastChunk[CHUNK_SIZE - 1] = '\n';
+        chunkString = new String(chunk);
+        lastChunkString = new String(lastChunk);
+        backlogData = new byte[backlog];
+        Arrays.fill(backlogData, (byte) 'a');
+        backlogString = new String(backlogData);
+        chunksPerLine = backlog / CHUNK_SIZE;
+
+        ringBuffer = new ByteRingBuffer(1024 * 1024, ByteRingBuffer.OverflowPolicy.DROP_OLDEST);
+        stringBuffer = new StringBuffer();
+    }
+
+    // True when the chunk of this call ends the line
+    private boolean endsLine() {
+        if (++chunkCount == chunksPerLine) {
+            chunkCount = 0;
+            return true;
+        }
+        return false;
+    }
+
+    @Benchmark
+    public byte[] ringBufferReadUntil() {
+        ringBuffer.write(endsLine() ? lastChunk : chunk, 0, CHUNK_SIZE);
+        return ringBuffer.readUntil(DELIMITER);
+    }
+
+    @Benchmark
+    public byte[] ringBufferCursorReadUntil(CursorState state) {
+        state.buffer.write(endsLine() ? lastChunk : chunk, 0, CHUNK_SIZE);
+        return state.cursor.readUntil(DELIMITER);
+    }
+
+    // The read loop of the plugin before the ring buffer
+    @Benchmark
+    public String stringBufferReadUntil() {
+        stringBuffer.append(endsLine() ? lastChunkString : chunkString);
+        String data = null;
+        int index = stringBuffer.indexOf("\n", 0);
+        if (index > -1) {
+            data = stringBuffer.substring(0, index + 1);
+            stringBuffer.delete(0, index + 1);
+        }
+        return data;
+    }
+
+    @Benchmark
+    public void ringBufferReadAll(Blackhole blackhole) {
+        ringBuffer.write(backlogData, 0, backlog);
+        blackhole.consume(ringBuffer.available());
+        blackhole.consume(ringBuffer.read());
+    }
+
+    @Benchmark
+    public void stringBufferReadAll(Blackhole blackhole) {
+        stringBuffer.append(backlogString);
+        int length = stringBuffer.length();
+        blackhole.consume(length);
+        blackhole.consume(stringBuffer.substring(0, length));
+        stringBuffer.delete(0, length);
+    }
+
+    /**
+     * A buffer read through a cursor, as a line subscriber reads it.
+     */
+    @State(Scope.Thread)
+    public static class CursorState {
+        ByteRingBuffer buffer;
+        ByteRingBuffer.Cursor cursor;
+
+        @Setup
+        public void setUp() {
+            buffer = new ByteRingBuffer(1024 * 1024, ByteRingBuffer.OverflowPolicy.DROP_OLDEST);
+            cursor = buffer.newCursor();
+        }
+    }
+}
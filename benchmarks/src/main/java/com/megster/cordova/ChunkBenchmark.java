@@ -0,0 +1,63 @@
+package com.megster.cordova;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the ConnectedThread does with each read before handing it on. It
+ * used to make a String and an exact length copy of every read, it now fills
+ * a pooled chunk that the consumer recycles.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChunkBenchmark {
+
+    @Param({ "16", "256", "1024" })
+    public int readSize;
+
+    private byte[] received;
+    private byte[] readBuffer;
+    private ChunkPool pool;
+
+    @Setup
+    public void setUp() {
+        received = new byte[readSize];
+        Arrays.fill(received, (byte) 'a');
+        readBuffer = new byte[1024];
+        pool = new ChunkPool(1024, 16);
+    }
+
+    // The read loop of the plugin before the chunk pool
+    @Benchmark
+    public void stringAndCopyPerRead(Blackhole blackhole) {
+        System.arraycopy(received, 0, readBuffer, 0, readSize);
+        blackhole.consume(new String(readBuffer, 0, readSize));
+        blackhole.consume(Arrays.copyOf(readBuffer, readSize));
+    }
+
+    @Benchmark
+    public void pooledChunk(Blackhole blackhole) {
+        ChunkPool.Chunk chunk = pool.acquire();
+        System.arraycopy(received, 0, chunk.data, 0, readSize);
+        chunk.length = readSize;
+        blackhole.consume(chunk);
+        chunk.recycle();
+    }
+}
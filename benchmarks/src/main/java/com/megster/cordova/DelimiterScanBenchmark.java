@@ -0,0 +1,100 @@
+package com.megster.cordova;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splitting received data into 20 byte lines with a 1 char and multi-char
+ * delimiters. Each operation receives one 1024 byte chunk and takes every
+ * complete line out of the buffer, so lines run across chunks.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DelimiterScanBenchmark {
+
+    private static final int CHUNK_SIZE = 1024;
+    private static final int LINE_SIZE = 20;
+
+    @Param({ "\\n", "\\r\\n", "<END>" })
+    public String delimiter;
+
+    private byte[] delimiterBytes;
+    private String delimiterString;
+    private byte[] chunk;
+    private String chunkString;
+
+    private ByteRingBuffer ringBuffer;
+    private ByteRingBuffer cursorBuffer;
+    private ByteRingBuffer.Cursor cursor;
+    private StringBuffer stringBuffer;
+
+    @Setup
+    public void setUp() {
+        delimiterString = delimiter.replace("\\r", "\r").replace("\\n", "\n");
+        delimiterBytes = delimiterString.getBytes(StandardCharsets.US_ASCII);
+
+        StringBuilder line = new StringBuilder();
+        while (line.length() < LINE_SIZE - delimiterString.length()) {
+            line.append((char) ('0' + line.length() % 10));
+        }
+        line.append(delimiterString);
+        StringBuilder data = new StringBuilder();
+        while (data.length() < CHUNK_SIZE) {
+            data.append(line);
+        }
+        chunkString = data.substring(0, CHUNK_SIZE);
+        chunk = chunkString.getBytes(StandardCharsets.US_ASCII);
+
+        ringBuffer = new ByteRingBuffer(64 * 1024, ByteRingBuffer.OverflowPolicy.DROP_OLDEST);
+        cursorBuffer = new ByteRingBuffer(64 * 1024, ByteRingBuffer.OverflowPolicy.DROP_OLDEST);
+        cursor = cursorBuffer.newCursor();
+        stringBuffer = new StringBuffer();
+    }
+
+    @Benchmark
+    public void ringBuffer(Blackhole blackhole) {
+        ringBuffer.write(chunk, 0, CHUNK_SIZE);
+        byte[] line;
+        while ((line = ringBuffer.readUntil(delimiterBytes)) != null) {
+            blackhole.consume(line);
+        }
+    }
+
+    @Benchmark
+    public void cursor(Blackhole blackhole) {
+        cursorBuffer.write(chunk, 0, CHUNK_SIZE);
+        byte[] line;
+        while ((line = cursor.readUntil(delimiterBytes)) != null) {
+            blackhole.consume(line);
+        }
+    }
+
+    // The subscriber loop of the plugin before the ring buffer
+    @Benchmark
+    public void stringBuffer(Blackhole blackhole) {
+        stringBuffer.append(chunkString);
+        int index;
+        while ((index = stringBuffer.indexOf(delimiterString, 0)) > -1) {
+            int end = index + delimiterString.length();
+            blackhole.consume(stringBuffer.substring(0, end));
+            stringBuffer.delete(0, end);
+        }
+    }
+}
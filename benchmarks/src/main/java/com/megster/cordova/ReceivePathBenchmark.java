@@ -0,0 +1,154 @@
+package com.megster.cordova;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The whole receive path on a PipeTransport: the ConnectedThread, the
+ * dispatch thread, the ring buffer and the subscriber. Each operation sends
+ * 64 KB of 32 byte lines from the device and waits until the subscriber got
+ * all of it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ReceivePathBenchmark {
+
+    static final int PAYLOAD_SIZE = 64 * 1024;
+    private static final int LINE_SIZE = 32;
+
+    // lines: subscribe with "\n", raw: subscribeRawData
+    @Param({ "lines", "raw" })
+    public String subscriber;
+
+    private ScheduledExecutorService scheduler;
+    private SerialConnection connection;
+    private OutputStream device;
+    private byte[] payload;
+    private final Counter received = new Counter();
+
+    /**
+     * Counts the bytes delivered to the subscriber.
+     */
+    static class Counter extends CallbackContext {
+        private long bytes;
+
+        Counter() {
+            super("subscriber");
+        }
+
+        public void sendPluginResult(PluginResult result) {
+            int count;
+            if (result.getMessageType() == PluginResult.MESSAGE_TYPE_STRING) {
+                count = result.getMessage().length();
+            } else if (result.getMessageType() == PluginResult.MESSAGE_TYPE_ARRAYBUFFER) {
+                count = base64Length(result.getMessage());
+            } else {
+                return;
+            }
+            synchronized (this) {
+                bytes += count;
+                notifyAll();
+            }
+        }
+
+        synchronized void await(long total) throws InterruptedException {
+            while (bytes < total) {
+                wait();
+            }
+        }
+
+        synchronized long get() {
+            return bytes;
+        }
+    }
+
+    // Length of the data encoded in a base64 string
+    static int base64Length(String base64) {
+        int padding = 0;
+        if (base64.endsWith("==")) padding = 2;
+        else if (base64.endsWith("=")) padding = 1;
+        return base64.length() / 4 * 3 - padding;
+    }
+
+    /**
+     * Ignores the connect callback.
+     */
+    static class Ignore extends CallbackContext {
+        Ignore() {
+            super("ignore");
+        }
+
+        public void sendPluginResult(PluginResult result) {
+        }
+    }
+
+    /**
+     * Connect over a pipe and return the device end of the connection.
+     */
+    static SerialSocket connect(SerialConnection connection, int pipeSize) throws Exception {
+        final BlockingQueue<SerialSocket> sockets = new LinkedBlockingQueue<SerialSocket>();
+        connection.connect(new PipeTransport("benchmark", pipeSize, new PipeTransport.Peer() {
+            public void accept(SerialSocket socket) {
+                sockets.add(socket);
+            }
+        }), null, new Ignore());
+        SerialSocket socket = sockets.poll(5, TimeUnit.SECONDS);
+        while (!connection.isConnected()) {
+            Thread.sleep(1);
+        }
+        return socket;
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        payload = new byte[PAYLOAD_SIZE];
+        for (int i = 0; i < PAYLOAD_SIZE; i++) {
+            payload[i] = (byte) (i % LINE_SIZE == LINE_SIZE - 1 ? '\n' : 'a' + i % 26);
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        connection = new SerialConnection(scheduler);
+        device = connect(connection, 64 * 1024).getOutputStream();
+        if ("lines".equals(subscriber)) {
+            connection.subscribe("\n", null, received);
+        } else {
+            connection.subscribeRaw(null, received);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        connection.destroy();
+        scheduler.shutdownNow();
+    }
+
+    @Benchmark
+    public long receive64k() throws Exception {
+        long total = received.get() + PAYLOAD_SIZE;
+        device.write(payload);
+        received.await(total);
+        return total;
+    }
+}
@@ -0,0 +1,114 @@
+package com.megster.cordova;
+
+import org.apache.cordova.CordovaArgs;
+import org.json.JSONArray;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.Charset;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning the arguments of a write into bytes on the Java side of the
+ * bridge. The old path sends an ArrayBuffer, which arrives as base64 and is
+ * decoded by CordovaArgs.getArrayBuffer. The new paths send the data as a
+ * latin1 or hex string, or as 4 ArrayBuffers joined by WriteData.
+ *
+ * The bytes counter is the throughput in bytes/s. The encoding on the
+ * JavaScript side and the bridge itself are not included.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WriteBenchmark {
+
+    private static final int PARTS = 4;
+
+    @Param({ "16", "1024", "65536" })
+    public int size;
+
+    private CordovaArgs base64Args;
+    private CordovaArgs latin1Args;
+    private CordovaArgs hexArgs;
+    private CordovaArgs partsArgs;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Bytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        byte[] data = new byte[size];
+        new Random(1).nextBytes(data);
+        Base64.Encoder base64 = Base64.getEncoder();
+
+        base64Args = new CordovaArgs(new JSONArray().put(base64.encodeToString(data)));
+        latin1Args = new CordovaArgs(new JSONArray().put(new String(data, Charset.forName("ISO-8859-1"))));
+
+        StringBuilder hex = new StringBuilder(size * 2);
+        for (byte b : data) {
+            hex.append(Character.forDigit(b >> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        hexArgs = new CordovaArgs(new JSONArray().put(hex.toString()));
+
+        JSONArray parts = new JSONArray();
+        int partSize = size / PARTS;
+        for (int i = 0; i < PARTS; i++) {
+            byte[] part = new byte[partSize];
+            System.arraycopy(data, i * partSize, part, 0, partSize);
+            parts.put(base64.encodeToString(part));
+        }
+        partsArgs = new CordovaArgs(parts);
+    }
+
+    @Benchmark
+    public byte[] base64ArrayBuffer(Bytes counter) throws Exception {
+        byte[] data = WriteData.fromArgs(base64Args, 0, null);
+        counter.bytes += data.length;
+        return data;
+    }
+
+    @Benchmark
+    public byte[] latin1String(Bytes counter) throws Exception {
+        byte[] data = WriteData.fromArgs(latin1Args, 0, WriteData.LATIN1);
+        counter.bytes += data.length;
+        return data;
+    }
+
+    @Benchmark
+    public byte[] hexString(Bytes counter) throws Exception {
+        byte[] data = WriteData.fromArgs(hexArgs, 0, WriteData.HEX);
+        counter.bytes += data.length;
+        return data;
+    }
+
+    @Benchmark
+    public byte[] joinedParts(Bytes counter) throws Exception {
+        byte[] data = WriteData.join(partsArgs, 0, PARTS);
+        counter.bytes += data.length;
+        return data;
+    }
+}
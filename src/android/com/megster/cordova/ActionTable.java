@@ -0,0 +1,96 @@
+package com.megster.cordova;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaArgs;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The plugin actions by name, with how each one is run and how often and
+ * how long it ran. The table is filled once when the plugin is initialized,
+ * so finding an action is one lookup instead of comparing the name with
+ * every action.
+ */
+public class ActionTable {
+
+    // Data path action, run inline without logging
+    public static final int HOT = 1;
+    // Ask for the runtime permissions of the action first
+    public static final int PERMISSIONS = 2;
+    // Run on the Cordova thread pool instead of the bridge thread
+    public static final int BACKGROUND = 4;
+
+    /**
+     * Runs one action.
+     */
+    public interface Handler {
+        void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException;
+    }
+
+    /**
+     * An action with its handler, flags and counters.
+     */
+    public static class Action {
+        private final int flags;
+        private final Handler handler;
+        private final AtomicLong calls = new AtomicLong();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        Action(int flags, Handler handler) {
+            this.flags = flags;
+            this.handler = handler;
+        }
+
+        public boolean is(int flag) {
+            return (flags & flag) != 0;
+        }
+
+        /**
+         * Run the handler, counting the call and timing it. */
+        public void run(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+            long start = System.nanoTime();
+            try {
+                handler.execute(args, callbackContext);
+            } finally {
+                calls.incrementAndGet();
+                latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+            }
+        }
+    }
+
+    private final Map<String, Action> actions = new HashMap<String, Action>();
+
+    public void add(String name, int flags, Handler handler) {
+        actions.put(name, new Action(flags, handler));
+    }
+
+    /**
+     * @return the action or null if there is no action with the name
+     */
+    public Action get(String name) {
+        return actions.get(name);
+    }
+
+    /**
+     * @return {action: {calls, latency}} for the actions that were called,
+     *         latency is a histogram of the run time in microseconds
+     */
+    public JSONObject getStats() throws JSONException {
+        JSONObject json = new JSONObject();
+        for (Map.Entry<String, Action> entry : actions.entrySet()) {
+            Action action = entry.getValue();
+            if (action.calls.get() > 0) {
+                JSONObject stats = new JSONObject();
+                stats.put("calls", action.calls.get());
+                stats.put("latency", action.latency.toJSON());
+                json.put(entry.getKey(), stats);
+            }
+        }
+        return json;
+    }
+}
@@ -1,17 +1,11 @@
 package com.megster.cordova;
 
 import android.Manifest;
-import android.content.pm.PackageManager;
 
 import android.app.Activity;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.content.BroadcastReceiver;
-import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
-import android.os.Handler;
-import android.os.Message;
 import android.provider.Settings;
 import android.util.Log;
 
@@ -24,7 +18,15 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.Set;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * PhoneGap Plugin for Serial Communication over Bluetooth
@@ -35,8 +37,11 @@ public class BluetoothSerial extends CordovaPlugin {
     private static final String LIST = "list";
     private static final String CONNECT = "connect";
     private static final String CONNECT_INSECURE = "connectInsecure";
+    private static final String CONNECT_ANY = "connectAny";
     private static final String DISCONNECT = "disconnect";
     private static final String WRITE = "write";
+    private static final String WRITE_PARTS = "writeParts";
+    private static final String WRITE_AND_EXPECT = "writeAndExpect";
     private static final String AVAILABLE = "available";
     private static final String READ = "read";
     private static final String READ_UNTIL = "readUntil";
@@ -52,37 +57,49 @@ public class BluetoothSerial extends CordovaPlugin {
     private static final String DISCOVER_UNPAIRED = "discoverUnpaired";
     private static final String SET_DEVICE_DISCOVERED_LISTENER = "setDeviceDiscoveredListener";
     private static final String CLEAR_DEVICE_DISCOVERED_LISTENER = "clearDeviceDiscoveredListener";
+    private static final String GET_CACHED_DEVICES = "getCachedDevices";
     private static final String SET_NAME = "setName";
     private static final String SET_DISCOVERABLE = "setDiscoverable";
+    private static final String CONFIGURE_BUFFER = "configureBuffer";
+    private static final String SET_CHARSET = "setCharset";
+    private static final String GET_BATCH_STATS = "getBatchStats";
+    private static final String SET_WRITE_QUEUE_LISTENER = "setWriteQueueListener";
+    private static final String CLEAR_WRITE_QUEUE_LISTENER = "clearWriteQueueListener";
+    private static final String SET_WRITE_COALESCING = "setWriteCoalescing";
+    private static final String FLUSH = "flush";
+    private static final String GET_WRITE_STATS = "getWriteStats";
+    private static final String START_TRANSFER = "startTransfer";
+    private static final String WRITE_CHUNK = "writeChunk";
+    private static final String CANCEL_TRANSFER = "cancelTransfer";
+    private static final String GET_CONNECT_TIMINGS = "getConnectTimings";
+    private static final String GET_STATS = "getStats";
+    private static final String SUBSCRIBE_STATS = "subscribeStats";
+    private static final String UNSUBSCRIBE_STATS = "unsubscribeStats";
+    private static final String GET_ACTION_STATS = "getActionStats";
 
     // callbacks
-    private CallbackContext connectCallback;
-    private CallbackContext dataAvailableCallback;
-    private CallbackContext rawDataAvailableCallback;
     private CallbackContext enableBluetoothCallback;
-    private CallbackContext deviceDiscoveredCallback;
 
     private BluetoothAdapter bluetoothAdapter;
-    private BluetoothSerialService bluetoothSerialService;
+    private DeviceDiscovery discovery;
+    private BondedDevices bondedDevices;
+
+    // Connections, found by the MAC address of their device
+    private ConnectionRegistry connections;
 
     // Debugging
     private static final String TAG = "BluetoothSerial";
     private static final boolean D = true;
 
-    // Message types sent from the BluetoothSerialService Handler
-    public static final int MESSAGE_STATE_CHANGE = 1;
-    public static final int MESSAGE_READ = 2;
-    public static final int MESSAGE_WRITE = 3;
-    public static final int MESSAGE_DEVICE_NAME = 4;
-    public static final int MESSAGE_TOAST = 5;
-    public static final int MESSAGE_READ_RAW = 6;
+    // Runs the batched delivery timers of all connections
+    private ScheduledExecutorService scheduler;
+
+    // Default interval of the stats subscription
+    private static final long DEFAULT_STATS_INTERVAL = 1000;
 
-    // Key names received from the BluetoothChatService Handler
-    public static final String DEVICE_NAME = "device_name";
-    public static final String TOAST = "toast";
+    // Default number of bytes that triggers a coalesced write
+    private static final int DEFAULT_COALESCE_BYTES = 512;
 
-    StringBuffer buffer = new StringBuffer();
-    private String delimiter;
     private static final int REQUEST_ENABLE_BLUETOOTH = 1;
 
     // Android 23 requires user to explicitly grant permission for bluetooth to discover unpaired
@@ -92,215 +109,431 @@ public class BluetoothSerial extends CordovaPlugin {
     private static final String BLUETOOTH_ADVERTISE = Manifest.permission.BLUETOOTH_ADVERTISE;
     private static final String ACCESS_COARSE_LOCATION = Manifest.permission.ACCESS_COARSE_LOCATION;
     private static final String ACCESS_FINE_LOCATION = Manifest.permission.ACCESS_FINE_LOCATION;
-    private static final int CHECK_PERMISSIONS_REQ_CODE_BLUETOOTH_CONNECT = 3;
-    private static final int CHECK_PERMISSIONS_REQ_CODE_BLUETOOTH_SCAN = 4;
-    private static final int CHECK_PERMISSIONS_REQ_CODE_BLUETOOTH_ADVERTISE = 5;
-    private static final int CHECK_PERMISSIONS_REQ_CODE_ACCESS_FINE_LOCATION = 6;
-    private static final int CHECK_PERMISSIONS_REQ_CODE_ACCESS_COARSE_LOCATION = 7;
-    private CallbackContext permissionCallbackContext;
-    private String permissionGrantedExecuteAction;
-    private CordovaArgs permissionGrantedExecuteArgs;
+
+    // Queues the actions waiting for permissions
+    private PermissionCoordinator permissions;
+
+    // The actions by name
+    private final ActionTable actions = new ActionTable();
+
 
     @Override
-    public boolean execute(String action, CordovaArgs args, CallbackContext callbackContext) throws JSONException {
-        LOG.d(TAG, "action = " + action);
-        //
-        if (bluetoothAdapter == null)
-            bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-        if (bluetoothSerialService == null)
-            bluetoothSerialService = new BluetoothSerialService(mHandler);
-        //
-        boolean validAction = true;
-        boolean hadPermissions = true;
-        //
-        if (action.equals(LIST)) {
-            if(android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.S) {
-                if (cordova.hasPermission(BLUETOOTH_CONNECT) && cordova.hasPermission(BLUETOOTH_SCAN)) {
-                    hadPermissions = true;
-                    listBondedDevices(callbackContext);
-                }
-                else if (!cordova.hasPermission(BLUETOOTH_CONNECT)) {
-                    LOG.d("RP", "ask permission: " + BLUETOOTH_CONNECT);
-                    hadPermissions = false;
-                    permissionGrantedExecuteAction = action;
-                    permissionGrantedExecuteArgs = args;
-                    permissionCallbackContext = callbackContext;
-                    cordova.requestPermission(this, CHECK_PERMISSIONS_REQ_CODE_BLUETOOTH_CONNECT, BLUETOOTH_CONNECT);
-                }
-                else if (!cordova.hasPermission(BLUETOOTH_SCAN)) {
-                    LOG.d("RP", "ask permission: " + BLUETOOTH_SCAN);
-                    hadPermissions = false;
-                    permissionGrantedExecuteAction = action;
-                    permissionGrantedExecuteArgs = args;
-                    permissionCallbackContext = callbackContext;
-                    cordova.requestPermission(this, CHECK_PERMISSIONS_REQ_CODE_BLUETOOTH_SCAN, BLUETOOTH_SCAN);
-                }
-            }
-            else {
-                listBondedDevices(callbackContext);
-            }
-        } else if (action.equals(CONNECT)) {
-            boolean secure = true;
-            connect(args, secure, callbackContext);
-        } else if (action.equals(CONNECT_INSECURE)) {
-            // see Android docs about Insecure RFCOMM http://goo.gl/1mFjZY
-            boolean secure = false;
-            connect(args, secure, callbackContext);
-        } else if (action.equals(DISCONNECT)) {
-            connectCallback = null;
-            bluetoothSerialService.stop();
-            callbackContext.success();
-        } else if (action.equals(WRITE)) {
-            byte[] data = args.getArrayBuffer(0);
-            bluetoothSerialService.write(data);
-            callbackContext.success();
-        } else if (action.equals(AVAILABLE)) {
-            callbackContext.success(available());
-        } else if (action.equals(READ)) {
-            callbackContext.success(read());
-        } else if (action.equals(READ_UNTIL)) {
-            String interesting = args.getString(0);
-            callbackContext.success(readUntil(interesting));
-        } else if (action.equals(SUBSCRIBE)) {
-            delimiter = args.getString(0);
-            dataAvailableCallback = callbackContext;
-            //
-            PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
-            result.setKeepCallback(true);
-            callbackContext.sendPluginResult(result);
-        } else if (action.equals(UNSUBSCRIBE)) {
-            delimiter = null;
-            //
-            // send no result, so Cordova won't hold onto the data available callback anymore
-            PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
-            dataAvailableCallback.sendPluginResult(result);
-            dataAvailableCallback = null;
-            //
-            callbackContext.success();
-        } else if (action.equals(SUBSCRIBE_RAW)) {
-            rawDataAvailableCallback = callbackContext;
-            //
-            PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
-            result.setKeepCallback(true);
-            callbackContext.sendPluginResult(result);
-        } else if (action.equals(UNSUBSCRIBE_RAW)) {
-            rawDataAvailableCallback = null;
-            //
-            callbackContext.success();
-        } else if (action.equals(IS_ENABLED)) {
-            if (bluetoothAdapter.isEnabled()) {
-                callbackContext.success();
-            } else {
-                callbackContext.error("Bluetooth is disabled.");
+    protected void pluginInitialize() {
+        bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+        connections = new ConnectionRegistry(getScheduler());
+        permissions = new PermissionCoordinator(this);
+        registerActions();
+    }
+
+    @Override
+    public boolean execute(String action, final CordovaArgs args, final CallbackContext callbackContext) throws JSONException {
+        final ActionTable.Action handler = actions.get(action);
+        if (handler == null) {
+            return false;
+        }
+        if (!handler.is(ActionTable.HOT)) {
+            LOG.d(TAG, "action = " + action);
+        }
+        if (handler.is(ActionTable.PERMISSIONS)) {
+            String[] required = requiredPermissions(action, args);
+            if (required != null && !permissions.check(action, args, callbackContext, required)) {
+                // runs again when the permissions are granted
+                return true;
             }
-        } else if (action.equals(IS_CONNECTED)) {
-            if (bluetoothSerialService.getState() == BluetoothSerialService.STATE_CONNECTED) {
-                callbackContext.success();
-            } else {
-                callbackContext.error("Not connected.");
-            }
-        } else if (action.equals(CLEAR)) {
-            buffer.setLength(0);
-            callbackContext.success();
-        } else if (action.equals(SETTINGS)) {
-            Intent intent = new Intent(Settings.ACTION_BLUETOOTH_SETTINGS);
-            cordova.getActivity().startActivity(intent);
-            callbackContext.success();
-        } else if (action.equals(ENABLE)) {
-            if(android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.S) {
-                if (cordova.hasPermission(BLUETOOTH_SCAN) && cordova.hasPermission(BLUETOOTH_CONNECT)) {
-                    enableBluetoothCallback = callbackContext;
-                    Intent intent = new Intent(BluetoothAdapter.ACTION_REQUEST_ENABLE);
-                    cordova.startActivityForResult(this, intent, REQUEST_ENABLE_BLUETOOTH);
-                }
-                else if (!cordova.hasPermission(BLUETOOTH_CONNECT)) {
-                    hadPermissions = false;
-                    permissionGrantedExecuteAction = action;
-                    permissionGrantedExecuteArgs = args;
-                    permissionCallbackContext = callbackContext;
-                    cordova.requestPermission(this, CHECK_PERMISSIONS_REQ_CODE_BLUETOOTH_CONNECT, BLUETOOTH_CONNECT);
-                } else if (!cordova.hasPermission(BLUETOOTH_SCAN)) {
-                    hadPermissions = false;
-                    permissionGrantedExecuteAction = action;
-                    permissionGrantedExecuteArgs = args;
-                    permissionCallbackContext = callbackContext;
-                    cordova.requestPermission(this, CHECK_PERMISSIONS_REQ_CODE_BLUETOOTH_SCAN, BLUETOOTH_SCAN);
+        }
+        if (handler.is(ActionTable.BACKGROUND)) {
+            cordova.getThreadPool().execute(new Runnable() {
+                public void run() {
+                    try {
+                        handler.run(args, callbackContext);
+                    } catch (JSONException e) {
+                        Log.e(TAG, "Problem running action", e);
+                        callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.JSON_EXCEPTION, e.getMessage()));
+                    }
                 }
-            } else {
+            });
+        } else {
+            handler.run(args, callbackContext);
+        }
+        return true;
+    }
+
+    // HOT actions are the data path, they are neither logged nor checked for permissions
+    private void registerActions() {
+        actions.add(LIST, ActionTable.PERMISSIONS | ActionTable.BACKGROUND, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                listBondedDevices(args, callbackContext);
+            }
+        });
+        actions.add(CONNECT, 0, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                boolean secure = true;
+                connect(args, secure, callbackContext);
+            }
+        });
+        actions.add(CONNECT_INSECURE, 0, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                // see Android docs about Insecure RFCOMM http://goo.gl/1mFjZY
+                boolean secure = false;
+                connect(args, secure, callbackContext);
+            }
+        });
+        actions.add(CONNECT_ANY, 0, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                connectAny(args, callbackContext);
+            }
+        });
+        actions.add(DISCONNECT, 0, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                if (args.isNull(0)) {
+                    connections.disconnectAll();
+                    callbackContext.success();
+                } else {
+                    SerialConnection connection = findConnection(args, 0, callbackContext);
+                    if (connection != null) {
+                        connections.disconnect(connection);
+                        callbackContext.success();
+                    }
+                }
+            }
+        });
+        actions.add(WRITE, ActionTable.HOT, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                SerialConnection connection = findConnection(args, 1, callbackContext);
+                if (connection != null) {
+                    byte[] data = WriteData.fromArgs(args, 0, args.isNull(2) ? null : args.getString(2));
+                    if (data == null) {
+                        callbackContext.error("Invalid write data");
+                    } else {
+                        connection.write(data, callbackContext);
+                    }
+                }
+            }
+        });
+        actions.add(WRITE_PARTS, ActionTable.HOT, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                SerialConnection connection = findConnection(args, 1, callbackContext);
+                if (connection != null) {
+                    // the parts follow the count and the connection id
+                    byte[] data = WriteData.join(args, 2, args.getInt(0));
+                    if (data == null) {
+                        callbackContext.error("Invalid write data");
+                    } else {
+                        connection.write(data, callbackContext);
+                    }
+                }
+            }
+        });
+        actions.add(WRITE_AND_EXPECT, ActionTable.HOT, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                SerialConnection connection = findConnection(args, 4, callbackContext);
+                if (connection != null) {
+                    writeAndExpect(connection, args, callbackContext);
+                }
+            }
+        });
+        actions.add(AVAILABLE, ActionTable.HOT, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                SerialConnection connection = findConnection(args, 0, callbackContext);
+                if (connection != null) {
+                    callbackContext.success(connection.available());
+                }
+            }
+        });
+        actions.add(READ, ActionTable.HOT, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                SerialConnection connection = findConnection(args, 0, callbackContext);
+                if (connection != null) {
+                    callbackContext.success(connection.read());
+                }
+            }
+        });
+        actions.add(READ_UNTIL, ActionTable.HOT, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                SerialConnection connection = findConnection(args, 1, callbackContext);
+                if (connection != null) {
+                    String interesting = args.getString(0);
+                    callbackContext.success(connection.readUntil(interesting));
+                }
+            }
+        });
+        actions.add(SUBSCRIBE, 0, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                SerialConnection connection = findConnection(args, 1, callbackContext);
+                if (connection != null) {
+                    // the delimiter can be a string or an options object
+                    JSONObject options = args.optJSONObject(0);
+                    connection.subscribe(options == null ? args.getString(0) : null, options, callbackContext);
+                }
+            }
+        });
+        actions.add(UNSUBSCRIBE, 0, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                SerialConnection connection = findConnection(args, 0, callbackContext);
+                if (connection != null) {
+                    String name = args.isNull(1) ? null : args.getString(1);
+                    if (connection.unsubscribe(name)) {
+                        callbackContext.success();
+                    } else {
+                        callbackContext.error("No subscriber named " + name);
+                    }
+                }
+            }
+        });
+        actions.add(SUBSCRIBE_RAW, 0, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                SerialConnection connection = findConnection(args, 1, callbackContext);
+                if (connection != null) {
+                    connection.subscribeRaw(args.optJSONObject(0), callbackContext);
+                }
+            }
+        });
+        actions.add(UNSUBSCRIBE_RAW, 0, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                SerialConnection connection = findConnection(args, 0, callbackContext);
+                if (connection != null) {
+                    connection.unsubscribeRaw();
+                    callbackContext.success();
+                }
+            }
+        });
+        actions.add(IS_ENABLED, 0, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                if (bluetoothAdapter.isEnabled()) {
+                    callbackContext.success();
+                } else {
+                    callbackContext.error("Bluetooth is disabled.");
+                }
+            }
+        });
+        actions.add(IS_CONNECTED, ActionTable.HOT, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                SerialConnection connection = findConnection(args, 0, callbackContext);
+                if (connection != null) {
+                    if (connection.isConnected()) {
+                        callbackContext.success();
+                    } else {
+                        callbackContext.error("Not connected.");
+                    }
+                }
+            }
+        });
+        actions.add(CLEAR, ActionTable.HOT, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                SerialConnection connection = findConnection(args, 0, callbackContext);
+                if (connection != null) {
+                    connection.clear();
+                    callbackContext.success();
+                }
+            }
+        });
+        actions.add(CONFIGURE_BUFFER, 0, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                SerialConnection connection = findConnection(args, 2, callbackContext);
+                if (connection != null) {
+                    configureBuffer(connection, args, callbackContext);
+                }
+            }
+        });
+        actions.add(SET_CHARSET, 0, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                SerialConnection connection = findConnection(args, 1, callbackContext);
+                if (connection != null) {
+                    Charset charset = charsetForName(args.getString(0));
+                    if (charset == null) {
+                        callbackContext.error("Unsupported charset " + args.getString(0));
+                    } else {
+                        connection.setCharset(charset);
+                        callbackContext.success();
+                    }
+                }
+            }
+        });
+        actions.add(SET_WRITE_QUEUE_LISTENER, 0, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                SerialConnection connection = findConnection(args, 2, callbackContext);
+                if (connection != null) {
+                    long high = args.getLong(0);
+                    long low = args.getLong(1);
+                    if (low < 0 || high <= low) {
+                        callbackContext.error("The high watermark must be above the low watermark");
+                    } else {
+                        connection.setWriteQueueListener(high, low, callbackContext);
+                    }
+                }
+            }
+        });
+        actions.add(CLEAR_WRITE_QUEUE_LISTENER, 0, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                SerialConnection connection = findConnection(args, 0, callbackContext);
+                if (connection != null) {
+                    connection.clearWriteQueueListener();
+                    callbackContext.success();
+                }
+            }
+        });
+        actions.add(SET_WRITE_COALESCING, 0, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                SerialConnection connection = findConnection(args, 2, callbackContext);
+                if (connection != null) {
+                    long window = args.getLong(0);
+                    int maxBytes = args.isNull(1) ? DEFAULT_COALESCE_BYTES : args.getInt(1);
+                    if (window < 0 || maxBytes <= 0) {
+                        callbackContext.error("Invalid coalescing configuration");
+                    } else {
+                        connection.setWriteCoalescing(window, maxBytes);
+                        callbackContext.success();
+                    }
+                }
+            }
+        });
+        actions.add(FLUSH, ActionTable.HOT, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                SerialConnection connection = findConnection(args, 0, callbackContext);
+                if (connection != null) {
+                    connection.flush(callbackContext);
+                }
+            }
+        });
+        actions.add(START_TRANSFER, 0, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                SerialConnection connection = findConnection(args, 1, callbackContext);
+                if (connection != null) {
+                    long totalSize = args.getLong(0);
+                    if (totalSize <= 0) {
+                        callbackContext.error("Invalid transfer size");
+                    } else {
+                        connection.startTransfer(totalSize, callbackContext);
+                    }
+                }
+            }
+        });
+        actions.add(WRITE_CHUNK, ActionTable.HOT, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                SerialConnection connection = findConnection(args, 2, callbackContext);
+                if (connection != null) {
+                    connection.writeChunk(args.getInt(0), args.getArrayBuffer(1), callbackContext);
+                }
+            }
+        });
+        actions.add(CANCEL_TRANSFER, 0, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                SerialConnection connection = findConnection(args, 0, callbackContext);
+                if (connection != null) {
+                    connection.cancelTransfer();
+                    callbackContext.success();
+                }
+            }
+        });
+        actions.add(GET_WRITE_STATS, 0, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                SerialConnection connection = findConnection(args, 0, callbackContext);
+                if (connection != null) {
+                    callbackContext.success(connection.getWriteStats());
+                }
+            }
+        });
+        actions.add(GET_CONNECT_TIMINGS, 0, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                SerialConnection connection = findConnection(args, 0, callbackContext);
+                if (connection != null) {
+                    callbackContext.success(connection.getConnectTimings());
+                }
+            }
+        });
+        actions.add(GET_STATS, 0, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                SerialConnection connection = findConnection(args, 0, callbackContext);
+                if (connection != null) {
+                    callbackContext.success(connection.getStats());
+                }
+            }
+        });
+        actions.add(SUBSCRIBE_STATS, 0, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                SerialConnection connection = findConnection(args, 1, callbackContext);
+                if (connection != null) {
+                    long interval = args.isNull(0) ? DEFAULT_STATS_INTERVAL : args.getLong(0);
+                    if (interval <= 0) {
+                        callbackContext.error("The stats interval must be positive");
+                    } else {
+                        connection.subscribeStats(interval, callbackContext);
+                    }
+                }
+            }
+        });
+        actions.add(UNSUBSCRIBE_STATS, 0, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                SerialConnection connection = findConnection(args, 0, callbackContext);
+                if (connection != null) {
+                    connection.unsubscribeStats();
+                    callbackContext.success();
+                }
+            }
+        });
+        actions.add(GET_BATCH_STATS, 0, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                SerialConnection connection = findConnection(args, 0, callbackContext);
+                if (connection != null) {
+                    callbackContext.success(connection.getBatchStats());
+                }
+            }
+        });
+        actions.add(SETTINGS, 0, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                Intent intent = new Intent(Settings.ACTION_BLUETOOTH_SETTINGS);
+                cordova.getActivity().startActivity(intent);
+                callbackContext.success();
+            }
+        });
+        actions.add(ENABLE, ActionTable.PERMISSIONS, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
                 enableBluetoothCallback = callbackContext;
                 Intent intent = new Intent(BluetoothAdapter.ACTION_REQUEST_ENABLE);
-                cordova.startActivityForResult(this, intent, REQUEST_ENABLE_BLUETOOTH);
+                cordova.startActivityForResult(BluetoothSerial.this, intent, REQUEST_ENABLE_BLUETOOTH);
             }
-        } else if (action.equals(DISCOVER_UNPAIRED)) {
-            // Android.S and above needs different permissions
-            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.S) {
-                // I want to ask ACCESS_FINE_LOCATION only if I need it.
-                // Elseway it would be awkward asking an unneeded permission
-                boolean fineLocation = false;
-                try {fineLocation = args.getBoolean(0) || false;} catch (Exception e1) {}
-                if ((!fineLocation || (cordova.hasPermission(ACCESS_FINE_LOCATION) && fineLocation)) && cordova.hasPermission(BLUETOOTH_SCAN) && cordova.hasPermission(BLUETOOTH_CONNECT)) {
-                    discoverUnpairedDevices(callbackContext);
-                } else if (fineLocation && !cordova.hasPermission(ACCESS_FINE_LOCATION)) {
-                    hadPermissions = false;
-                    permissionGrantedExecuteAction = action;
-                    permissionGrantedExecuteArgs = args;
-                    permissionCallbackContext = callbackContext;
-                    cordova.requestPermission(this, CHECK_PERMISSIONS_REQ_CODE_ACCESS_FINE_LOCATION, ACCESS_FINE_LOCATION);
-                } else if (!cordova.hasPermission(BLUETOOTH_CONNECT)) {
-                    hadPermissions = false;
-                    permissionGrantedExecuteAction = action;
-                    permissionGrantedExecuteArgs = args;
-                    permissionCallbackContext = callbackContext;
-                    cordova.requestPermission(this, CHECK_PERMISSIONS_REQ_CODE_BLUETOOTH_CONNECT, BLUETOOTH_CONNECT);
-                } else if (!cordova.hasPermission(BLUETOOTH_SCAN)) {
-                    hadPermissions = false;
-                    permissionGrantedExecuteAction = action;
-                    permissionGrantedExecuteArgs = args;
-                    permissionCallbackContext = callbackContext;
-                    cordova.requestPermission(this, CHECK_PERMISSIONS_REQ_CODE_BLUETOOTH_SCAN, BLUETOOTH_SCAN);
-                }
-            }
-            else {
-                if (cordova.hasPermission(ACCESS_COARSE_LOCATION)) {
-                    discoverUnpairedDevices(callbackContext);
-                } else {
-                    hadPermissions = false;
-                    permissionGrantedExecuteAction = action;
-                    permissionGrantedExecuteArgs = args;
-                    permissionCallbackContext = callbackContext;
-                    cordova.requestPermission(this, CHECK_PERMISSIONS_REQ_CODE_ACCESS_COARSE_LOCATION, ACCESS_COARSE_LOCATION);
-                }
-            }
-        } else if (action.equals(SET_DEVICE_DISCOVERED_LISTENER)) {
-            this.deviceDiscoveredCallback = callbackContext;
-        } else if (action.equals(CLEAR_DEVICE_DISCOVERED_LISTENER)) {
-            this.deviceDiscoveredCallback = null;
-        } else if (action.equals(SET_NAME)) {
-            String newName = args.getString(0);
-            bluetoothAdapter.setName(newName);
-            callbackContext.success();
-        } else if (action.equals(SET_DISCOVERABLE)) {
-            if (!cordova.hasPermission(BLUETOOTH_ADVERTISE)) {
-                hadPermissions = false;
-                LOG.d("RP", "ask permission: advertise");
-                cordova.requestPermission(this, CHECK_PERMISSIONS_REQ_CODE_BLUETOOTH_ADVERTISE, BLUETOOTH_ADVERTISE);
-            }
-            //
-            int discoverableDuration = args.getInt(0);
-            Intent discoverIntent = new Intent(BluetoothAdapter.ACTION_REQUEST_DISCOVERABLE);
-            discoverIntent.putExtra(BluetoothAdapter.EXTRA_DISCOVERABLE_DURATION, discoverableDuration);
-            cordova.getActivity().startActivity(discoverIntent);
-        } else {
-            validAction = false;
-        }
-        //
-        if (hadPermissions) {
-            permissionCallbackContext = null;
-            permissionGrantedExecuteAction = null;
-            permissionGrantedExecuteArgs = null;
-        }
-        //
-        return validAction;
+        });
+        actions.add(DISCOVER_UNPAIRED, ActionTable.PERMISSIONS, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                discoverUnpairedDevices(callbackContext);
+            }
+        });
+        actions.add(SET_DEVICE_DISCOVERED_LISTENER, 0, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                getDiscovery().setListener(callbackContext);
+            }
+        });
+        actions.add(CLEAR_DEVICE_DISCOVERED_LISTENER, 0, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                getDiscovery().setListener(null);
+            }
+        });
+        actions.add(GET_CACHED_DEVICES, 0, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                long maxAge = args.isNull(0) ? DeviceDiscovery.CACHE_TTL : args.getLong(0);
+                callbackContext.success(getDiscovery().getCachedDevices(maxAge));
+            }
+        });
+        actions.add(SET_NAME, ActionTable.BACKGROUND, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                String newName = args.getString(0);
+                bluetoothAdapter.setName(newName);
+                callbackContext.success();
+            }
+        });
+        actions.add(SET_DISCOVERABLE, ActionTable.PERMISSIONS, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                int discoverableDuration = args.getInt(0);
+                Intent discoverIntent = new Intent(BluetoothAdapter.ACTION_REQUEST_DISCOVERABLE);
+                discoverIntent.putExtra(BluetoothAdapter.EXTRA_DISCOVERABLE_DURATION, discoverableDuration);
+                cordova.getActivity().startActivity(discoverIntent);
+            }
+        });
+        actions.add(GET_ACTION_STATS, 0, new ActionTable.Handler() {
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                callbackContext.success(actions.getStats());
+            }
+        });
     }
 
     @Override
@@ -324,63 +557,54 @@ public class BluetoothSerial extends CordovaPlugin {
     @Override
     public void onDestroy() {
         super.onDestroy();
-        if (bluetoothSerialService != null) {
-            bluetoothSerialService.stop();
+        if (connections != null) {
+            connections.destroy();
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (discovery != null) {
+            discovery.destroy();
+        }
+        if (bondedDevices != null) {
+            bondedDevices.destroy();
         }
     }
 
-    private void listBondedDevices(CallbackContext callbackContext) throws JSONException {
-        JSONArray deviceList = new JSONArray();
-        Set<BluetoothDevice> bondedDevices = bluetoothAdapter.getBondedDevices();
-        //
-        for (BluetoothDevice device : bondedDevices) {
-            deviceList.put(deviceToJSON(device));
+    private synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor();
         }
-        callbackContext.success(deviceList);
+        return scheduler;
     }
 
-    private void discoverUnpairedDevices(final CallbackContext callbackContext) throws JSONException {
-        final CallbackContext ddc = deviceDiscoveredCallback;
-        final BroadcastReceiver discoverReceiver = new BroadcastReceiver() {
-            private JSONArray unpairedDevices = new JSONArray();
-            public void onReceive(Context context, Intent intent) {
-                String action = intent.getAction();
-                LOG.d(TAG, "onReceive " + BluetoothDevice.ACTION_FOUND);
-                if (BluetoothDevice.ACTION_FOUND.equals(action)) {
-                    BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-                    try {
-                        JSONObject o = deviceToJSON(device);
-                        unpairedDevices.put(o);
-                        if (ddc != null) {
-                            PluginResult res = new PluginResult(PluginResult.Status.OK, o);
-                            res.setKeepCallback(true);
-                            ddc.sendPluginResult(res);
-                        }
-                    } catch (JSONException e) {
-                        // This shouldn't happen, log and ignore
-                        Log.e(TAG, "Problem converting device to JSON", e);
-                    }
-                }
-                else if (BluetoothAdapter.ACTION_DISCOVERY_STARTED.equals(action)) {
-                    LOG.d(TAG, "discovery started...");
-                }
-                else if (BluetoothAdapter.ACTION_DISCOVERY_FINISHED.equals(action)) {
-                    LOG.d(TAG, "Discovery finished!");
-                    callbackContext.success(unpairedDevices);
-                    cordova.getActivity().unregisterReceiver(this);
-                }
+    private void listBondedDevices(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        synchronized (this) {
+            if (bondedDevices == null) {
+                bondedDevices = new BondedDevices(bluetoothAdapter);
             }
-        };
-        //
+        }
+        JSONObject options = args.optJSONObject(0);
+        if (options != null && options.has("since")) {
+            callbackContext.success(bondedDevices.listSince(cordova.getActivity(), options.optLong("since", 0)));
+        } else {
+            callbackContext.success(bondedDevices.list(cordova.getActivity()));
+        }
+    }
+
+    private void discoverUnpairedDevices(CallbackContext callbackContext) {
         // Permissions has already been given by exec method
-        // Start discovering
-        Activity activity = cordova.getActivity();
-        activity.registerReceiver(discoverReceiver, new IntentFilter(BluetoothDevice.ACTION_FOUND));
-        activity.registerReceiver(discoverReceiver, new IntentFilter(BluetoothAdapter.ACTION_DISCOVERY_FINISHED));
-        bluetoothAdapter.startDiscovery();
+        getDiscovery().discover(cordova.getActivity(), callbackContext);
     }
 
-    private JSONObject deviceToJSON(BluetoothDevice device) throws JSONException {
+    private synchronized DeviceDiscovery getDiscovery() {
+        if (discovery == null) {
+            discovery = new DeviceDiscovery(bluetoothAdapter);
+        }
+        return discovery;
+    }
+
+    static JSONObject deviceToJSON(BluetoothDevice device) throws JSONException {
         JSONObject json = new JSONObject();
         json.put("name", device.getName());
         json.put("address", device.getAddress());
@@ -396,198 +620,139 @@ public class BluetoothSerial extends CordovaPlugin {
         BluetoothDevice device = bluetoothAdapter.getRemoteDevice(macAddress);
         //
         if (device != null) {
-            connectCallback = callbackContext;
-            bluetoothSerialService.connect(device, secure);
-            buffer.setLength(0);
-            //
-            PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
-            result.setKeepCallback(true);
-            callbackContext.sendPluginResult(result);
+            connections.connectionFor(device.getAddress()).connect(new RfcommTransport(device, secure), args.optJSONObject(1), callbackContext);
         } else {
             callbackContext.error("Could not connect to " + macAddress);
         }
     }
 
-    // The Handler that gets information back from the BluetoothSerialService
-    // Original code used handler for the because it was talking to the UI.
-    // Consider replacing with normal callbacks
-    private final Handler mHandler = new Handler() {
-
-         public void handleMessage(Message msg) {
-             switch (msg.what) {
-                 case MESSAGE_READ:
-                    buffer.append((String)msg.obj);
-                    if (dataAvailableCallback != null) {
-                        sendDataToSubscriber();
-                    }
-                    break;
-                 case MESSAGE_READ_RAW:
-                    if (rawDataAvailableCallback != null) {
-                        byte[] bytes = (byte[]) msg.obj;
-                        sendRawDataToSubscriber(bytes);
-                    }
-                    break;
-                 case MESSAGE_STATE_CHANGE:
-                    if(D) Log.i(TAG, "MESSAGE_STATE_CHANGE: " + msg.arg1);
-                    switch (msg.arg1) {
-                        case BluetoothSerialService.STATE_CONNECTED:
-                            Log.i(TAG, "BluetoothSerialService.STATE_CONNECTED");
-                            notifyConnectionSuccess();
-                            break;
-                        case BluetoothSerialService.STATE_CONNECTING:
-                            Log.i(TAG, "BluetoothSerialService.STATE_CONNECTING");
-                            break;
-                        case BluetoothSerialService.STATE_LISTEN:
-                            Log.i(TAG, "BluetoothSerialService.STATE_LISTEN");
-                            break;
-                        case BluetoothSerialService.STATE_NONE:
-                            Log.i(TAG, "BluetoothSerialService.STATE_NONE");
-                            break;
-                    }
-                    break;
-                case MESSAGE_WRITE:
-                    //  byte[] writeBuf = (byte[]) msg.obj;
-                    //  String writeMessage = new String(writeBuf);
-                    //  Log.i(TAG, "Wrote: " + writeMessage);
-                    break;
-                case MESSAGE_DEVICE_NAME:
-                    Log.i(TAG, msg.getData().getString(DEVICE_NAME));
-                    break;
-                case MESSAGE_TOAST:
-                    String message = msg.getData().getString(TOAST);
-                    notifyConnectionLost(message);
-                    break;
-             }
-         }
-    };
-
-    private void notifyConnectionLost(String error) {
-        if (connectCallback != null) {
-            connectCallback.error(error);
-            connectCallback = null;
+    /**
+     * Connect to whichever of the devices answers first. Devices that already
+     * have an idle connection are forgotten, since the winner gets a fresh one.
+     */
+    private void connectAny(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        JSONArray addresses = args.getJSONArray(0);
+        long timeout = args.isNull(1) ? 0 : args.getLong(1);
+        if (addresses.length() == 0 || timeout < 0) {
+            callbackContext.error("Invalid connectAny arguments");
+            return;
         }
-    }
 
-    private void notifyConnectionSuccess() {
-        if (connectCallback != null) {
-            PluginResult result = new PluginResult(PluginResult.Status.OK);
-            result.setKeepCallback(true);
-            connectCallback.sendPluginResult(result);
+        List<RfcommTransport> transports = new ArrayList<RfcommTransport>();
+        List<String> deviceAddresses = new ArrayList<String>();
+        for (int i = 0; i < addresses.length(); i++) {
+            BluetoothDevice device = bluetoothAdapter.getRemoteDevice(addresses.getString(i));
+            transports.add(new RfcommTransport(device, true));
+            deviceAddresses.add(device.getAddress());
         }
+        String connected = connections.releaseIdle(deviceAddresses);
+        if (connected != null) {
+            callbackContext.error("Already connected to " + connected);
+            return;
+        }
+        connections.idleConnection().connectAny(transports, timeout, callbackContext);
     }
 
-    private void sendRawDataToSubscriber(byte[] data) {
-        if (data != null && data.length > 0) {
-            PluginResult result = new PluginResult(PluginResult.Status.OK, data);
-            result.setKeepCallback(true);
-            rawDataAvailableCallback.sendPluginResult(result);
+    /**
+     * Return the connection named by the optional connection id argument, or
+     * the default connection when the argument is missing. Fails the callback
+     * when there is no connection with that id.
+     */
+    private SerialConnection findConnection(CordovaArgs args, int index, CallbackContext callbackContext) throws JSONException {
+        if (args.isNull(index)) {
+            return connections.getDefault();
+        }
+        String id = args.getString(index).toUpperCase(Locale.US);
+        SerialConnection connection = connections.find(id);
+        if (connection == null) {
+            callbackContext.error("Not connected to " + id);
         }
+        return connection;
     }
 
-    private void sendDataToSubscriber() {
-        String data = readUntil(delimiter);
-        if (data != null && data.length() > 0) {
-            PluginResult result = new PluginResult(PluginResult.Status.OK, data);
-            result.setKeepCallback(true);
-            dataAvailableCallback.sendPluginResult(result);
-
-            sendDataToSubscriber();
+    private void configureBuffer(SerialConnection connection, CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        int capacity = args.getInt(0);
+        ByteRingBuffer.OverflowPolicy policy = ByteRingBuffer.OverflowPolicy.fromString(args.optString(1));
+        if (capacity <= 0 || policy == null) {
+            callbackContext.error("Invalid buffer configuration");
+            return;
         }
+        connection.configureBuffer(capacity, policy);
+        callbackContext.success();
     }
 
-    private int available() {
-        return buffer.length();
+    private void writeAndExpect(SerialConnection connection, CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        String pattern = args.getString(1);
+        long timeout = args.getLong(3);
+        if (pattern.length() == 0 || timeout <= 0) {
+            callbackContext.error("Invalid expect pattern or timeout");
+            return;
+        }
+        Expectation expectation;
+        if (args.optBoolean(2)) {
+            try {
+                Pattern compiled = Pattern.compile(pattern);
+                if (Expectation.matchesEmpty(compiled)) {
+                    callbackContext.error("Invalid expect pattern: matches the empty string");
+                    return;
+                }
+                expectation = new Expectation(null, compiled, pattern, callbackContext);
+            } catch (PatternSyntaxException e) {
+                callbackContext.error("Invalid expect pattern: " + e.getDescription());
+                return;
+            }
+        } else {
+            expectation = new Expectation(connection.encode(pattern), null, pattern, callbackContext);
+        }
+        byte[] data = WriteData.fromArgs(args, 0, args.isNull(5) ? null : args.getString(5));
+        if (data == null) {
+            callbackContext.error("Invalid write data");
+            return;
+        }
+        connection.writeAndExpect(data, expectation, timeout);
     }
 
-    private String read() {
-        int length = buffer.length();
-        String data = buffer.substring(0, length);
-        buffer.delete(0, length);
-        return data;
+    // Return the charset with the given name, null if the name is unknown
+    private Charset charsetForName(String name) {
+        try {
+            return Charset.isSupported(name) ? Charset.forName(name) : null;
+        } catch (IllegalCharsetNameException e) {
+            return null;
+        }
     }
 
-    private String readUntil(String c) {
-        String data = "";
-        int index = buffer.indexOf(c, 0);
-        if (index > -1) {
-            data = buffer.substring(0, index + c.length());
-            buffer.delete(0, index + c.length());
+    // The runtime permissions an action needs, null for none
+    private String[] requiredPermissions(String action, CordovaArgs args) {
+        if (action.equals(LIST) || action.equals(ENABLE)) {
+            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.S) {
+                return new String[] { BLUETOOTH_CONNECT, BLUETOOTH_SCAN };
+            }
+        } else if (action.equals(DISCOVER_UNPAIRED)) {
+            // Android.S and above needs different permissions
+            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.S) {
+                // Only ask for ACCESS_FINE_LOCATION when the app needs it,
+                // asking for an unneeded permission would be awkward
+                if (args.optBoolean(0)) {
+                    return new String[] { BLUETOOTH_CONNECT, BLUETOOTH_SCAN, ACCESS_FINE_LOCATION };
+                }
+                return new String[] { BLUETOOTH_CONNECT, BLUETOOTH_SCAN };
+            }
+            return new String[] { ACCESS_COARSE_LOCATION };
+        } else if (action.equals(SET_DISCOVERABLE)) {
+            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.S) {
+                return new String[] { BLUETOOTH_ADVERTISE };
+            }
         }
-        return data;
+        return null;
     }
 
     @Override
     public void onRequestPermissionResult(int requestCode, String[] permissions,
                                           int[] grantResults) throws JSONException {
-        // Based on the result and the given permission, return different things.
-        // Errors are raised for the proper permission.
-        String logMessage = "";
-        String pluginResultMessage = "";
-        //
-        for(int result:grantResults) {
-            if(result == PackageManager.PERMISSION_DENIED) {
-                switch(requestCode) {
-                    case CHECK_PERMISSIONS_REQ_CODE_BLUETOOTH_SCAN:
-                        logMessage = "User *rejected* scan permission";
-                        pluginResultMessage = "Scan permission is required.";
-                        break;
-                    case CHECK_PERMISSIONS_REQ_CODE_BLUETOOTH_CONNECT:
-                        logMessage = "User *rejected* connect permission";
-                        pluginResultMessage = "Connect permission is required.";
-                        break;
-                    case CHECK_PERMISSIONS_REQ_CODE_BLUETOOTH_ADVERTISE:
-                        logMessage = "User *rejected* advertise permission";
-                        pluginResultMessage = "Advertise permission is required.";
-                        break;
-                    case CHECK_PERMISSIONS_REQ_CODE_ACCESS_FINE_LOCATION:
-                        logMessage = "User *rejected* fine location permission";
-                        pluginResultMessage = "Fine location permission is required.";
-                        break;
-                    case CHECK_PERMISSIONS_REQ_CODE_ACCESS_COARSE_LOCATION:
-                        logMessage = "User *rejected* coarse location permission";
-                        pluginResultMessage = "Coarse location permission is required.";
-                        break;
-                }
-                //
-                LOG.d(TAG, logMessage);
-                this.permissionCallbackContext.sendPluginResult(new PluginResult(
-                        PluginResult.Status.ERROR,
-                        pluginResultMessage)
-                );
-                return;
-            }
-        }
-        //
-        // Permission was granted, generate different message for each permission.
-        switch(requestCode) {
-            case CHECK_PERMISSIONS_REQ_CODE_BLUETOOTH_SCAN:
-                logMessage = "User *granted* scan permission";
-                pluginResultMessage = "Scan permission is granted.";
-                break;
-            case CHECK_PERMISSIONS_REQ_CODE_BLUETOOTH_CONNECT:
-                logMessage = "User *granted* connect permission";
-                pluginResultMessage = "Connect permission is granted.";
-                break;
-            case CHECK_PERMISSIONS_REQ_CODE_BLUETOOTH_ADVERTISE:
-                logMessage = "User *granted* advertise permission";
-                pluginResultMessage = "Advertise permission is granted.";
-                break;
-            case CHECK_PERMISSIONS_REQ_CODE_ACCESS_FINE_LOCATION:
-                logMessage = "User *granted* fine location permission";
-                pluginResultMessage = "Fine location permission is granted.";
-                break;
-            case CHECK_PERMISSIONS_REQ_CODE_ACCESS_COARSE_LOCATION:
-                logMessage = "User *granted* coarse location permission";
-                pluginResultMessage = "Coarse location permission is granted.";
-                break;
+        if (requestCode != PermissionCoordinator.REQUEST_CODE) return;
+        // Run every action that was waiting for the permissions, the others have failed
+        for (PermissionCoordinator.PendingAction pending : this.permissions.onResult(permissions, grantResults)) {
+            execute(pending.action, pending.args, pending.callbackContext);
         }
-        //
-        // Log the granted permission
-        LOG.d(TAG, logMessage);
-        //
-        // Launch again the "execute" method.
-        // This way the plugin can ask for all the permissions and launch the proper method when granted, base on why the
-        // permission was requested (list, discover, ecc.)
-        execute(permissionGrantedExecuteAction, permissionGrantedExecuteArgs, permissionCallbackContext);
     }
 }
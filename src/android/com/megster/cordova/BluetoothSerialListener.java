@@ -0,0 +1,34 @@
+package com.megster.cordova;
+
+/**
+ * Receives the events of a BluetoothSerialService.
+ *
+ * The service calls the listener from its own threads. Wrap the listener in
+ * a DispatchingListener to receive the events on a dedicated thread.
+ *
+ * onStateChange and onDeviceName are called while the service holds its
+ * lock, so they must not block or wait for a thread that calls into the
+ * service.
+ */
+public interface BluetoothSerialListener {
+
+    /**
+     * The connection state changed.
+     * @param state  one of the BluetoothSerialService STATE_ constants
+     */
+    void onStateChange(int state);
+
+    /**
+     * A connection was made to the named device. */
+    void onDeviceName(String name);
+
+    /**
+     * Data was received. The listener owns the chunk and must recycle it
+     * once the data has been consumed.
+     */
+    void onRead(ChunkPool.Chunk chunk);
+
+    /**
+     * The connection attempt failed or an established connection was lost. */
+    void onConnectionError(String message);
+}
@@ -3,16 +3,17 @@ package com.megster.cordova;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
-import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothServerSocket;
 import android.bluetooth.BluetoothSocket;
-import android.os.Bundle;
-import android.os.Handler;
-import android.os.Message;
 import android.util.Log;
 
 /**
@@ -21,6 +22,9 @@ import android.util.Log;
  * incoming connections, a thread for connecting with a device, and a
  * thread for performing data transmissions when connected.
  *
+ * Outgoing connections go through a SerialTransport, RFCOMM on a phone,
+ * so the same threads can also run over an in-memory pipe or TCP.
+ *
  * This code was based on the Android SDK BluetoothChat Sample
  * $ANDROID_SDK/samples/android-17/BluetoothChat
  */
@@ -38,17 +42,45 @@ public class BluetoothSerialService {
     private static final UUID MY_UUID_SECURE = UUID.fromString("7A9C3B55-78D0-44A7-A94E-A93E3FE118CE");
     private static final UUID MY_UUID_INSECURE = UUID.fromString("23F18142-B389-4772-93BD-52BDBB2C03E9");
 
-    // Well known SPP UUID
-    private static final UUID UUID_SPP = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+    // Buffers for the read loop, returned to the pool by the listener. The
+    // pool keeps as many as the dispatcher lets the reader hand out, so the
+    // chunks of a burst are reused instead of garbage collected.
+    private static final int CHUNK_SIZE = 1024;
+    private static final int MAX_POOLED_CHUNKS = DispatchingListener.DEFAULT_QUEUE_SIZE;
 
     // Member fields
-    private final BluetoothAdapter mAdapter;
-    private final Handler mHandler;
+    private final BluetoothSerialListener mListener;
+    private final ScheduledExecutorService mScheduler;
+    private final ChunkPool mChunkPool = new ChunkPool(CHUNK_SIZE, MAX_POOLED_CHUNKS);
+
+    // Writes are queued and written by a writer thread per connection
+    private static final long WRITE_QUEUE_CAPACITY = 1024 * 1024;
+    private long mHighWatermark = WRITE_QUEUE_CAPACITY;
+    private long mLowWatermark = 0;
+    private WriteQueue.WatermarkListener mWatermarkListener;
+    private long mCoalesceWindow = 0;
+    private int mCoalesceBytes = 0;
     private AcceptThread mSecureAcceptThread;
     private AcceptThread mInsecureAcceptThread;
     private ConnectThread mConnectThread;
+    private ConnectRace<SerialSocket> mConnectRace;
     private ConnectedThread mConnectedThread;
-    private int mState;
+    // Read without the lock by the listener, which must not wait for the service
+    private volatile SerialTransport mConnectedTransport;
+    private volatile String mConnectedName;
+    private volatile int mState;
+
+    // Timeouts, only used when the service has a scheduler
+    private long mConnectTimeout = 0;
+    private LinkWatchdog.Settings mWatchdogSettings;
+
+    // Phases of the last outgoing connection
+    private volatile ConnectStrategy.Timings mConnectTimings;
+    private volatile long mConnectMillis = -1;
+
+    // Counters across all connections of this service, and when the pending connect started
+    private final ConnectionStats mStats = new ConnectionStats();
+    private long mConnectStart;
 
     // Constants that indicate the current connection state
     public static final int STATE_NONE = 0;       // we're doing nothing
@@ -58,29 +90,39 @@ public class BluetoothSerialService {
 
     /**
      * Constructor. Prepares a new BluetoothSerial session.
-     * @param handler  A Handler to send messages back to the UI Activity
+     * @param listener  A listener to send events back to the plugin
+     */
+    public BluetoothSerialService(BluetoothSerialListener listener) {
+        this(listener, null);
+    }
+
+    /**
+     * Constructor. Prepares a new BluetoothSerial session with timeouts.
+     * @param listener  A listener to send events back to the plugin
+     * @param scheduler  Runs the connect timeout and the link watchdog, null to disable them
      */
-    public BluetoothSerialService(Handler handler) {
-        mAdapter = BluetoothAdapter.getDefaultAdapter();
+    public BluetoothSerialService(BluetoothSerialListener listener, ScheduledExecutorService scheduler) {
         mState = STATE_NONE;
-        mHandler = handler;
+        mListener = listener;
+        mScheduler = scheduler;
     }
 
     /**
-     * Set the current state of the chat connection
+     * Set the current state of the chat connection. The listener is called
+     * with the lock held, so it must not block.
      * @param state  An integer defining the current connection state
      */
     private synchronized void setState(int state) {
         if (D) Log.d(TAG, "setState() " + mState + " -> " + state);
         mState = state;
 
-        // Give the new state to the Handler so the UI Activity can update
-        mHandler.obtainMessage(BluetoothSerial.MESSAGE_STATE_CHANGE, state, -1).sendToTarget();
+        // Give the new state to the listener so the plugin can update
+        mListener.onStateChange(state);
     }
 
     /**
      * Return the current connection state. */
-    public synchronized int getState() {
+    public int getState() {
         return mState;
     }
 
@@ -92,6 +134,7 @@ public class BluetoothSerialService {
 
         // Cancel any thread attempting to make a connection
         if (mConnectThread != null) {mConnectThread.cancel(); mConnectThread = null;}
+        if (mConnectRace != null) {mConnectRace.cancel(); mConnectRace = null;}
 
         // Cancel any thread currently running a connection
         if (mConnectedThread != null) {mConnectedThread.cancel(); mConnectedThread = null;}
@@ -118,28 +161,83 @@ public class BluetoothSerialService {
      * @param secure Socket Security type - Secure (true) , Insecure (false)
      */
     public synchronized void connect(BluetoothDevice device, boolean secure) {
-        if (D) Log.d(TAG, "connect to: " + device);
+        connect(new RfcommTransport(device, secure));
+    }
+
+    /**
+     * Start the ConnectThread to initiate a connection through a transport.
+     * @param transport  How to reach the remote device
+     */
+    public synchronized void connect(SerialTransport transport) {
+        if (D) Log.d(TAG, "connect to: " + transport.getAddress());
 
         // Cancel any thread attempting to make a connection
         if (mState == STATE_CONNECTING) {
             if (mConnectThread != null) {mConnectThread.cancel(); mConnectThread = null;}
+            if (mConnectRace != null) {mConnectRace.cancel(); mConnectRace = null;}
         }
 
         // Cancel any thread currently running a connection
         if (mConnectedThread != null) {mConnectedThread.cancel(); mConnectedThread = null;}
 
         // Start the thread to connect with the given device
-        mConnectThread = new ConnectThread(device, secure);
+        mConnectStart = System.nanoTime();
+        mConnectThread = new ConnectThread(transport);
         mConnectThread.start();
         setState(STATE_CONNECTING);
     }
 
+    /**
+     * Connect to several devices at the same time and keep the first
+     * connection that succeeds. The others are cancelled and closed.
+     * @param transports  How to reach each candidate device
+     * @param scheduler  Runs the timeout
+     * @param timeoutMillis  Give up when no device connected by then, 0 to wait for every attempt
+     */
+    public synchronized void connectAny(List<? extends SerialTransport> transports,
+                                        ScheduledExecutorService scheduler, long timeoutMillis) {
+        if (D) Log.d(TAG, "connect to any of " + transports.size() + " devices");
+
+        // Cancel any thread attempting to make a connection
+        if (mState == STATE_CONNECTING) {
+            if (mConnectThread != null) {mConnectThread.cancel(); mConnectThread = null;}
+            if (mConnectRace != null) {mConnectRace.cancel(); mConnectRace = null;}
+        }
+
+        // Cancel any thread currently running a connection
+        if (mConnectedThread != null) {mConnectedThread.cancel(); mConnectedThread = null;}
+
+        List<SerialTransport.Connector> connectors = new ArrayList<SerialTransport.Connector>();
+        for (SerialTransport transport : transports) {
+            connectors.add(transport.newConnector());
+        }
+        RaceListener listener = new RaceListener(connectors);
+        ConnectRace<SerialSocket> race = new ConnectRace<SerialSocket>(connectors, listener);
+        listener.race = race;
+        mConnectRace = race;
+        mConnectStart = System.nanoTime();
+        setState(STATE_CONNECTING);
+        race.start(scheduler, timeoutMillis);
+    }
+
     /**
      * Start the ConnectedThread to begin managing a Bluetooth connection
      * @param socket  The BluetoothSocket on which the connection was made
      * @param device  The BluetoothDevice that has been connected
      */
     public synchronized void connected(BluetoothSocket socket, BluetoothDevice device, final String socketType) {
+        connected(new RfcommTransport.RfcommSocket(socket), new RfcommTransport(device, "Secure".equals(socketType)),
+                socketType, null);
+    }
+
+    /**
+     * Start the ConnectedThread to begin managing a connection
+     * @param socket  The socket on which the connection was made
+     * @param transport  The transport that made the connection, used to reconnect
+     * @param timings  How long the connection took so far, null if not measured
+     */
+    private synchronized void connected(SerialSocket socket, SerialTransport transport, final String socketType,
+                                        ConnectStrategy.Timings timings) {
         if (D) Log.d(TAG, "connected, Socket Type:" + socketType);
 
         // Cancel the thread that completed the connection
@@ -159,15 +257,17 @@ public class BluetoothSerialService {
         }
 
         // Start the thread to manage the connection and perform transmissions
-        mConnectedThread = new ConnectedThread(socket, socketType);
+        mConnectedThread = new ConnectedThread(socket, socketType, timings);
         mConnectedThread.start();
+        mConnectedTransport = transport;
+        mConnectedName = socket.getRemoteName();
+        mConnectTimings = timings;
+        mConnectMillis = mConnectStart != 0 ? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mConnectStart) : -1;
+        mStats.onConnected(mConnectMillis);
+        mConnectStart = 0;
 
-        // Send the name of the connected device back to the UI Activity
-        Message msg = mHandler.obtainMessage(BluetoothSerial.MESSAGE_DEVICE_NAME);
-        Bundle bundle = new Bundle();
-        bundle.putString(BluetoothSerial.DEVICE_NAME, device.getName());
-        msg.setData(bundle);
-        mHandler.sendMessage(msg);
+        // Send the name of the connected device back to the plugin
+        mListener.onDeviceName(mConnectedName);
 
         setState(STATE_CONNECTED);
     }
@@ -183,6 +283,11 @@ public class BluetoothSerialService {
             mConnectThread = null;
         }
 
+        if (mConnectRace != null) {
+            mConnectRace.cancel();
+            mConnectRace = null;
+        }
+
         if (mConnectedThread != null) {
             mConnectedThread.cancel();
             mConnectedThread = null;
@@ -203,45 +308,161 @@ public class BluetoothSerialService {
     /**
      * Write to the ConnectedThread in an unsynchronized manner
      * @param out The bytes to write
-     * @see ConnectedThread#write(byte[])
+     * @see ConnectedThread#write(byte[], WriteQueue.Callback)
      */
     public void write(byte[] out) {
+        write(out, null);
+    }
+
+    /**
+     * Queue bytes to be written by the ConnectedThread's writer thread
+     * @param out The bytes to write
+     * @param callback Called once the bytes are written or the write failed, may be null
+     */
+    public void write(byte[] out, WriteQueue.Callback callback) {
         // Create temporary object
         ConnectedThread r;
         // Synchronize a copy of the ConnectedThread
         synchronized (this) {
-            if (mState != STATE_CONNECTED) return;
-            r = mConnectedThread;
+            r = mState == STATE_CONNECTED ? mConnectedThread : null;
+        }
+        if (r == null) {
+            if (callback != null) callback.onError("Not connected.");
+            return;
+        }
+        // Queue the write unsynchronized
+        r.write(out, callback);
+    }
+
+    /**
+     * Set how long connect() may take, used by the next connection.
+     * @param timeoutMillis  Milliseconds before the attempt is abandoned, 0 for no limit
+     */
+    public synchronized void setConnectTimeout(long timeoutMillis) {
+        mConnectTimeout = timeoutMillis;
+    }
+
+    /**
+     * Watch the link for inactivity, used by the next connection.
+     * @param settings  Read timeout and heartbeat, null to not watch
+     */
+    public synchronized void setWatchdog(LinkWatchdog.Settings settings) {
+        mWatchdogSettings = settings;
+    }
+
+    /**
+     * Set the write queue levels used for flow control events.
+     * @param high Queued bytes at which the listener is told to pause writing
+     * @param low Queued bytes at which the listener is told to resume writing
+     * @param listener Receives the events, null to stop them
+     */
+    public synchronized void setWriteWatermarks(long high, long low, WriteQueue.WatermarkListener listener) {
+        mHighWatermark = high;
+        mLowWatermark = low;
+        mWatermarkListener = listener;
+        if (mConnectedThread != null) {
+            mConnectedThread.mmWriteQueue.setWatermarks(high, low, listener);
+        }
+    }
+
+    /**
+     * Coalesce small writes into fewer writes to the socket.
+     * @param windowMillis How long to wait for more writes, 0 to disable coalescing
+     * @param maxBytes Write as soon as this many bytes are queued
+     */
+    public synchronized void setWriteCoalescing(long windowMillis, int maxBytes) {
+        mCoalesceWindow = windowMillis;
+        mCoalesceBytes = maxBytes;
+        if (mConnectedThread != null) {
+            mConnectedThread.mmWriteQueue.setCoalescing(windowMillis, maxBytes);
+        }
+    }
+
+    /**
+     * Write any coalesced data immediately
+     * @param callback Called once everything queued so far has been written
+     */
+    public void flush(WriteQueue.Callback callback) {
+        WriteQueue queue = getWriteQueue();
+        if (queue == null) {
+            callback.onError("Not connected.");
+        } else {
+            queue.flush(callback);
         }
-        // Perform the write unsynchronized
-        r.write(out);
     }
 
     /**
-     * Indicate that the connection attempt failed and notify the UI Activity.
+     * Return the write queue of the current connection, or null when not connected. */
+    public synchronized WriteQueue getWriteQueue() {
+        return mConnectedThread != null ? mConnectedThread.mmWriteQueue : null;
+    }
+
+    /**
+     * Return the transport of the current or last connection, null if never connected. */
+    public SerialTransport getConnectedTransport() {
+        return mConnectedTransport;
+    }
+
+    /**
+     * Return the name of the device of the current or last connection, null if unknown. */
+    public String getConnectedName() {
+        return mConnectedName;
+    }
+
+    /**
+     * Return how long establishing the current or last connection took, null if unknown. */
+    public ConnectStrategy.Timings getConnectTimings() {
+        return mConnectTimings;
+    }
+
+    /**
+     * Return the milliseconds from the connect or connectAny call to the
+     * current or last connection, for connectAny the whole race. -1 if unknown.
      */
-    private void connectionFailed() {
-        // Send a failure message back to the Activity
-        Message msg = mHandler.obtainMessage(BluetoothSerial.MESSAGE_TOAST);
-        Bundle bundle = new Bundle();
-        bundle.putString(BluetoothSerial.TOAST, "Unable to connect to device");
-        msg.setData(bundle);
-        mHandler.sendMessage(msg);
+    public long getConnectMillis() {
+        return mConnectMillis;
+    }
+
+    /**
+     * Return the counters of this service, they add up across connections. */
+    public ConnectionStats getStats() {
+        return mStats;
+    }
+
+    /**
+     * Indicate that the connection attempt failed and notify the plugin.
+     * @param thread  the ConnectThread that failed
+     * @param message  the error sent to the plugin
+     */
+    private void connectionFailed(ConnectThread thread, String message) {
+        // Ignore attempts that were cancelled, a newer connection may be under way
+        synchronized (this) {
+            if (mConnectThread != thread) return;
+            mConnectStart = 0;
+        }
+        mStats.onConnectFailed();
+
+        // Send a failure message back to the plugin
+        mListener.onConnectionError(message);
 
         // Start the service over to restart listening mode
         BluetoothSerialService.this.start();
     }
 
     /**
-     * Indicate that the connection was lost and notify the UI Activity.
+     * Indicate that the connection was lost and notify the plugin.
+     * @param thread  the ConnectedThread whose connection was lost
+     * @param message  the error sent to the plugin
      */
-    private void connectionLost() {
-        // Send a failure message back to the Activity
-        Message msg = mHandler.obtainMessage(BluetoothSerial.MESSAGE_TOAST);
-        Bundle bundle = new Bundle();
-        bundle.putString(BluetoothSerial.TOAST, "Device connection was lost");
-        msg.setData(bundle);
-        mHandler.sendMessage(msg);
+    private void connectionLost(ConnectedThread thread, String message) {
+        // Ignore connections that were closed on purpose
+        synchronized (this) {
+            if (mConnectedThread != thread) return;
+        }
+        mStats.onConnectionLost();
+
+        // Send a failure message back to the plugin
+        mListener.onConnectionError(message);
 
         // Start the service over to restart listening mode
         BluetoothSerialService.this.start();
@@ -264,9 +485,9 @@ public class BluetoothSerialService {
             // Create a new listening server socket
             try {
                 if (secure) {
-                    tmp = mAdapter.listenUsingRfcommWithServiceRecord(NAME_SECURE, MY_UUID_SECURE);
+                    tmp = BluetoothAdapter.getDefaultAdapter().listenUsingRfcommWithServiceRecord(NAME_SECURE, MY_UUID_SECURE);
                 } else {
-                    tmp = mAdapter.listenUsingInsecureRfcommWithServiceRecord(NAME_INSECURE, MY_UUID_INSECURE);
+                    tmp = BluetoothAdapter.getDefaultAdapter().listenUsingInsecureRfcommWithServiceRecord(NAME_INSECURE, MY_UUID_INSECURE);
                 }
             } catch (IOException e) {
                 Log.e(TAG, "Socket Type: " + mSocketType + "listen() failed", e);
@@ -335,80 +556,121 @@ public class BluetoothSerialService {
      * succeeds or fails.
      */
     private class ConnectThread extends Thread {
-        private /*final*/ BluetoothSocket mmSocket;
-        private final BluetoothDevice mmDevice;
+        private final SerialTransport.Connector mmConnector;
         private String mSocketType;
+        private volatile boolean mmTimedOut;
 
-        public ConnectThread(BluetoothDevice device, boolean secure) {
-            mmDevice = device;
-            BluetoothSocket tmp = null;
-            mSocketType = secure ? "Secure" : "Insecure";
-
-            // Get a BluetoothSocket for a connection with the given BluetoothDevice
-            try {
-                if (secure) {
-                    // tmp = device.createRfcommSocketToServiceRecord(MY_UUID_SECURE);
-                    tmp = device.createRfcommSocketToServiceRecord(UUID_SPP);
-                } else {
-                    //tmp = device.createInsecureRfcommSocketToServiceRecord(MY_UUID_INSECURE);
-                    tmp = device.createInsecureRfcommSocketToServiceRecord(UUID_SPP);
-                }
-            } catch (IOException e) {
-                Log.e(TAG, "Socket Type: " + mSocketType + "create() failed", e);
-            }
-            mmSocket = tmp;
+        public ConnectThread(SerialTransport transport) {
+            mmConnector = transport.newConnector();
+            mSocketType = socketType(transport);
         }
 
         public void run() {
             Log.i(TAG, "BEGIN mConnectThread SocketType:" + mSocketType);
             setName("ConnectThread" + mSocketType);
 
-            // Always cancel discovery because it will slow down a connection
-            mAdapter.cancelDiscovery();
-
-            // Make a connection to the BluetoothSocket
+            // Make a connection through the transport
+            SerialSocket socket;
+            ScheduledFuture<?> timeout = scheduleTimeout();
             try {
-                // This is a blocking call and will only return on a successful connection or an exception
-                Log.i(TAG,"Connecting to socket...");
-                mmSocket.connect();
+                socket = mmConnector.connect();
                 Log.i(TAG,"Connected");
             } catch (IOException e) {
-                Log.e(TAG, e.toString());
+                Log.e(TAG, "Couldn't establish a Bluetooth connection.");
+                connectionFailed(this, mmTimedOut ? "Connect timed out" : "Unable to connect to device");
+                return;
+            } finally {
+                if (timeout != null) timeout.cancel(false);
+            }
 
-                // Some 4.1 devices have problems, try an alternative way to connect
-                // See https://github.com/don/BluetoothSerial/issues/89
-                try {
-                    Log.i(TAG,"Trying fallback...");
-                    mmSocket = (BluetoothSocket) mmDevice.getClass().getMethod("createRfcommSocket", new Class[] {int.class}).invoke(mmDevice,1);
-                    mmSocket.connect();
-                    Log.i(TAG,"Connected");
-                } catch (Exception e2) {
-                    Log.e(TAG, "Couldn't establish a Bluetooth connection.");
+            synchronized (BluetoothSerialService.this) {
+                // A newer connect, stop or reconnect replaced this attempt, drop the socket
+                if (mConnectThread != this) {
+                    Log.i(TAG, "Connect attempt was cancelled, closing socket");
                     try {
-                        mmSocket.close();
-                    } catch (IOException e3) {
-                        Log.e(TAG, "unable to close() " + mSocketType + " socket during connection failure", e3);
+                        socket.close();
+                    } catch (IOException e) {
+                        Log.e(TAG, "Could not close unwanted socket", e);
                     }
-                    connectionFailed();
                     return;
                 }
+
+                // Reset the ConnectThread because we're done
+                mConnectThread = null;
+
+                // Start the connected thread
+                connected(socket, mmConnector.getTransport(), mSocketType, mmConnector.getTimings());
             }
+        }
 
-            // Reset the ConnectThread because we're done
+        public void cancel() {
+            mmConnector.cancel();
+        }
+
+        // Abandon the attempt when the socket takes too long to connect
+        private ScheduledFuture<?> scheduleTimeout() {
+            long timeout;
             synchronized (BluetoothSerialService.this) {
-                mConnectThread = null;
+                timeout = mConnectTimeout;
             }
+            if (timeout <= 0 || mScheduler == null) {
+                return null;
+            }
+            return mScheduler.schedule(new Runnable() {
+                public void run() {
+                    Log.w(TAG, "Connect timed out");
+                    mmTimedOut = true;
+                    mmConnector.cancel();
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+        }
+    }
 
-            // Start the connected thread
-            connected(mmSocket, mmDevice, mSocketType);
+    // Describes a transport in the logs
+    private static String socketType(SerialTransport transport) {
+        if (transport instanceof RfcommTransport) {
+            return ((RfcommTransport) transport).isSecure() ? "Secure" : "Insecure";
         }
+        return transport.getClass().getSimpleName();
+    }
 
-        public void cancel() {
-            try {
-                mmSocket.close();
-            } catch (IOException e) {
-                Log.e(TAG, "close() of connect " + mSocketType + " socket failed", e);
+    /**
+     * Receives the outcome of connectAny. Outcomes of a race that was
+     * cancelled or replaced by a newer connection are ignored.
+     */
+    private class RaceListener implements ConnectRace.Listener<SerialSocket> {
+        private final List<SerialTransport.Connector> mmConnectors;
+        private ConnectRace<SerialSocket> race;
+
+        RaceListener(List<SerialTransport.Connector> connectors) {
+            mmConnectors = connectors;
+        }
+
+        public void onConnected(int index, SerialSocket socket, long millis) {
+            SerialTransport.Connector winner = mmConnectors.get(index);
+            synchronized (BluetoothSerialService.this) {
+                if (mConnectRace != race) {
+                    winner.cancel();
+                    return;
+                }
+                mConnectRace = null;
+                SerialTransport transport = winner.getTransport();
+                Log.i(TAG, "Connected to " + transport.getAddress() + " first, in " + millis + "ms");
+                connected(socket, transport, socketType(transport), winner.getTimings());
+            }
+        }
+
+        public void onFailed(String message) {
+            synchronized (BluetoothSerialService.this) {
+                if (mConnectRace != race) return;
+                mConnectRace = null;
+                mConnectStart = 0;
             }
+            mStats.onConnectFailed();
+            mListener.onConnectionError(message);
+
+            // Start the service over to restart listening mode
+            BluetoothSerialService.this.start();
         }
     }
 
@@ -417,78 +679,116 @@ public class BluetoothSerialService {
      * It handles all incoming and outgoing transmissions.
      */
     private class ConnectedThread extends Thread {
-        private final BluetoothSocket mmSocket;
+        private final SerialSocket mmSocket;
         private final InputStream mmInStream;
         private final OutputStream mmOutStream;
+        private final WriteQueue mmWriteQueue;
+        private final LinkWatchdog mmWatchdog;
+        private volatile String mmLostReason;
 
-        public ConnectedThread(BluetoothSocket socket, String socketType) {
+        public ConnectedThread(SerialSocket socket, String socketType, ConnectStrategy.Timings timings) {
             Log.d(TAG, "create ConnectedThread: " + socketType);
             mmSocket = socket;
             InputStream tmpIn = null;
             OutputStream tmpOut = null;
 
             // Get the BluetoothSocket input and output streams
+            long start = System.nanoTime();
             try {
                 tmpIn = socket.getInputStream();
                 tmpOut = socket.getOutputStream();
             } catch (IOException e) {
                 Log.e(TAG, "temp sockets not created", e);
             }
+            if (timings != null) {
+                timings.streamsOpened(System.nanoTime() - start);
+            }
 
             mmInStream = tmpIn;
             mmOutStream = tmpOut;
+            mmWriteQueue = new WriteQueue(tmpOut, WRITE_QUEUE_CAPACITY, mStats);
+            mmWriteQueue.setWatermarks(mHighWatermark, mLowWatermark, mWatermarkListener);
+            mmWriteQueue.setCoalescing(mCoalesceWindow, mCoalesceBytes);
+            if (mWatchdogSettings != null && mScheduler != null) {
+                mmWatchdog = new LinkWatchdog(mWatchdogSettings, new LinkWatchdog.Link() {
+                    public void write(byte[] data) {
+                        mmWriteQueue.write(data, null);
+                    }
+
+                    public void close(String reason) {
+                        // the blocked read fails and the connection is reported lost
+                        mmLostReason = reason;
+                        closeSocket();
+                    }
+                });
+            } else {
+                mmWatchdog = null;
+            }
         }
 
         public void run() {
             Log.i(TAG, "BEGIN mConnectedThread");
-            byte[] buffer = new byte[1024];
+            mmWriteQueue.start();
+            if (mmWatchdog != null) {
+                mmWatchdog.start(mScheduler);
+            }
             int bytes;
 
             // Keep listening to the InputStream while connected
             while (true) {
+                ChunkPool.Chunk chunk = mChunkPool.acquire();
                 try {
                     // Read from the InputStream
-                    bytes = mmInStream.read(buffer);
-                    String data = new String(buffer, 0, bytes);
-
-                    // Send the new data String to the UI Activity
-                    mHandler.obtainMessage(BluetoothSerial.MESSAGE_READ, data).sendToTarget();
+                    bytes = mmInStream.read(chunk.data);
+                    if (bytes < 0) {
+                        throw new IOException("End of stream");
+                    }
 
-                    // Send the raw bytestream to the UI Activity.
-                    // We make a copy because the full array can have extra data at the end
-                    // when / if we read less than its size.
+                    // Hand the chunk to the listener, which recycles it once the data
+                    // is buffered. Strings and raw copies are only made for subscribers.
+                    if (mmWatchdog != null) {
+                        mmWatchdog.onRead();
+                    }
                     if (bytes > 0) {
-                        byte[] rawdata = Arrays.copyOf(buffer, bytes);
-                        mHandler.obtainMessage(BluetoothSerial.MESSAGE_READ_RAW, rawdata).sendToTarget();
+                        chunk.length = bytes;
+                        chunk.readTime = System.nanoTime();
+                        mStats.onReceived(bytes);
+                        mListener.onRead(chunk);
+                    } else {
+                        chunk.recycle();
                     }
 
                 } catch (IOException e) {
+                    chunk.recycle();
                     Log.e(TAG, "disconnected", e);
-                    connectionLost();
-                    // Start the service over to restart listening mode
-                    BluetoothSerialService.this.start();
+                    if (mmWatchdog != null) {
+                        mmWatchdog.stop();
+                    }
+                    String reason = mmLostReason;
+                    connectionLost(this, reason != null ? reason : "Device connection was lost");
                     break;
                 }
             }
         }
 
         /**
-         * Write to the connected OutStream.
+         * Queue bytes for the connected OutStream.
          * @param buffer  The bytes to write
+         * @param callback  Called once the bytes are written, may be null
          */
-        public void write(byte[] buffer) {
-            try {
-                mmOutStream.write(buffer);
-
-                // Share the sent message back to the UI Activity
-                mHandler.obtainMessage(BluetoothSerial.MESSAGE_WRITE, -1, -1, buffer).sendToTarget();
+        public void write(byte[] buffer, WriteQueue.Callback callback) {
+            mmWriteQueue.write(buffer, callback);
+        }
 
-            } catch (IOException e) {
-                Log.e(TAG, "Exception during write", e);
+        public void cancel() {
+            if (mmWatchdog != null) {
+                mmWatchdog.stop();
             }
+            mmWriteQueue.close();
+            closeSocket();
         }
 
-        public void cancel() {
+        private void closeSocket() {
             try {
                 mmSocket.close();
             } catch (IOException e) {
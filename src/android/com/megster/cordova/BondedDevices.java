@@ -0,0 +1,114 @@
+package com.megster.cordova;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The list of bonded devices, built once and kept until a bond, device name
+ * or adapter state broadcast says it changed. Asking the Bluetooth service
+ * for every device's name and class is slow, and apps call list often.
+ *
+ * Every change increments the version, so a caller that passes the version
+ * it has seen only gets the list again when it changed.
+ */
+public class BondedDevices {
+
+    private static final String TAG = "BondedDevices";
+
+    private final BluetoothAdapter bluetoothAdapter;
+    private Context context;
+    private JSONArray devices;
+    private final Set<String> addresses = new HashSet<String>();
+    // starts from the clock so versions from before a restart don't match
+    private long version = System.currentTimeMillis();
+
+    private final BroadcastReceiver receiver = new BroadcastReceiver() {
+        public void onReceive(Context context, Intent intent) {
+            String action = intent.getAction();
+            if (BluetoothDevice.ACTION_NAME_CHANGED.equals(action)) {
+                // names of devices that aren't bonded change during discovery
+                BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                if (device != null && !isListed(device.getAddress())) return;
+            }
+            Log.d(TAG, "Bonded devices changed: " + action);
+            invalidate();
+        }
+    };
+
+    public BondedDevices(BluetoothAdapter bluetoothAdapter) {
+        this.bluetoothAdapter = bluetoothAdapter;
+    }
+
+    /**
+     * @param context  registers the receiver for the change broadcasts
+     * @return the bonded devices
+     */
+    public synchronized JSONArray list(Context context) throws JSONException {
+        if (this.context == null) {
+            IntentFilter filter = new IntentFilter();
+            filter.addAction(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
+            filter.addAction(BluetoothDevice.ACTION_NAME_CHANGED);
+            filter.addAction(BluetoothAdapter.ACTION_STATE_CHANGED);
+            context.registerReceiver(receiver, filter);
+            this.context = context;
+            devices = null;
+        }
+        if (devices == null) {
+            JSONArray list = new JSONArray();
+            addresses.clear();
+            for (BluetoothDevice device : bluetoothAdapter.getBondedDevices()) {
+                list.put(BluetoothSerial.deviceToJSON(device));
+                addresses.add(device.getAddress());
+            }
+            devices = list;
+        }
+        return devices;
+    }
+
+    /**
+     * @param since  the version the caller has seen
+     * @return {version}, with devices when the list changed since that version
+     */
+    public synchronized JSONObject listSince(Context context, long since) throws JSONException {
+        JSONArray list = list(context);
+        JSONObject json = new JSONObject();
+        json.put("version", version);
+        if (since != version) {
+            json.put("devices", list);
+        }
+        return json;
+    }
+
+    public synchronized void invalidate() {
+        devices = null;
+        version++;
+    }
+
+    public synchronized void destroy() {
+        if (context != null) {
+            try {
+                context.unregisterReceiver(receiver);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Bonded devices receiver was not registered", e);
+            }
+            context = null;
+        }
+        devices = null;
+    }
+
+    private synchronized boolean isListed(String address) {
+        return addresses.contains(address);
+    }
+}
@@ -0,0 +1,125 @@
+package com.megster.cordova;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.util.Log;
+
+/**
+ * A large payload, like a firmware image, sent as a sequence of chunks.
+ *
+ * Each chunk is queued on the connection's WriteQueue as soon as it arrives,
+ * so the payload is never assembled in memory. Chunks must arrive in order.
+ * Progress is reported on the callback that started the transfer, which
+ * completes when the last byte has been written.
+ */
+public class BulkTransfer {
+
+    private static final String TAG = "BulkTransfer";
+
+    private final long totalSize;
+    private final CallbackContext progressCallback;
+    private final long startTime = System.nanoTime();
+
+    private int nextSequence;
+    private long queuedBytes;
+    private long writtenBytes;
+    private boolean finished;
+
+    public BulkTransfer(long totalSize, CallbackContext progressCallback) {
+        this.totalSize = totalSize;
+        this.progressCallback = progressCallback;
+    }
+
+    public synchronized boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Queue the next chunk of the payload.
+     * @param sequence  sequence number of the chunk, starting at 0
+     * @param data  the chunk
+     * @param service  the connection to write to
+     * @param chunkCallback  completed once the chunk has been written
+     */
+    public void writeChunk(int sequence, byte[] data, BluetoothSerialService service, final CallbackContext chunkCallback) {
+        String error = null;
+        synchronized (this) {
+            if (finished) {
+                error = "No transfer in progress.";
+            } else if (sequence != nextSequence) {
+                error = "Expected chunk " + nextSequence + " but got " + sequence + ".";
+            } else if (queuedBytes + data.length > totalSize) {
+                error = "Chunk exceeds the transfer size.";
+            } else {
+                nextSequence++;
+                queuedBytes += data.length;
+            }
+        }
+        if (error != null) {
+            chunkCallback.error(error);
+            return;
+        }
+
+        service.write(data, new WriteQueue.Callback() {
+            public void onWritten(int length) {
+                chunkCallback.success();
+                written(length);
+            }
+
+            public void onError(String message) {
+                chunkCallback.error(message);
+                fail(message);
+            }
+        });
+    }
+
+    /**
+     * Abort the transfer, the progress callback fails with the message. */
+    public void fail(String message) {
+        synchronized (this) {
+            if (finished) return;
+            finished = true;
+        }
+        progressCallback.error(message);
+    }
+
+    private void written(int length) {
+        boolean complete;
+        JSONObject progress;
+        synchronized (this) {
+            if (finished) return;
+            writtenBytes += length;
+            complete = writtenBytes == totalSize;
+            finished = complete;
+            progress = progressToJSON(complete);
+        }
+
+        if (progress != null) {
+            PluginResult result = new PluginResult(PluginResult.Status.OK, progress);
+            result.setKeepCallback(!complete);
+            progressCallback.sendPluginResult(result);
+        }
+    }
+
+    private JSONObject progressToJSON(boolean complete) {
+        try {
+            JSONObject json = new JSONObject();
+            json.put("sent", writtenBytes);
+            json.put("total", totalSize);
+            if (complete) {
+                double seconds = (System.nanoTime() - startTime) / 1e9;
+                json.put("complete", true);
+                json.put("millis", Math.round(seconds * 1000));
+                json.put("bytesPerSecond", seconds > 0 ? Math.round(writtenBytes / seconds) : 0);
+            }
+            return json;
+        } catch (JSONException e) {
+            // This shouldn't happen, log and ignore
+            Log.e(TAG, "Problem converting progress to JSON", e);
+            return null;
+        }
+    }
+}
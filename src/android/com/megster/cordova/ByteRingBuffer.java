@@ -0,0 +1,440 @@
+package com.megster.cordova;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Fixed capacity byte ring buffer that holds data received from the remote
+ * device until it is read or delivered to a subscriber.
+ *
+ * Delimiter searches are incremental. The buffer remembers how far the last
+ * search for a delimiter got, so each received byte is only scanned once no
+ * matter how large the backlog grows.
+ *
+ * Several subscribers can read the same data through cursors. Each cursor
+ * has its own position, starting after the bytes buffered when it was
+ * created or at the first unread byte, and bytes are removed once every
+ * cursor has read past them. available, read, readUntil and peek only see
+ * the bytes after the cursor that got furthest, so data a subscriber got is
+ * not read again, also after its cursor is removed. Reading the buffer
+ * directly removes the bytes read and all bytes before them, a cursor that
+ * had not got that far skips them.
+ *
+ * When the buffer is full, the bytes only lagging cursors still need are
+ * dropped before the overflow policy applies. A cursor waiting for a
+ * delimiter that does not come loses the start of its line instead of
+ * holding up the other cursors.
+ *
+ * All methods are synchronized, the buffer is filled by the receive path and
+ * drained by plugin actions running on other threads.
+ */
+public class ByteRingBuffer {
+
+    /**
+     * What to do when received data does not fit in the buffer.
+     */
+    public enum OverflowPolicy {
+        DROP_OLDEST,  // discard the oldest buffered bytes to make room
+        DROP_NEWEST,  // discard the incoming bytes that do not fit
+        ERROR;        // discard the incoming bytes that do not fit and report an error
+
+        /**
+         * Parse the policy names used by the JavaScript API.
+         * @param name  dropOldest, dropNewest or error
+         * @return the matching policy or null if the name is unknown
+         */
+        public static OverflowPolicy fromString(String name) {
+            if ("dropOldest".equals(name)) return DROP_OLDEST;
+            if ("dropNewest".equals(name)) return DROP_NEWEST;
+            if ("error".equals(name)) return ERROR;
+            return null;
+        }
+    }
+
+    private byte[] data;
+    private OverflowPolicy overflowPolicy;
+    private int head;
+    private int size;
+    private long droppedBytes;
+
+    // Position of head in the stream of all bytes ever written, cursors
+    // keep their position in the stream so they survive removals
+    private long start;
+    private final List<Cursor> cursors = new ArrayList<Cursor>();
+    // The direct reads start here at the earliest, set by a removed cursor
+    private long readFloor;
+
+    // State of the incremental delimiter search. No match starts before
+    // scanOffset (relative to head) for scanDelimiter.
+    private byte[] scanDelimiter;
+    private int scanOffset;
+
+    public ByteRingBuffer(int capacity, OverflowPolicy overflowPolicy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.data = new byte[capacity];
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public synchronized int capacity() {
+        return data.length;
+    }
+
+    /**
+     * Change the capacity, keeping the buffered bytes. When they don't fit
+     * the oldest are discarded.
+     * @return the number of bytes discarded
+     */
+    public synchronized int resize(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        int dropped = Math.max(0, size - capacity);
+        skip(dropped);
+        droppedBytes += dropped;
+        byte[] resized = new byte[capacity];
+        int first = Math.min(size, data.length - head);
+        System.arraycopy(data, head, resized, 0, first);
+        System.arraycopy(data, 0, resized, first, size - first);
+        data = resized;
+        head = 0;
+        return dropped;
+    }
+
+    public synchronized OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public synchronized void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Return the total number of bytes discarded because of overflow. */
+    public synchronized long getDroppedBytes() {
+        return droppedBytes;
+    }
+
+    /**
+     * Return the number of buffered bytes after the furthest cursor. */
+    public synchronized int available() {
+        return size - consumed();
+    }
+
+    // Number of bytes at the start of the buffer before the furthest cursor,
+    // only the cursors that lag behind still need them. A cursor counts once
+    // it has returned something, the bytes buffered before it was created
+    // stay readable until then.
+    private int consumed() {
+        long end = Math.max(start, readFloor);
+        for (Cursor cursor : cursors) {
+            if (cursor.position > cursor.origin) {
+                end = Math.max(end, cursor.position);
+            }
+        }
+        return (int) (end - start);
+    }
+
+    /**
+     * Append bytes to the buffer, applying the overflow policy when they don't fit.
+     * @return the number of bytes discarded by this call
+     */
+    public synchronized int write(byte[] src, int offset, int length) {
+        int capacity = data.length;
+        int dropped = 0;
+
+        if (size + length > capacity) {
+            // make room from the bytes only the lagging cursors need first
+            dropped = Math.min(consumed(), size + length - capacity);
+            skip(dropped);
+        }
+
+        if (size + length > capacity) {
+            int overflow = size + length - capacity;
+            if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+                if (length >= capacity) {
+                    // only the tail of the incoming data survives
+                    offset += length - capacity;
+                    start += overflow;
+                    length = capacity;
+                    head = 0;
+                    size = 0;
+                    scanOffset = 0;
+                } else {
+                    skip(overflow);
+                }
+            } else {
+                length -= overflow;
+            }
+            dropped += overflow;
+        }
+        droppedBytes += dropped;
+
+        int tail = head + size;
+        if (tail >= capacity) tail -= capacity;
+        int first = Math.min(length, capacity - tail);
+        System.arraycopy(src, offset, data, tail, first);
+        System.arraycopy(src, offset + first, data, 0, length - first);
+        size += length;
+
+        return dropped;
+    }
+
+    /**
+     * Find the first occurrence of the delimiter, resuming the search where
+     * the previous search for the same delimiter stopped.
+     * @return the offset of the delimiter from the first byte after the
+     * furthest cursor, or -1
+     */
+    public synchronized int indexOf(byte[] delimiter) {
+        if (delimiter.length == 0) return 0;
+
+        if (delimiter != scanDelimiter && !Arrays.equals(delimiter, scanDelimiter)) {
+            scanDelimiter = delimiter.clone();
+            scanOffset = 0;
+        }
+
+        int capacity = data.length;
+        int consumed = consumed();
+        int last = size - delimiter.length;
+        byte first = delimiter[0];
+        int i = Math.max(scanOffset, consumed);
+        int p = head + i;
+        if (p >= capacity) p -= capacity;
+
+        for (; i <= last; i++) {
+            if (data[p] == first && matchesAt(p, delimiter)) {
+                scanOffset = i;
+                return i - consumed;
+            }
+            if (++p == capacity) p = 0;
+        }
+
+        scanOffset = Math.max(0, last + 1);
+        return -1;
+    }
+
+    private boolean matchesAt(int p, byte[] delimiter) {
+        int capacity = data.length;
+        for (int j = 1; j < delimiter.length; j++) {
+            if (++p == capacity) p = 0;
+            if (data[p] != delimiter[j]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Remove and return the bytes up to and including the delimiter.
+     * @return the bytes or null if the delimiter has not been received
+     */
+    public synchronized byte[] readUntil(byte[] delimiter) {
+        int index = indexOf(delimiter);
+        if (index < 0) return null;
+        return take(index + delimiter.length);
+    }
+
+    /**
+     * Remove and return all buffered bytes. */
+    public synchronized byte[] read() {
+        return take(size - consumed());
+    }
+
+    /**
+     * Remove and return the first count bytes, or all when fewer are buffered. */
+    public synchronized byte[] read(int count) {
+        return take(Math.min(count, size - consumed()));
+    }
+
+    /**
+     * Return a copy of all buffered bytes without removing them. */
+    public synchronized byte[] peek() {
+        return copy(consumed(), size - consumed());
+    }
+
+    public synchronized void clear() {
+        start += size;
+        head = 0;
+        size = 0;
+        scanOffset = 0;
+    }
+
+    /**
+     * Create a cursor that starts after the buffered bytes, it only sees the
+     * bytes written from now on.
+     */
+    public synchronized Cursor newCursor() {
+        Cursor cursor = new Cursor(start + size);
+        cursors.add(cursor);
+        return cursor;
+    }
+
+    /**
+     * Create a cursor that starts at the first byte read would return, it
+     * also sees the buffered bytes no cursor has returned yet.
+     */
+    public synchronized Cursor newReadCursor() {
+        Cursor cursor = new Cursor(start + consumed());
+        cursors.add(cursor);
+        return cursor;
+    }
+
+    /**
+     * Stop tracking the cursor, bytes only it had not read can be removed.
+     * The bytes it returned stay out of reach of the direct reads.
+     */
+    public synchronized void removeCursor(Cursor cursor) {
+        if (cursors.remove(cursor) && cursor.position > cursor.origin) {
+            readFloor = Math.max(readFloor, cursor.position);
+        }
+        trim();
+    }
+
+    // Remove the bytes every cursor has read and the direct reads no longer see
+    private void trim() {
+        long min = start + consumed();
+        for (Cursor cursor : cursors) {
+            min = Math.min(min, cursor.position);
+        }
+        if (min > start) {
+            skip((int) (min - start));
+        }
+    }
+
+    // Remove and return count bytes after the consumed ones, and the consumed ones with them
+    private byte[] take(int count) {
+        int consumed = consumed();
+        byte[] out = copy(consumed, count);
+        skip(consumed + count);
+        return out;
+    }
+
+    private byte[] copy(int offset, int count) {
+        byte[] out = new byte[count];
+        int p = head + offset;
+        if (p >= data.length) p -= data.length;
+        int first = Math.min(count, data.length - p);
+        System.arraycopy(data, p, out, 0, first);
+        System.arraycopy(data, 0, out, first, count - first);
+        return out;
+    }
+
+    private void skip(int count) {
+        start += count;
+        head += count;
+        if (head >= data.length) head -= data.length;
+        size -= count;
+        scanOffset = Math.max(0, scanOffset - count);
+        if (size == 0) head = 0;
+    }
+
+    /**
+     * A reader with its own position in the buffer, for one subscriber or a
+     * group of subscribers splitting the data the same way.
+     */
+    public class Cursor {
+        private final long origin;
+        private long position;
+        // no match for scanDelimiter starts before scanPosition
+        private byte[] scanDelimiter;
+        private long scanPosition;
+
+        private Cursor(long position) {
+            this.origin = position;
+            this.position = position;
+        }
+
+        /**
+         * Return the position of the cursor in the stream of all bytes ever
+         * written, it moves forward when bytes it had not read are removed.
+         */
+        public long position() {
+            synchronized (ByteRingBuffer.this) {
+                clamp();
+                return position;
+            }
+        }
+
+        /**
+         * Find the next delimiter after the cursor without moving it. The
+         * search resumes where the previous search for the same delimiter
+         * stopped.
+         * @return the offset of the delimiter from the cursor, or -1
+         */
+        public int indexOf(byte[] delimiter) {
+            synchronized (ByteRingBuffer.this) {
+                if (delimiter.length == 0) return -1;
+                clamp();
+                if (delimiter != scanDelimiter && !Arrays.equals(delimiter, scanDelimiter)) {
+                    scanDelimiter = delimiter.clone();
+                    scanPosition = position;
+                }
+
+                int capacity = data.length;
+                int from = (int) (position - start);
+                int last = size - delimiter.length;
+                int i = (int) (Math.max(scanPosition, position) - start);
+                int p = head + i;
+                if (p >= capacity) p -= capacity;
+                byte first = delimiter[0];
+
+                for (; i <= last; i++) {
+                    if (data[p] == first && matchesAt(p, delimiter)) {
+                        scanPosition = start + i;
+                        return i - from;
+                    }
+                    if (++p == capacity) p = 0;
+                }
+
+                scanPosition = start + Math.max(from, last + 1);
+                return -1;
+            }
+        }
+
+        /**
+         * Return the bytes up to and including the next delimiter after the
+         * cursor and move past them.
+         * @return the bytes or null if the delimiter has not been received
+         */
+        public byte[] readUntil(byte[] delimiter) {
+            synchronized (ByteRingBuffer.this) {
+                int index = indexOf(delimiter);
+                if (index < 0) return null;
+                return read(index + delimiter.length);
+            }
+        }
+
+        /**
+         * Return the next count bytes after the cursor, or all when fewer
+         * are buffered, and move past them.
+         */
+        public byte[] read(int count) {
+            synchronized (ByteRingBuffer.this) {
+                clamp();
+                int from = (int) (position - start);
+                byte[] out = copy(from, Math.min(count, size - from));
+                position += out.length;
+                trim();
+                return out;
+            }
+        }
+
+        /**
+         * Return a copy of the buffered bytes after the first skip bytes
+         * after the cursor, without moving it.
+         */
+        public byte[] peek(int skip) {
+            synchronized (ByteRingBuffer.this) {
+                clamp();
+                int from = (int) Math.min(position - start + skip, size);
+                return copy(from, size - from);
+            }
+        }
+
+        // bytes removed by a read, clear or overflow are skipped
+        private void clamp() {
+            if (position < start) position = start;
+        }
+    }
+}
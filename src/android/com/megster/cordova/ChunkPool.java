@@ -0,0 +1,66 @@
+package com.megster.cordova;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Pool of fixed size buffers used by the ConnectedThread to read from the
+ * input stream. A chunk is filled by the reader and handed to the consumer,
+ * which owns it until it calls recycle(). This keeps the read loop from
+ * allocating on every read when streaming for long periods.
+ */
+public class ChunkPool {
+
+    /**
+     * A buffer holding the bytes from a single read.
+     */
+    public static class Chunk {
+        public final byte[] data;
+        public int length;
+        // System.nanoTime() of the read that filled the chunk
+        public long readTime;
+        private final ChunkPool pool;
+
+        private Chunk(ChunkPool pool, int size) {
+            this.pool = pool;
+            this.data = new byte[size];
+        }
+
+        /**
+         * Copy the valid bytes into a new array of the exact length. */
+        public byte[] toByteArray() {
+            return Arrays.copyOf(data, length);
+        }
+
+        /**
+         * Return the chunk to its pool. The chunk must not be used afterwards. */
+        public void recycle() {
+            length = 0;
+            pool.free.offer(this);
+        }
+    }
+
+    private final int chunkSize;
+    private final ArrayBlockingQueue<Chunk> free;
+
+    /**
+     * @param chunkSize  size of each buffer in bytes
+     * @param maxPooled  maximum number of idle buffers kept for reuse
+     */
+    public ChunkPool(int chunkSize, int maxPooled) {
+        this.chunkSize = chunkSize;
+        this.free = new ArrayBlockingQueue<Chunk>(maxPooled);
+    }
+
+    /**
+     * Take an idle chunk from the pool, allocating a new one only when all
+     * chunks are still owned by consumers.
+     */
+    public Chunk acquire() {
+        Chunk chunk = free.poll();
+        if (chunk == null) {
+            chunk = new Chunk(this, chunkSize);
+        }
+        return chunk;
+    }
+}
@@ -0,0 +1,159 @@
+package com.megster.cordova;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs several connection attempts at the same time and keeps the first
+ * one that connects. The other attempts are cancelled, and a loser that
+ * connects anyway is closed straight away.
+ *
+ * The attempts are abstract so the race can be driven by anything that
+ * connects, a BluetoothSocket on a device or a fake in a test.
+ *
+ * @param <S>  the type of the connected socket
+ */
+public class ConnectRace<S> {
+
+    private static final String TAG = "ConnectRace";
+
+    /**
+     * One way of getting a connected socket.
+     */
+    public interface Attempt<S> {
+        /**
+         * Connect, blocking until connected or failed. */
+        S connect() throws IOException;
+
+        /**
+         * Abort a connect in progress, or close the socket if it already connected. */
+        void cancel();
+    }
+
+    /**
+     * Receives the outcome of the race, exactly one method is called once
+     * unless the race is cancelled.
+     */
+    public interface Listener<S> {
+        /**
+         * @param index  index of the winning attempt
+         * @param socket  the connected socket
+         * @param millis  time from the start of the race
+         */
+        void onConnected(int index, S socket, long millis);
+
+        void onFailed(String message);
+    }
+
+    private final List<? extends Attempt<S>> attempts;
+    private final Listener<S> listener;
+    private long startTime;
+    private int failures;
+    private boolean finished;
+    private ScheduledFuture<?> timeoutTask;
+
+    public ConnectRace(List<? extends Attempt<S>> attempts, Listener<S> listener) {
+        this.attempts = attempts;
+        this.listener = listener;
+    }
+
+    /**
+     * Start every attempt on its own thread.
+     * @param scheduler  runs the timeout
+     * @param timeoutMillis  fail if nothing connected by then, 0 to wait for every attempt
+     */
+    public void start(ScheduledExecutorService scheduler, long timeoutMillis) {
+        synchronized (this) {
+            startTime = System.nanoTime();
+            if (timeoutMillis > 0) {
+                timeoutTask = scheduler.schedule(new Runnable() {
+                    public void run() {
+                        fail("Connect timed out");
+                    }
+                }, timeoutMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        for (int i = 0; i < attempts.size(); i++) {
+            final int index = i;
+            new Thread(new Runnable() {
+                public void run() {
+                    runAttempt(index);
+                }
+            }, "ConnectRace" + i).start();
+        }
+    }
+
+    /**
+     * Stop the race without calling the listener. */
+    public void cancel() {
+        synchronized (this) {
+            if (finished) return;
+            finished = true;
+            cancelTimeout();
+        }
+        cancelAttempts(-1);
+    }
+
+    private void runAttempt(int index) {
+        Attempt<S> attempt = attempts.get(index);
+        S socket;
+        try {
+            socket = attempt.connect();
+        } catch (IOException e) {
+            Log.d(TAG, "Attempt " + index + " failed: " + e.getMessage());
+            boolean allFailed;
+            synchronized (this) {
+                failures++;
+                allFailed = failures == attempts.size();
+            }
+            if (allFailed) {
+                fail("Unable to connect to any device");
+            }
+            return;
+        }
+
+        long millis;
+        synchronized (this) {
+            if (finished) {
+                // lost the race
+                attempt.cancel();
+                return;
+            }
+            finished = true;
+            cancelTimeout();
+            millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        }
+        cancelAttempts(index);
+        listener.onConnected(index, socket, millis);
+    }
+
+    private void fail(String message) {
+        synchronized (this) {
+            if (finished) return;
+            finished = true;
+            cancelTimeout();
+        }
+        cancelAttempts(-1);
+        listener.onFailed(message);
+    }
+
+    private void cancelTimeout() {
+        if (timeoutTask != null) {
+            timeoutTask.cancel(false);
+            timeoutTask = null;
+        }
+    }
+
+    private void cancelAttempts(int except) {
+        for (int i = 0; i < attempts.size(); i++) {
+            if (i != except) {
+                attempts.get(i).cancel();
+            }
+        }
+    }
+}
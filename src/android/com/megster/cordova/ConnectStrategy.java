@@ -0,0 +1,161 @@
+package com.megster.cordova;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The ways of opening an RFCOMM socket to a device, and which one worked
+ * the last time each device was connected.
+ *
+ * The service record way looks up the SPP channel with SDP every time.
+ * Some devices, notably on Android 4.1, only connect on channel 1 through
+ * the hidden createRfcommSocket method, which skips SDP. Connecting again
+ * to a device tries the way that worked before first, so reconnects don't
+ * pay for a failed attempt.
+ */
+public class ConnectStrategy {
+
+    private static final String TAG = "ConnectStrategy";
+
+    // Channel used when connecting without SDP
+    private static final int FALLBACK_CHANNEL = 1;
+
+    public enum Kind {
+        SERVICE_RECORD,  // createRfcommSocketToServiceRecord, channel found with SDP
+        CHANNEL          // createRfcommSocket on FALLBACK_CHANNEL, no SDP
+    }
+
+    // What worked last, keyed by MAC address
+    private static final Map<String, Kind> lastWorking = new HashMap<String, Kind>();
+
+    // BluetoothDevice.createRfcommSocket(int), looked up once
+    private static Method createRfcommSocket;
+
+    /**
+     * Return the way to try first for a device. */
+    public static Kind preferredFor(BluetoothDevice device) {
+        synchronized (lastWorking) {
+            Kind kind = lastWorking.get(device.getAddress());
+            return kind != null ? kind : Kind.SERVICE_RECORD;
+        }
+    }
+
+    /**
+     * Remember the way that connected to a device. */
+    public static void remember(BluetoothDevice device, Kind kind) {
+        synchronized (lastWorking) {
+            lastWorking.put(device.getAddress(), kind);
+        }
+    }
+
+    /**
+     * Return the other way of connecting, tried when the preferred one fails. */
+    public static Kind fallbackFor(Kind kind) {
+        return kind == Kind.SERVICE_RECORD ? Kind.CHANNEL : Kind.SERVICE_RECORD;
+    }
+
+    /**
+     * Create an unconnected socket.
+     * @param device  the remote device
+     * @param kind  how to create the socket
+     * @param secure  secure or insecure RFCOMM, only used with SERVICE_RECORD
+     * @param uuid  the service to look up, only used with SERVICE_RECORD
+     */
+    public static BluetoothSocket createSocket(BluetoothDevice device, Kind kind, boolean secure, UUID uuid) throws IOException {
+        if (kind == Kind.SERVICE_RECORD) {
+            if (secure) {
+                return device.createRfcommSocketToServiceRecord(uuid);
+            } else {
+                return device.createInsecureRfcommSocketToServiceRecord(uuid);
+            }
+        }
+
+        // See https://github.com/don/BluetoothSerial/issues/89
+        try {
+            return (BluetoothSocket) createRfcommSocketMethod(device).invoke(device, FALLBACK_CHANNEL);
+        } catch (InvocationTargetException e) {
+            throw new IOException("createRfcommSocket failed", e.getCause());
+        } catch (Exception e) {
+            throw new IOException("createRfcommSocket is not available", e);
+        }
+    }
+
+    private static synchronized Method createRfcommSocketMethod(BluetoothDevice device) throws NoSuchMethodException {
+        if (createRfcommSocket == null) {
+            createRfcommSocket = device.getClass().getMethod("createRfcommSocket", int.class);
+        }
+        return createRfcommSocket;
+    }
+
+    /**
+     * How long each phase of establishing a connection took.
+     */
+    public static class Timings {
+        private final long startTime = System.nanoTime();
+        private Kind kind;
+        private boolean fallback;
+        private long failedAttemptNanos;
+        private long createNanos;
+        private long connectNanos;
+        private long streamsNanos;
+        private long totalNanos;
+
+        /**
+         * Record the attempt that connected.
+         * @param kind  the way the socket was created
+         * @param fallback  true if the preferred way failed first
+         * @param failedAttemptNanos  time spent on the failed attempt
+         * @param createNanos  time to create the socket
+         * @param connectNanos  time to connect the socket, includes SDP for SERVICE_RECORD
+         */
+        public void connected(Kind kind, boolean fallback, long failedAttemptNanos, long createNanos, long connectNanos) {
+            this.kind = kind;
+            this.fallback = fallback;
+            this.failedAttemptNanos = failedAttemptNanos;
+            this.createNanos = createNanos;
+            this.connectNanos = connectNanos;
+        }
+
+        /**
+         * Record the time to open the streams, which completes the connection. */
+        public void streamsOpened(long streamsNanos) {
+            this.streamsNanos = streamsNanos;
+            this.totalNanos = System.nanoTime() - startTime;
+            Log.i(TAG, "Connected with " + kind + " in " + millis(totalNanos) + "ms, connect "
+                    + millis(connectNanos) + "ms" + (fallback ? " after a failed attempt" : ""));
+        }
+
+        /**
+         * Return the time from the start of the attempt until the streams were opened. */
+        public double getTotalMillis() {
+            return millis(totalNanos);
+        }
+
+        public JSONObject toJSON() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("strategy", kind == Kind.CHANNEL ? "channel" : "serviceRecord");
+            json.put("fallback", fallback);
+            json.put("failedAttempt", millis(failedAttemptNanos));
+            json.put("create", millis(createNanos));
+            json.put("connect", millis(connectNanos));
+            json.put("streams", millis(streamsNanos));
+            json.put("total", getTotalMillis());
+            return json;
+        }
+
+        private static double millis(long nanos) {
+            return Math.round(nanos / 10000.0) / 100.0;
+        }
+    }
+}
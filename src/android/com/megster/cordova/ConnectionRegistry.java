@@ -0,0 +1,124 @@
+package com.megster.cordova;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * The connections of the plugin, found by the address of their device.
+ * Actions without a connection id use the default connection, which is
+ * created before any device is connected so data can be subscribed to first.
+ * Each connection has its own buffer, subscribers and write queue.
+ */
+public class ConnectionRegistry {
+
+    private final ScheduledExecutorService scheduler;
+    private final List<SerialConnection> connections = new ArrayList<SerialConnection>();
+    private final SerialConnection defaultConnection;
+
+    /**
+     * @param scheduler  runs the timers of all connections
+     */
+    public ConnectionRegistry(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+        defaultConnection = new SerialConnection(scheduler);
+        connections.add(defaultConnection);
+    }
+
+    public SerialConnection getDefault() {
+        return defaultConnection;
+    }
+
+    /**
+     * Return the connection to use for a device. A device that was connected
+     * before keeps its connection. Otherwise the default connection is reused
+     * when it is idle, so apps using one device at a time keep their
+     * subscriptions, and a new connection is made when it is busy.
+     */
+    public synchronized SerialConnection connectionFor(String address) {
+        SerialConnection connection = find(address);
+        if (connection == null) {
+            connection = idleConnection();
+        }
+        return connection;
+    }
+
+    /**
+     * Return the default connection if it is idle, or a new connection. */
+    public synchronized SerialConnection idleConnection() {
+        if (!defaultConnection.isActive()) {
+            return defaultConnection;
+        }
+        SerialConnection connection = new SerialConnection(scheduler);
+        connections.add(connection);
+        return connection;
+    }
+
+    /**
+     * Return the connection of the device, or null if it has none. */
+    public synchronized SerialConnection find(String address) {
+        for (SerialConnection connection : connections) {
+            if (address.equals(connection.getAddress())) {
+                return connection;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Forget the idle connections of the devices, used before connecting to
+     * one of them on a fresh connection. Nothing is forgotten when one of
+     * the devices is still connected.
+     * @return the address of a device that is connected, or null
+     */
+    public synchronized String releaseIdle(List<String> addresses) {
+        for (String address : addresses) {
+            SerialConnection existing = find(address);
+            if (existing != null && existing.isActive()) {
+                return address;
+            }
+        }
+        for (String address : addresses) {
+            SerialConnection existing = find(address);
+            if (existing != null && existing != defaultConnection) {
+                connections.remove(existing);
+                existing.destroy();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Disconnect the device. The default connection stays for the next
+     * device, the other connections are removed.
+     */
+    public void disconnect(SerialConnection connection) {
+        if (connection == defaultConnection) {
+            connection.disconnect();
+        } else {
+            synchronized (this) {
+                connections.remove(connection);
+            }
+            connection.destroy();
+        }
+    }
+
+    public void disconnectAll() {
+        List<SerialConnection> all;
+        synchronized (this) {
+            all = new ArrayList<SerialConnection>(connections);
+        }
+        for (SerialConnection connection : all) {
+            disconnect(connection);
+        }
+    }
+
+    /**
+     * Destroy every connection, the registry can't be used afterwards. */
+    public synchronized void destroy() {
+        for (SerialConnection connection : connections) {
+            connection.destroy();
+        }
+        connections.clear();
+    }
+}
@@ -0,0 +1,138 @@
+package com.megster.cordova;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters for one connection, kept for the lifetime of the SerialConnection
+ * so they add up across reconnects. They tell whether data was lost before
+ * it reached the plugin, in the plugin or after it was handed to Cordova.
+ *
+ * Every counter is an atomic, the reader, dispatch and writer threads
+ * update them without taking a lock.
+ */
+public class ConnectionStats {
+
+    // received by the ConnectedThread
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong chunksReceived = new AtomicLong();
+
+    // written to the output stream by the WriteQueue
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong chunksSent = new AtomicLong();
+
+    // receive buffer
+    private final AtomicLong bytesDropped = new AtomicLong();
+    private final AtomicLong bufferHighWater = new AtomicLong();
+
+    // connections
+    private final AtomicLong connects = new AtomicLong();
+    private final AtomicLong connectFailures = new AtomicLong();
+    private final AtomicLong connectionsLost = new AtomicLong();
+    private final AtomicLong reconnectAttempts = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+
+    // microseconds from the read to the dispatch thread and to the subscriber
+    private final LatencyHistogram dispatchLatency = new LatencyHistogram();
+    private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+    // milliseconds from connect to connected
+    private final LatencyHistogram connectTime = new LatencyHistogram();
+
+    public void onReceived(int bytes) {
+        bytesReceived.addAndGet(bytes);
+        chunksReceived.incrementAndGet();
+    }
+
+    public void onSent(int bytes) {
+        bytesSent.addAndGet(bytes);
+        chunksSent.incrementAndGet();
+    }
+
+    /**
+     * @param readTime  System.nanoTime() of the read
+     */
+    public void onDispatched(long readTime) {
+        dispatchLatency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - readTime));
+    }
+
+    /**
+     * @param readTime  System.nanoTime() of the read
+     */
+    public void onDelivered(long readTime) {
+        deliveryLatency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - readTime));
+    }
+
+    /**
+     * @param buffered  bytes in the receive buffer after the write
+     * @param dropped  bytes the write pushed out of the buffer or discarded
+     */
+    public void onBuffered(long buffered, int dropped) {
+        if (dropped > 0) {
+            bytesDropped.addAndGet(dropped);
+        }
+        long m;
+        while (buffered > (m = bufferHighWater.get()) && !bufferHighWater.compareAndSet(m, buffered)) {
+            // retry
+        }
+    }
+
+    public void onConnected(long millis) {
+        connects.incrementAndGet();
+        if (millis >= 0) {
+            connectTime.record(millis);
+        }
+    }
+
+    public void onConnectFailed() {
+        connectFailures.incrementAndGet();
+    }
+
+    public void onConnectionLost() {
+        connectionsLost.incrementAndGet();
+    }
+
+    public void onReconnectAttempt() {
+        reconnectAttempts.incrementAndGet();
+    }
+
+    public void onReconnected() {
+        reconnects.incrementAndGet();
+    }
+
+    public JSONObject toJSON() throws JSONException {
+        JSONObject json = new JSONObject();
+
+        JSONObject received = new JSONObject();
+        received.put("bytes", bytesReceived.get());
+        received.put("chunks", chunksReceived.get());
+        json.put("received", received);
+
+        JSONObject sent = new JSONObject();
+        sent.put("bytes", bytesSent.get());
+        sent.put("chunks", chunksSent.get());
+        json.put("sent", sent);
+
+        JSONObject buffer = new JSONObject();
+        buffer.put("highWater", bufferHighWater.get());
+        buffer.put("dropped", bytesDropped.get());
+        json.put("buffer", buffer);
+
+        JSONObject connections = new JSONObject();
+        connections.put("connects", connects.get());
+        connections.put("failures", connectFailures.get());
+        connections.put("lost", connectionsLost.get());
+        connections.put("reconnectAttempts", reconnectAttempts.get());
+        connections.put("reconnects", reconnects.get());
+        connections.put("connectTime", connectTime.toJSON());
+        json.put("connections", connections);
+
+        JSONObject latency = new JSONObject();
+        latency.put("dispatch", dispatchLatency.toJSON());
+        latency.put("delivery", deliveryLatency.toJSON());
+        json.put("latency", latency);
+        return json;
+    }
+}
@@ -0,0 +1,146 @@
+package com.megster.cordova;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Groups the data sent to a subscriber so several lines or chunks cross the
+ * Cordova bridge in a single PluginResult. A batch is sent when it holds
+ * maxBatchSize items or maxLatency milliseconds after its first item arrived,
+ * whichever comes first.
+ *
+ * Lines are sent as a JSON array of strings. Raw chunks are sent as a
+ * multipart result: one ArrayBuffer with the concatenated bytes and a JSON
+ * array with the offset of each chunk in it.
+ */
+public class DeliveryBatcher {
+
+    private static final int DEFAULT_MAX_LATENCY = 20;
+    private static final int DEFAULT_MAX_BATCH_SIZE = 64;
+
+    private final CallbackContext callbackContext;
+    private final ScheduledExecutorService scheduler;
+    private final long maxLatency;
+    private final int maxBatchSize;
+
+    // pending lines
+    private JSONArray lines = new JSONArray();
+    // pending raw chunks
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private JSONArray offsets = new JSONArray();
+
+    private int pending;
+    private ScheduledFuture<?> flushTask;
+
+    // counters
+    private long itemCount;
+    private long resultCount;
+
+    private final Runnable flushRunnable = new Runnable() {
+        public void run() {
+            flush();
+        }
+    };
+
+    public DeliveryBatcher(CallbackContext callbackContext, ScheduledExecutorService scheduler, long maxLatency, int maxBatchSize) {
+        this.callbackContext = callbackContext;
+        this.scheduler = scheduler;
+        this.maxLatency = maxLatency;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Create a batcher from the subscribe options, or return null when
+     * batching was not requested.
+     * @param options  {batch: true, maxLatency: ms, maxBatchSize: items}
+     */
+    public static DeliveryBatcher fromOptions(JSONObject options, CallbackContext callbackContext, ScheduledExecutorService scheduler) {
+        if (options == null || !options.optBoolean("batch", false)) {
+            return null;
+        }
+        long maxLatency = Math.max(1, options.optLong("maxLatency", DEFAULT_MAX_LATENCY));
+        int maxBatchSize = Math.max(1, options.optInt("maxBatchSize", DEFAULT_MAX_BATCH_SIZE));
+        return new DeliveryBatcher(callbackContext, scheduler, maxLatency, maxBatchSize);
+    }
+
+    public synchronized void addLine(String line) {
+        lines.put(line);
+        added();
+    }
+
+    /**
+     * Add a JSON value, sent in the same array as the lines. */
+    public synchronized void addValue(Object value) {
+        lines.put(value);
+        added();
+    }
+
+    public synchronized void addChunk(byte[] data, int offset, int length) {
+        offsets.put(bytes.size());
+        bytes.write(data, offset, length);
+        added();
+    }
+
+    private void added() {
+        itemCount++;
+        pending++;
+        if (pending >= maxBatchSize) {
+            flush();
+        } else if (flushTask == null) {
+            flushTask = scheduler.schedule(flushRunnable, maxLatency, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Send everything that is pending as one PluginResult. */
+    public synchronized void flush() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        if (pending == 0) {
+            return;
+        }
+
+        PluginResult result;
+        if (lines.length() > 0) {
+            result = new PluginResult(PluginResult.Status.OK, lines);
+            lines = new JSONArray();
+        } else {
+            List<PluginResult> parts = new ArrayList<PluginResult>(2);
+            parts.add(new PluginResult(PluginResult.Status.OK, bytes.toByteArray()));
+            parts.add(new PluginResult(PluginResult.Status.OK, offsets));
+            result = new PluginResult(PluginResult.Status.OK, parts);
+            bytes.reset();
+            offsets = new JSONArray();
+        }
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+
+        pending = 0;
+        resultCount++;
+    }
+
+    /**
+     * Return the delivery counters as JSON.
+     * items is the number of lines or chunks delivered, results the number
+     * of bridge calls used to deliver them.
+     */
+    public synchronized JSONObject getStats() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("items", itemCount);
+        json.put("results", resultCount);
+        json.put("saved", itemCount - pending - resultCount);
+        return json;
+    }
+}
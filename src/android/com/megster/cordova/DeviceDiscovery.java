@@ -0,0 +1,232 @@
+package com.megster.cordova;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothClass;
+import android.bluetooth.BluetoothDevice;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs discovery of unpaired devices and remembers what it found.
+ *
+ * Devices are kept by address with their RSSI and when they were last seen,
+ * so repeated sightings update one entry instead of adding duplicates and
+ * getCachedDevices can answer without starting another inquiry. Callers that
+ * ask for a discovery while one is running share its result.
+ *
+ * The device discovered listener gets a device when it is first seen, and
+ * again at most once per UPDATE_INTERVAL while it keeps being reported.
+ */
+public class DeviceDiscovery {
+
+    private static final String TAG = "DeviceDiscovery";
+
+    // Devices not seen for this long are removed from the cache
+    public static final long CACHE_TTL = 5 * 60 * 1000;
+
+    // Minimum time between two updates of the same device sent to the listener
+    private static final long UPDATE_INTERVAL = 1000;
+
+    // A discovered device, its JSON is built once and updated in place
+    private static class Entry {
+        final JSONObject json;
+        long seenAt;
+        long notifiedAt;
+        int inquiry;
+
+        Entry(JSONObject json) {
+            this.json = json;
+        }
+
+        // A copy for a result that is sent after the lock is released, the
+        // entry keeps changing while discovery runs
+        JSONObject copy() throws JSONException {
+            return new JSONObject(json.toString());
+        }
+    }
+
+    private final BluetoothAdapter bluetoothAdapter;
+    private final Map<String, Entry> devices = new LinkedHashMap<String, Entry>();
+    private final List<CallbackContext> pending = new ArrayList<CallbackContext>();
+    private CallbackContext listener;
+    private Context context;
+    private int inquiry;
+
+    private final BroadcastReceiver receiver = new BroadcastReceiver() {
+        public void onReceive(Context context, Intent intent) {
+            String action = intent.getAction();
+            if (BluetoothDevice.ACTION_FOUND.equals(action)) {
+                onDeviceFound(intent);
+            } else if (BluetoothAdapter.ACTION_DISCOVERY_STARTED.equals(action)) {
+                Log.d(TAG, "Discovery started");
+            } else if (BluetoothAdapter.ACTION_DISCOVERY_FINISHED.equals(action)) {
+                Log.d(TAG, "Discovery finished");
+                onDiscoveryFinished();
+            }
+        }
+    };
+
+    public DeviceDiscovery(BluetoothAdapter bluetoothAdapter) {
+        this.bluetoothAdapter = bluetoothAdapter;
+    }
+
+    /**
+     * Set the callback that gets discovered devices as they are found, null to clear it. */
+    public synchronized void setListener(CallbackContext listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Start an inquiry, or join the running one. The callback gets the
+     * devices seen during the inquiry when it finishes.
+     * @param context  registers the receiver for the discovery broadcasts
+     */
+    public synchronized void discover(Context context, CallbackContext callbackContext) {
+        pending.add(callbackContext);
+        if (this.context != null) {
+            return;
+        }
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(BluetoothDevice.ACTION_FOUND);
+        filter.addAction(BluetoothAdapter.ACTION_DISCOVERY_STARTED);
+        filter.addAction(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
+        context.registerReceiver(receiver, filter);
+        this.context = context;
+        inquiry++;
+
+        if (!bluetoothAdapter.startDiscovery()) {
+            unregister();
+            failPending("Unable to start discovery");
+        }
+    }
+
+    /**
+     * @param maxAge  only return devices seen in the last maxAge milliseconds
+     * @return the cached devices, without starting an inquiry
+     */
+    public synchronized JSONArray getCachedDevices(long maxAge) throws JSONException {
+        long now = SystemClock.elapsedRealtime();
+        JSONArray list = new JSONArray();
+        Iterator<Entry> iterator = devices.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            long age = now - entry.seenAt;
+            if (age > CACHE_TTL) {
+                iterator.remove();
+            } else if (age <= maxAge) {
+                list.put(entry.copy());
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Stop listening for discovery broadcasts, the running inquiry is not reported. */
+    public synchronized void destroy() {
+        if (context != null) {
+            unregister();
+            bluetoothAdapter.cancelDiscovery();
+        }
+        pending.clear();
+    }
+
+    private synchronized void onDeviceFound(Intent intent) {
+        BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+        if (device == null) return;
+        String address = device.getAddress();
+        // name and class come with the broadcast, which saves asking the Bluetooth service
+        String name = intent.getStringExtra(BluetoothDevice.EXTRA_NAME);
+        short rssi = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, Short.MIN_VALUE);
+        long now = SystemClock.elapsedRealtime();
+
+        try {
+            Entry entry = devices.get(address);
+            boolean changed = false;
+            if (entry == null) {
+                JSONObject json = new JSONObject();
+                json.put("name", name != null ? name : device.getName());
+                json.put("address", address);
+                json.put("id", address);
+                BluetoothClass bluetoothClass = intent.getParcelableExtra(BluetoothDevice.EXTRA_CLASS);
+                if (bluetoothClass != null) {
+                    json.put("class", bluetoothClass.getDeviceClass());
+                }
+                entry = new Entry(json);
+                devices.put(address, entry);
+                changed = true;
+            } else if (name != null && !name.equals(entry.json.optString("name", null))) {
+                entry.json.put("name", name);
+                changed = true;
+            }
+            if (rssi != Short.MIN_VALUE) {
+                entry.json.put("rssi", rssi);
+            }
+            entry.json.put("lastSeen", System.currentTimeMillis());
+            entry.seenAt = now;
+            entry.inquiry = inquiry;
+
+            if (listener != null && (changed || now - entry.notifiedAt >= UPDATE_INTERVAL)) {
+                entry.notifiedAt = now;
+                PluginResult result = new PluginResult(PluginResult.Status.OK, entry.copy());
+                result.setKeepCallback(true);
+                listener.sendPluginResult(result);
+            }
+        } catch (JSONException e) {
+            // This shouldn't happen, log and ignore
+            Log.e(TAG, "Problem converting device to JSON", e);
+        }
+    }
+
+    private synchronized void onDiscoveryFinished() {
+        if (context == null) return;
+        unregister();
+        JSONArray found = new JSONArray();
+        try {
+            for (Entry entry : devices.values()) {
+                if (entry.inquiry == inquiry) {
+                    found.put(entry.copy());
+                }
+            }
+        } catch (JSONException e) {
+            // This shouldn't happen, log and ignore
+            Log.e(TAG, "Problem converting device to JSON", e);
+        }
+        for (CallbackContext callbackContext : pending) {
+            callbackContext.success(found);
+        }
+        pending.clear();
+    }
+
+    private void failPending(String message) {
+        for (CallbackContext callbackContext : pending) {
+            callbackContext.error(message);
+        }
+        pending.clear();
+    }
+
+    private void unregister() {
+        try {
+            context.unregisterReceiver(receiver);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Discovery receiver was not registered", e);
+        }
+        context = null;
+    }
+}
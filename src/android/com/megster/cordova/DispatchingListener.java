@@ -0,0 +1,118 @@
+package com.megster.cordova;
+
+import android.util.Log;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivers the events of a BluetoothSerialService to a listener on a single
+ * dedicated thread, so received data does not wait behind work on the UI
+ * thread. Events are delivered in order.
+ *
+ * The number of pending reads is bounded. When it is reached the thread
+ * posting a read blocks until the listener has taken one, which stops
+ * reading from the socket until the listener catches up. State changes,
+ * device names and errors never wait, the service posts them while holding
+ * its lock and the listener may need that lock to catch up.
+ */
+public class DispatchingListener implements BluetoothSerialListener {
+
+    private static final String TAG = "DispatchingListener";
+
+    // Pending reads allowed for each connection
+    public static final int DEFAULT_QUEUE_SIZE = 256;
+
+    private final BluetoothSerialListener listener;
+    private final ThreadPoolExecutor executor;
+    private final Semaphore readPermits;
+    private final int queueSize;
+
+    /**
+     * @param listener  the listener receiving the events
+     * @param queueSize  maximum number of pending reads
+     */
+    public DispatchingListener(BluetoothSerialListener listener, int queueSize) {
+        this.listener = listener;
+        this.queueSize = queueSize;
+        this.readPermits = new Semaphore(queueSize);
+        this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "BluetoothSerialDispatch");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Stop the dispatch thread. Pending events are discarded. */
+    public void shutdown() {
+        executor.shutdownNow();
+        // wake readers waiting for room, their reads are dropped
+        readPermits.release(queueSize);
+    }
+
+    public void onStateChange(final int state) {
+        dispatch(new Runnable() {
+            public void run() {
+                listener.onStateChange(state);
+            }
+        });
+    }
+
+    public void onDeviceName(final String name) {
+        dispatch(new Runnable() {
+            public void run() {
+                listener.onDeviceName(name);
+            }
+        });
+    }
+
+    public void onRead(final ChunkPool.Chunk chunk) {
+        try {
+            // block the reader until the dispatch thread catches up
+            readPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            chunk.recycle();
+            return;
+        }
+        if (!dispatch(new Runnable() {
+            public void run() {
+                try {
+                    listener.onRead(chunk);
+                } finally {
+                    readPermits.release();
+                }
+            }
+        })) {
+            readPermits.release();
+            chunk.recycle();
+        }
+    }
+
+    public void onConnectionError(final String message) {
+        dispatch(new Runnable() {
+            public void run() {
+                listener.onConnectionError(message);
+            }
+        });
+    }
+
+    private boolean dispatch(Runnable event) {
+        try {
+            executor.execute(event);
+            return true;
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Event dropped, " + e.getMessage());
+            return false;
+        }
+    }
+}
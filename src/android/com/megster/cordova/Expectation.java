@@ -0,0 +1,156 @@
+package com.megster.cordova;
+
+import org.apache.cordova.CallbackContext;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.ScheduledFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A response being waited for by writeAndExpect. The receive path checks
+ * the receive buffer after every read, so the callback completes as soon
+ * as the response is there instead of when the app polls next.
+ *
+ * The expectation reads the buffer through its own cursor, starting after
+ * the data buffered when the write is queued, so an old response still in
+ * the buffer is not taken for the new one. Like readUntil, a match takes
+ * the data up to and including the end of the match away from the direct
+ * reads, but the subscribers still get it.
+ *
+ * A pattern is matched against text decoded from the new bytes only, the
+ * byte offset where each character ends is kept so the end of the match
+ * is known in bytes, also when the data has malformed sequences.
+ */
+public class Expectation {
+
+    private final byte[] literal;
+    private final Pattern pattern;
+    private final String description;
+    private final CallbackContext callbackContext;
+    private ScheduledFuture<?> timeoutTask;
+    private boolean finished;
+
+    // Set by start
+    private ByteRingBuffer buffer;
+    private ByteRingBuffer.Cursor cursor;
+    private TextDecoder decoder;
+
+    // The text decoded after the cursor and, for each character, the
+    // number of bytes after the cursor up to its end
+    private final StringBuilder text = new StringBuilder();
+    private int[] ends = new int[64];
+    private long textPosition;
+    private int decodedBytes;
+    private int matchedChars;
+
+    /**
+     * @param literal  bytes to wait for, null when waiting for a pattern
+     * @param pattern  regular expression to wait for, null when waiting for bytes
+     * @param description  the pattern as given, used in the timeout error
+     */
+    public Expectation(byte[] literal, Pattern pattern, String description, CallbackContext callbackContext) {
+        this.literal = literal;
+        this.pattern = pattern;
+        this.description = description;
+        this.callbackContext = callbackContext;
+    }
+
+    /**
+     * Return true if the pattern matches the empty string, it would match
+     * before any response arrived.
+     */
+    public static boolean matchesEmpty(Pattern pattern) {
+        return pattern.matcher("").find();
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public CallbackContext getCallbackContext() {
+        return callbackContext;
+    }
+
+    synchronized void setTimeoutTask(ScheduledFuture<?> task) {
+        timeoutTask = task;
+    }
+
+    /**
+     * Start looking at the buffer, before the data is written.
+     * @param charset  the charset the pattern is matched in
+     */
+    synchronized void start(ByteRingBuffer buffer, Charset charset) {
+        this.buffer = buffer;
+        this.decoder = new TextDecoder(charset);
+        cursor = buffer.newCursor();
+        textPosition = cursor.position();
+    }
+
+    /**
+     * Return the number of bytes after the cursor up to and including the
+     * end of the first match, or -1 if there is no match yet.
+     */
+    public synchronized int match() {
+        if (literal != null) {
+            int index = cursor.indexOf(literal);
+            return index < 0 ? -1 : index + literal.length;
+        }
+        long position = cursor.position();
+        if (position != textPosition) {
+            // bytes were taken out of the buffer by a read, clear or overflow
+            text.setLength(0);
+            decoder.reset();
+            decodedBytes = 0;
+            textPosition = position;
+        }
+        byte[] bytes = cursor.peek(decodedBytes);
+        if (bytes.length == 0 && decodedBytes > 0) {
+            return -1;
+        }
+        ends = decoder.decode(bytes, decodedBytes, text, ends);
+        decodedBytes += bytes.length;
+        Matcher matcher = pattern.matcher(text);
+        while (matcher.find()) {
+            // an empty match, like a lookaround alone, is no response
+            if (matcher.end() > matcher.start()) {
+                matchedChars = matcher.end();
+                return ends[matchedChars - 1];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Move the cursor past the response found by match and return it as text.
+     * @param count  the number of bytes returned by match
+     */
+    public synchronized String take(int count) {
+        byte[] response = cursor.read(count);
+        if (literal != null) {
+            return decoder.decode(response);
+        }
+        return text.substring(0, matchedChars);
+    }
+
+    /**
+     * Mark the expectation finished, cancel its timeout and stop reading
+     * the buffer.
+     * @return false if it had already finished
+     */
+    public boolean finish() {
+        synchronized (this) {
+            if (finished) return false;
+            finished = true;
+            if (timeoutTask != null) {
+                timeoutTask.cancel(false);
+                timeoutTask = null;
+            }
+        }
+        // outside the lock, the receive path locks the buffer before the expectation
+        if (cursor != null) {
+            buffer.removeCursor(cursor);
+        }
+        return true;
+    }
+}
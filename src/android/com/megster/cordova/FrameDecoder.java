@@ -0,0 +1,286 @@
+package com.megster.cordova;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Splits the received byte stream into frames for binary protocols.
+ *
+ * A decoder keeps its state between calls, so a frame can span any number
+ * of reads. Frames are assembled in a buffer allocated once, the listener
+ * gets a view of that buffer and must copy the bytes it wants to keep.
+ * Frames larger than the maximum frame size and malformed frames are
+ * dropped and counted.
+ */
+public abstract class FrameDecoder {
+
+    /**
+     * Receives the decoded frames.
+     */
+    public interface Listener {
+        /**
+         * @param frame  buffer holding the frame, only valid during the call
+         * @param offset  start of the frame in the buffer
+         * @param length  length of the frame
+         */
+        void onFrame(byte[] frame, int offset, int length);
+    }
+
+    private static final int DEFAULT_MAX_FRAME_SIZE = 4096;
+    // The frame buffer is allocated up front, so its size is capped
+    private static final int MAX_FRAME_SIZE = 1024 * 1024;
+
+    protected final byte[] frame;
+    protected int frameLength;
+    private long droppedFrames;
+
+    protected FrameDecoder(int maxFrameSize) {
+        frame = new byte[maxFrameSize];
+    }
+
+    /**
+     * Create a decoder from the subscribe options, or return null when no
+     * framing was requested.
+     * @param options  {framing: "length" | "cobs" | "slip" | "fixed", ...}
+     */
+    public static FrameDecoder create(JSONObject options) throws JSONException {
+        String framing = options == null ? null : options.optString("framing", null);
+        if (framing == null) {
+            return null;
+        }
+        int maxFrameSize = options.optInt("maxFrameSize", DEFAULT_MAX_FRAME_SIZE);
+        if (maxFrameSize <= 0 || maxFrameSize > MAX_FRAME_SIZE) {
+            throw new JSONException("maxFrameSize must be between 1 and " + MAX_FRAME_SIZE);
+        }
+        if ("length".equals(framing)) {
+            int lengthBytes = options.optInt("lengthBytes", 2);
+            if (lengthBytes != 1 && lengthBytes != 2 && lengthBytes != 4) {
+                throw new JSONException("lengthBytes must be 1, 2 or 4");
+            }
+            boolean littleEndian = "little".equals(options.optString("byteOrder", "big"));
+            return new LengthPrefix(lengthBytes, littleEndian, maxFrameSize);
+        } else if ("cobs".equals(framing)) {
+            return new Cobs(maxFrameSize);
+        } else if ("slip".equals(framing)) {
+            return new Slip(maxFrameSize);
+        } else if ("fixed".equals(framing)) {
+            int frameSize = options.getInt("frameSize");
+            if (frameSize <= 0 || frameSize > MAX_FRAME_SIZE) {
+                throw new JSONException("frameSize must be between 1 and " + MAX_FRAME_SIZE);
+            }
+            return new FixedSize(frameSize);
+        }
+        throw new JSONException("Unknown framing " + framing);
+    }
+
+    /**
+     * Decode received bytes, calling the listener for every completed frame. */
+    public abstract void decode(byte[] data, int offset, int length, Listener listener);
+
+    /**
+     * Discard any partially received frame. */
+    public void reset() {
+        frameLength = 0;
+    }
+
+    /**
+     * Return the number of frames dropped because they were malformed or too large. */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    protected void dropFrame() {
+        droppedFrames++;
+        frameLength = 0;
+    }
+
+    /**
+     * Frames preceded by their length as a 1, 2 or 4 byte unsigned integer.
+     */
+    public static class LengthPrefix extends FrameDecoder {
+        private final int lengthBytes;
+        private final boolean littleEndian;
+        private int headerRead;
+        private long expected;
+
+        public LengthPrefix(int lengthBytes, boolean littleEndian, int maxFrameSize) {
+            super(maxFrameSize);
+            this.lengthBytes = lengthBytes;
+            this.littleEndian = littleEndian;
+        }
+
+        public void decode(byte[] data, int offset, int length, Listener listener) {
+            int end = offset + length;
+            while (offset < end) {
+                if (headerRead < lengthBytes) {
+                    long b = data[offset++] & 0xFF;
+                    if (littleEndian) {
+                        expected |= b << (8 * headerRead);
+                    } else {
+                        expected = (expected << 8) | b;
+                    }
+                    headerRead++;
+                    if (headerRead == lengthBytes && expected == 0) {
+                        reset();
+                    }
+                    continue;
+                }
+
+                // copy as much of the body as is available
+                int count = (int) Math.min(end - offset, expected - frameLength);
+                if (expected <= frame.length) {
+                    System.arraycopy(data, offset, frame, frameLength, count);
+                }
+                frameLength += count;
+                offset += count;
+
+                if (frameLength == expected) {
+                    if (expected <= frame.length) {
+                        listener.onFrame(frame, 0, frameLength);
+                    } else {
+                        dropFrame();
+                    }
+                    reset();
+                }
+            }
+        }
+
+        public void reset() {
+            super.reset();
+            headerRead = 0;
+            expected = 0;
+        }
+    }
+
+    /**
+     * Consistent Overhead Byte Stuffing, frames are terminated by a zero byte.
+     */
+    public static class Cobs extends FrameDecoder {
+        private int remaining;
+        private boolean pendingZero;
+        private boolean discarding;
+
+        public Cobs(int maxFrameSize) {
+            super(maxFrameSize);
+        }
+
+        public void decode(byte[] data, int offset, int length, Listener listener) {
+            int end = offset + length;
+            for (int i = offset; i < end; i++) {
+                int b = data[i] & 0xFF;
+                if (b == 0) {
+                    if (discarding || remaining != 0) {
+                        dropFrame();
+                    } else if (frameLength > 0) {
+                        listener.onFrame(frame, 0, frameLength);
+                    }
+                    reset();
+                } else if (discarding) {
+                    // skip to the end of the frame
+                } else if (remaining == 0) {
+                    // code byte, the zero it implies is only written if more data follows
+                    if (pendingZero && !append((byte) 0)) continue;
+                    remaining = b - 1;
+                    pendingZero = b != 0xFF;
+                } else {
+                    if (!append((byte) b)) continue;
+                    remaining--;
+                }
+            }
+        }
+
+        private boolean append(byte b) {
+            if (frameLength == frame.length) {
+                discarding = true;
+                return false;
+            }
+            frame[frameLength++] = b;
+            return true;
+        }
+
+        public void reset() {
+            super.reset();
+            remaining = 0;
+            pendingZero = false;
+            discarding = false;
+        }
+    }
+
+    /**
+     * Serial Line Internet Protocol framing, RFC 1055.
+     */
+    public static class Slip extends FrameDecoder {
+        private static final int END = 0xC0;
+        private static final int ESC = 0xDB;
+        private static final int ESC_END = 0xDC;
+        private static final int ESC_ESC = 0xDD;
+
+        private boolean escaped;
+        private boolean discarding;
+
+        public Slip(int maxFrameSize) {
+            super(maxFrameSize);
+        }
+
+        public void decode(byte[] data, int offset, int length, Listener listener) {
+            int end = offset + length;
+            for (int i = offset; i < end; i++) {
+                int b = data[i] & 0xFF;
+                if (b == END) {
+                    if (discarding) {
+                        dropFrame();
+                    } else if (frameLength > 0) {
+                        listener.onFrame(frame, 0, frameLength);
+                    }
+                    reset();
+                } else if (b == ESC) {
+                    escaped = true;
+                } else {
+                    if (escaped) {
+                        escaped = false;
+                        if (b == ESC_END) {
+                            b = END;
+                        } else if (b == ESC_ESC) {
+                            b = ESC;
+                        }
+                    }
+                    if (frameLength == frame.length) {
+                        discarding = true;
+                    } else if (!discarding) {
+                        frame[frameLength++] = (byte) b;
+                    }
+                }
+            }
+        }
+
+        public void reset() {
+            super.reset();
+            escaped = false;
+            discarding = false;
+        }
+    }
+
+    /**
+     * Frames of a fixed number of bytes.
+     */
+    public static class FixedSize extends FrameDecoder {
+
+        public FixedSize(int frameSize) {
+            super(frameSize);
+        }
+
+        public void decode(byte[] data, int offset, int length, Listener listener) {
+            int end = offset + length;
+            while (offset < end) {
+                int count = Math.min(end - offset, frame.length - frameLength);
+                System.arraycopy(data, offset, frame, frameLength, count);
+                frameLength += count;
+                offset += count;
+                if (frameLength == frame.length) {
+                    listener.onFrame(frame, 0, frameLength);
+                    frameLength = 0;
+                }
+            }
+        }
+    }
+}
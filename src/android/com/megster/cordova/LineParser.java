@@ -0,0 +1,231 @@
+package com.megster.cordova;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Splits delimited lines like CSV or NMEA 0183 sentences into fields and
+ * converts them to numbers, so the app gets numbers instead of parsing every
+ * line in JavaScript.
+ *
+ * Fields that are empty or not numbers become NaN, or null in JSON. With
+ * nmea set the leading $ or ! and the trailing *hh checksum are removed, and
+ * lines whose checksum is missing or wrong are counted and dropped.
+ * Whitespace and control characters around the line are ignored, like the
+ * \n left over when the device ends lines with \r\n and the delimiter is \r.
+ */
+public class LineParser {
+
+    /**
+     * How the values are sent to the subscriber.
+     */
+    public enum Format {
+        FLOAT64,  // ArrayBuffer of little endian doubles, for a Float64Array
+        FLOAT32,  // ArrayBuffer of little endian floats, for a Float32Array
+        JSON;     // array of numbers
+
+        public static Format fromString(String name) {
+            if ("float64".equals(name)) return FLOAT64;
+            if ("float32".equals(name)) return FLOAT32;
+            if ("json".equals(name)) return JSON;
+            return null;
+        }
+    }
+
+    private final char separator;
+    private final boolean nmea;
+    // indexes of the fields to return, null for all fields
+    private final int[] fields;
+    private final Format format;
+
+    // counters
+    private final AtomicLong lineCount = new AtomicLong();
+    private final AtomicLong checksumErrors = new AtomicLong();
+
+    /**
+     * @param separator  the character between fields
+     * @param nmea  strip $ and *hh and drop lines with a wrong checksum
+     * @param fields  indexes of the fields to return, null for all fields
+     * @param format  how the values are sent
+     */
+    public LineParser(char separator, boolean nmea, int[] fields, Format format) {
+        this.separator = separator;
+        this.nmea = nmea;
+        this.fields = fields;
+        this.format = format;
+    }
+
+    /**
+     * Create a parser from the subscribe options, or return null when no
+     * parsing was requested.
+     * @param options  {parse: {separator: ',', nmea: false, fields: [1, 2], format: 'float64'}}
+     */
+    public static LineParser fromOptions(JSONObject options) throws JSONException {
+        JSONObject parse = options != null ? options.optJSONObject("parse") : null;
+        if (parse == null) {
+            return null;
+        }
+        String separator = parse.optString("separator", ",");
+        if (separator.length() != 1) {
+            throw new JSONException("separator must be a single character");
+        }
+        Format format = Format.fromString(parse.optString("format", "float64"));
+        if (format == null) {
+            throw new JSONException("Unknown parse format " + parse.optString("format"));
+        }
+        int[] fields = null;
+        JSONArray array = parse.optJSONArray("fields");
+        if (array != null) {
+            fields = new int[array.length()];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = array.getInt(i);
+                if (fields[i] < 0) {
+                    throw new JSONException("field indexes must not be negative");
+                }
+            }
+        }
+        return new LineParser(separator.charAt(0), parse.optBoolean("nmea", false), fields, format);
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Parse a line.
+     * @param line  the line
+     * @param length  length of the line without the delimiter
+     * @return the values, or null when the checksum is wrong
+     */
+    public double[] parse(String line, int length) {
+        int begin = 0;
+        int end = length;
+        while (end > 0 && line.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        while (begin < end && line.charAt(begin) <= ' ') {
+            begin++;
+        }
+        if (nmea) {
+            if (begin < end && (line.charAt(begin) == '$' || line.charAt(begin) == '!')) {
+                begin++;
+            }
+            int star = line.lastIndexOf('*', end - 1);
+            if (star < begin || !checksumMatches(line, begin, star, end)) {
+                checksumErrors.incrementAndGet();
+                return null;
+            }
+            end = star;
+        }
+        lineCount.incrementAndGet();
+
+        if (fields == null) {
+            int count = 1;
+            for (int i = begin; i < end; i++) {
+                if (line.charAt(i) == separator) count++;
+            }
+            double[] values = new double[count];
+            int field = 0;
+            int start = begin;
+            for (int i = begin; i <= end; i++) {
+                if (i == end || line.charAt(i) == separator) {
+                    values[field++] = parseNumber(line, start, i);
+                    start = i + 1;
+                }
+            }
+            return values;
+        }
+
+        double[] values = new double[fields.length];
+        for (int f = 0; f < fields.length; f++) {
+            values[f] = Double.NaN;
+        }
+        int field = 0;
+        int start = begin;
+        for (int i = begin; i <= end; i++) {
+            if (i == end || line.charAt(i) == separator) {
+                for (int f = 0; f < fields.length; f++) {
+                    if (fields[f] == field) {
+                        values[f] = parseNumber(line, start, i);
+                    }
+                }
+                field++;
+                start = i + 1;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return the values as little endian doubles or floats
+     */
+    public byte[] toBytes(double[] values) {
+        if (format == Format.FLOAT32) {
+            ByteBuffer bytes = ByteBuffer.allocate(values.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+            for (double value : values) {
+                bytes.putFloat((float) value);
+            }
+            return bytes.array();
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(values.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+        for (double value : values) {
+            bytes.putDouble(value);
+        }
+        return bytes.array();
+    }
+
+    /**
+     * @return the values as an array of numbers, null for NaN
+     */
+    public JSONArray toJSON(double[] values) throws JSONException {
+        JSONArray json = new JSONArray();
+        for (double value : values) {
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                json.put(JSONObject.NULL);
+            } else {
+                json.put(value);
+            }
+        }
+        return json;
+    }
+
+    /**
+     * @return {lines, checksumErrors}
+     */
+    public JSONObject getStats() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("lines", lineCount.get());
+        json.put("checksumErrors", checksumErrors.get());
+        return json;
+    }
+
+    // The checksum is the XOR of the characters between $ and *, as two hex digits
+    private static boolean checksumMatches(String line, int begin, int star, int end) {
+        if (end - star != 3) return false;
+        int high = Character.digit(line.charAt(star + 1), 16);
+        int low = Character.digit(line.charAt(star + 2), 16);
+        if (high < 0 || low < 0) return false;
+        int checksum = 0;
+        for (int i = begin; i < star; i++) {
+            checksum ^= line.charAt(i);
+        }
+        return checksum == (high << 4 | low);
+    }
+
+    private static double parseNumber(String line, int start, int end) {
+        if (start == end) return Double.NaN;
+        char c = line.charAt(start);
+        // skip the exception for the text fields that are common in telemetry
+        if (!(c >= '0' && c <= '9') && c != '-' && c != '+' && c != '.') return Double.NaN;
+        try {
+            return Double.parseDouble(line.substring(start, end));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+}
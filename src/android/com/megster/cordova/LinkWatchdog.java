@@ -0,0 +1,183 @@
+package com.megster.cordova;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detects a dead link while connected. A read on an RFCOMM socket whose
+ * peer has died can block for minutes before the stack notices, so the
+ * watchdog closes the link when nothing was received for the read timeout,
+ * or when a heartbeat sent while the link was idle gets no reply in time.
+ *
+ * Any received byte counts as activity and as the reply to a heartbeat.
+ */
+public class LinkWatchdog implements Runnable {
+
+    private static final String TAG = "LinkWatchdog";
+
+    // Bounds of the interval between checks
+    private static final long MIN_TICK = 10;
+    private static final long MAX_TICK = 1000;
+
+    /**
+     * The connection being watched.
+     */
+    public interface Link {
+        void write(byte[] data);
+
+        /**
+         * Tear the connection down, the reason is reported as the error. */
+        void close(String reason);
+    }
+
+    /**
+     * What to watch for, created from the connect options.
+     */
+    public static class Settings {
+        final long readTimeout;
+        final byte[] heartbeat;
+        final long heartbeatInterval;
+        final long heartbeatTimeout;
+
+        /**
+         * @param readTimeout  close when nothing was received for this long, 0 to not check
+         * @param heartbeat  bytes to send when idle, null for no heartbeat
+         * @param heartbeatInterval  idle milliseconds before the heartbeat is sent
+         * @param heartbeatTimeout  milliseconds to wait for a reply to the heartbeat
+         */
+        public Settings(long readTimeout, byte[] heartbeat, long heartbeatInterval, long heartbeatTimeout) {
+            this.readTimeout = readTimeout;
+            this.heartbeat = heartbeat;
+            this.heartbeatInterval = heartbeatInterval;
+            this.heartbeatTimeout = heartbeatTimeout;
+        }
+
+        /**
+         * Create settings from the connect options, or return null when
+         * neither a read timeout nor a heartbeat was requested.
+         * @param options  {readTimeout: ms, heartbeat: {data, interval, timeout}}
+         */
+        public static Settings fromOptions(JSONObject options) throws JSONException {
+            if (options == null) {
+                return null;
+            }
+            long readTimeout = options.optLong("readTimeout", 0);
+            byte[] heartbeat = null;
+            long interval = 0;
+            long timeout = 0;
+            JSONObject json = options.optJSONObject("heartbeat");
+            if (json != null) {
+                heartbeat = heartbeatData(json);
+                interval = json.optLong("interval", 0);
+                timeout = json.optLong("timeout", interval);
+                if (interval <= 0 || timeout <= 0) {
+                    throw new JSONException("heartbeat interval and timeout must be positive");
+                }
+            }
+            if (readTimeout < 0) {
+                throw new JSONException("readTimeout must not be negative");
+            }
+            if (readTimeout == 0 && heartbeat == null) {
+                return null;
+            }
+            return new Settings(readTimeout, heartbeat, interval, timeout);
+        }
+
+        // data is a string of 8 bit characters, like write, or an array of bytes
+        private static byte[] heartbeatData(JSONObject json) throws JSONException {
+            JSONArray array = json.optJSONArray("data");
+            if (array != null) {
+                byte[] data = new byte[array.length()];
+                for (int i = 0; i < data.length; i++) {
+                    data[i] = (byte) array.getInt(i);
+                }
+                return data;
+            }
+            return json.getString("data").getBytes(Charset.forName("ISO-8859-1"));
+        }
+
+        long tickMillis() {
+            long shortest = Long.MAX_VALUE;
+            if (readTimeout > 0) shortest = readTimeout;
+            if (heartbeat != null) shortest = Math.min(shortest, Math.min(heartbeatInterval, heartbeatTimeout));
+            return Math.max(MIN_TICK, Math.min(MAX_TICK, shortest / 4));
+        }
+    }
+
+    private final Settings settings;
+    private final Link link;
+    private volatile long lastRead = System.nanoTime();
+    private long heartbeatSentAt;
+    private ScheduledFuture<?> task;
+
+    public LinkWatchdog(Settings settings, Link link) {
+        this.settings = settings;
+        this.link = link;
+    }
+
+    public synchronized void start(ScheduledExecutorService scheduler) {
+        lastRead = System.nanoTime();
+        long tick = settings.tickMillis();
+        task = scheduler.scheduleWithFixedDelay(this, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    /**
+     * Called for every read from the link. */
+    public void onRead() {
+        lastRead = System.nanoTime();
+    }
+
+    public void run() {
+        long now = System.nanoTime();
+        long read = lastRead;
+        String reason = null;
+        boolean sendHeartbeat = false;
+        synchronized (this) {
+            if (task == null) return;
+            if (heartbeatSentAt != 0 && read - heartbeatSentAt >= 0) {
+                // got the reply
+                heartbeatSentAt = 0;
+            }
+
+            if (settings.readTimeout > 0 && millisSince(read, now) >= settings.readTimeout) {
+                reason = "No data received for " + settings.readTimeout + "ms";
+            } else if (heartbeatSentAt != 0) {
+                if (millisSince(heartbeatSentAt, now) >= settings.heartbeatTimeout) {
+                    reason = "No reply to heartbeat within " + settings.heartbeatTimeout + "ms";
+                }
+            } else if (settings.heartbeat != null && millisSince(read, now) >= settings.heartbeatInterval) {
+                heartbeatSentAt = now;
+                sendHeartbeat = true;
+            }
+            if (reason != null) {
+                stop();
+            }
+        }
+
+        if (reason != null) {
+            Log.w(TAG, reason + ", closing the connection");
+            link.close(reason);
+        } else if (sendHeartbeat) {
+            link.write(settings.heartbeat);
+        }
+    }
+
+    private static long millisSince(long then, long now) {
+        return TimeUnit.NANOSECONDS.toMillis(now - then);
+    }
+}
@@ -0,0 +1,152 @@
+package com.megster.cordova;
+
+import android.Manifest;
+import android.content.pm.PackageManager;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaArgs;
+import org.apache.cordova.CordovaPlugin;
+import org.apache.cordova.LOG;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Asks for the runtime permissions of plugin actions.
+ *
+ * An action that is missing permissions is queued with its callback, and
+ * everything the queued actions are missing is asked for in one request.
+ * When the user answers, every action whose permissions were granted is
+ * returned to be run again, and the others fail. Actions that arrive while
+ * a request is showing wait for it, and ask for what is still missing after.
+ *
+ * Granted permissions are remembered, Android restarts the app when one is
+ * revoked.
+ */
+public class PermissionCoordinator {
+
+    private static final String TAG = "PermissionCoordinator";
+    public static final int REQUEST_CODE = 3;
+
+    /**
+     * An action waiting for permissions.
+     */
+    public static class PendingAction {
+        public final String action;
+        public final CordovaArgs args;
+        public final CallbackContext callbackContext;
+        final String[] permissions;
+
+        PendingAction(String action, CordovaArgs args, CallbackContext callbackContext, String[] permissions) {
+            this.action = action;
+            this.args = args;
+            this.callbackContext = callbackContext;
+            this.permissions = permissions;
+        }
+    }
+
+    private final CordovaPlugin plugin;
+    private final Set<String> granted = new HashSet<String>();
+    private final List<PendingAction> pending = new ArrayList<PendingAction>();
+    // permissions in the request that is showing, null when there is none
+    private Set<String> requested;
+
+    public PermissionCoordinator(CordovaPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Check that the permissions are granted, or queue the action and ask for them.
+     * @return true if the action can run now
+     */
+    public synchronized boolean check(String action, CordovaArgs args, CallbackContext callbackContext,
+                                      String... permissions) {
+        if (missing(permissions).isEmpty()) {
+            return true;
+        }
+        pending.add(new PendingAction(action, args, callbackContext, permissions));
+        if (requested == null) {
+            request();
+        }
+        return false;
+    }
+
+    /**
+     * Handle the answer to the request. Actions whose permissions were not
+     * granted are failed.
+     * @return the actions that can run now
+     */
+    public synchronized List<PendingAction> onResult(String[] permissions, int[] grantResults) {
+        for (int i = 0; i < permissions.length && i < grantResults.length; i++) {
+            if (grantResults[i] == PackageManager.PERMISSION_GRANTED) {
+                LOG.d(TAG, "User *granted* " + permissions[i]);
+                granted.add(permissions[i]);
+            } else {
+                LOG.d(TAG, "User *rejected* " + permissions[i]);
+            }
+        }
+        Set<String> answered = requested != null ? requested : Collections.<String>emptySet();
+        requested = null;
+
+        List<PendingAction> ready = new ArrayList<PendingAction>();
+        Iterator<PendingAction> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            PendingAction pendingAction = iterator.next();
+            Set<String> missing = missing(pendingAction.permissions);
+            if (missing.isEmpty()) {
+                ready.add(pendingAction);
+                iterator.remove();
+            } else {
+                for (String permission : missing) {
+                    // denied, or the request was interrupted
+                    if (answered.contains(permission)) {
+                        pendingAction.callbackContext.error(describe(permission) + " permission is required.");
+                        iterator.remove();
+                        break;
+                    }
+                }
+            }
+        }
+        if (!pending.isEmpty()) {
+            request();
+        }
+        return ready;
+    }
+
+    private void request() {
+        Set<String> permissions = new LinkedHashSet<String>();
+        for (PendingAction pendingAction : pending) {
+            permissions.addAll(missing(pendingAction.permissions));
+        }
+        requested = permissions;
+        LOG.d(TAG, "ask permissions: " + permissions);
+        plugin.cordova.requestPermissions(plugin, REQUEST_CODE, permissions.toArray(new String[permissions.size()]));
+    }
+
+    private Set<String> missing(String[] permissions) {
+        Set<String> missing = new LinkedHashSet<String>();
+        for (String permission : permissions) {
+            if (granted.contains(permission)) continue;
+            if (plugin.cordova.hasPermission(permission)) {
+                granted.add(permission);
+            } else {
+                missing.add(permission);
+            }
+        }
+        return missing;
+    }
+
+    private static String describe(String permission) {
+        if (Manifest.permission.BLUETOOTH_SCAN.equals(permission)) return "Scan";
+        if (Manifest.permission.BLUETOOTH_CONNECT.equals(permission)) return "Connect";
+        if (Manifest.permission.BLUETOOTH_ADVERTISE.equals(permission)) return "Advertise";
+        if (Manifest.permission.ACCESS_FINE_LOCATION.equals(permission)) return "Fine location";
+        if (Manifest.permission.ACCESS_COARSE_LOCATION.equals(permission)) return "Coarse location";
+        return permission;
+    }
+}
@@ -0,0 +1,217 @@
+package com.megster.cordova;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Connects to an in-memory peer instead of a device, so the receive,
+ * framing and dispatch pipeline can run on a plain JVM at any data rate.
+ *
+ * Every connection creates a pair of pipes and hands the far end to the
+ * Peer, which plays the part of the device. Closing either end makes a
+ * blocked read on the other end fail, like a dropped RFCOMM link.
+ */
+public class PipeTransport implements SerialTransport {
+
+    /**
+     * Plays the part of the device.
+     */
+    public interface Peer {
+        /**
+         * Called for each connection with the device end of the pipes.
+         * Throwing fails the connection attempt.
+         */
+        void accept(SerialSocket socket) throws IOException;
+    }
+
+    private final String address;
+    private final int capacity;
+    private final Peer peer;
+
+    /**
+     * @param address  address reported for the connection
+     * @param capacity  bytes each pipe holds before writes block
+     * @param peer  receives the device end of every connection
+     */
+    public PipeTransport(String address, int capacity, Peer peer) {
+        this.address = address;
+        this.capacity = capacity;
+        this.peer = peer;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public SerialTransport.Connector newConnector() {
+        return new Connector();
+    }
+
+    private class Connector implements SerialTransport.Connector {
+        private volatile boolean canceled;
+        private volatile PipeSocket socket;
+
+        public SerialTransport getTransport() {
+            return PipeTransport.this;
+        }
+
+        public ConnectStrategy.Timings getTimings() {
+            return null;
+        }
+
+        public SerialSocket connect() throws IOException {
+            Pipe toDevice = new Pipe(capacity);
+            Pipe fromDevice = new Pipe(capacity);
+            socket = new PipeSocket(fromDevice, toDevice, address);
+            if (canceled) throw new IOException("Connect cancelled");
+            peer.accept(new PipeSocket(toDevice, fromDevice, address));
+            // like a socket closed while connecting, cancel makes connect fail
+            if (canceled) throw new IOException("Connect cancelled");
+            return socket;
+        }
+
+        public void cancel() {
+            canceled = true;
+            PipeSocket s = socket;
+            if (s != null) {
+                s.close();
+            }
+        }
+    }
+
+    /**
+     * One end of a connection, reading from one pipe and writing to the other.
+     */
+    private static class PipeSocket implements SerialSocket {
+        private final Pipe in;
+        private final Pipe out;
+        private final String address;
+
+        PipeSocket(Pipe in, Pipe out, String address) {
+            this.in = in;
+            this.out = out;
+            this.address = address;
+        }
+
+        public InputStream getInputStream() {
+            return in.inputStream;
+        }
+
+        public OutputStream getOutputStream() {
+            return out.outputStream;
+        }
+
+        public String getRemoteAddress() {
+            return address;
+        }
+
+        public String getRemoteName() {
+            return address;
+        }
+
+        public void close() {
+            in.close();
+            out.close();
+        }
+    }
+
+    /**
+     * Bounded blocking byte queue between a writer and a reader thread.
+     */
+    static class Pipe {
+        private final byte[] data;
+        private int head;
+        private int size;
+        private boolean closed;
+
+        Pipe(int capacity) {
+            data = new byte[capacity];
+        }
+
+        synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            while (size == 0 && !closed) {
+                waitQuietly();
+            }
+            if (size == 0) {
+                throw new IOException("Pipe closed");
+            }
+            int count = Math.min(len, size);
+            int first = Math.min(count, data.length - head);
+            System.arraycopy(data, head, b, off, first);
+            System.arraycopy(data, 0, b, off + first, count - first);
+            head = (head + count) % data.length;
+            size -= count;
+            notifyAll();
+            return count;
+        }
+
+        synchronized void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                while (size == data.length && !closed) {
+                    waitQuietly();
+                }
+                if (closed) {
+                    throw new IOException("Pipe closed");
+                }
+                int tail = (head + size) % data.length;
+                int count = Math.min(len, Math.min(data.length - size, data.length - tail));
+                System.arraycopy(b, off, data, tail, count);
+                size += count;
+                off += count;
+                len -= count;
+                notifyAll();
+            }
+        }
+
+        synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+
+        private void waitQuietly() throws IOException {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted");
+            }
+        }
+
+        final InputStream inputStream = new InputStream() {
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return Pipe.this.read(b, 0, 1) == 1 ? b[0] & 0xFF : -1;
+            }
+
+            public int read(byte[] b, int off, int len) throws IOException {
+                return Pipe.this.read(b, off, len);
+            }
+
+            public int available() {
+                synchronized (Pipe.this) {
+                    return size;
+                }
+            }
+
+            public void close() {
+                Pipe.this.close();
+            }
+        };
+
+        final OutputStream outputStream = new OutputStream() {
+            public void write(int b) throws IOException {
+                Pipe.this.write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            public void write(byte[] b, int off, int len) throws IOException {
+                Pipe.this.write(b, off, len);
+            }
+
+            public void close() {
+                Pipe.this.close();
+            }
+        };
+    }
+}
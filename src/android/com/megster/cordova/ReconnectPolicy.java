@@ -0,0 +1,99 @@
+package com.megster.cordova;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Random;
+
+/**
+ * When and how often to reconnect after the connection to a device drops.
+ *
+ * The delay before each attempt doubles from the base delay up to the
+ * maximum delay. Jitter takes a random fraction off each delay so devices
+ * that dropped together don't all reconnect at the same moment.
+ */
+public class ReconnectPolicy {
+
+    private static final int DEFAULT_MAX_ATTEMPTS = 5;
+    private static final long DEFAULT_BASE_DELAY = 500;
+    private static final long DEFAULT_MAX_DELAY = 30000;
+    private static final double DEFAULT_JITTER = 0.5;
+
+    private final int maxAttempts;
+    private final long baseDelay;
+    private final long maxDelay;
+    private final double jitter;
+    private final boolean keepBuffer;
+    private final Random random;
+
+    /**
+     * @param maxAttempts  attempts before giving up, 0 for no limit
+     * @param baseDelay  delay before the first attempt in milliseconds
+     * @param maxDelay  longest delay between attempts in milliseconds
+     * @param jitter  fraction of each delay that is randomized, between 0 and 1
+     * @param keepBuffer  keep unread received data when reconnecting
+     * @param random  source of the jitter
+     */
+    public ReconnectPolicy(int maxAttempts, long baseDelay, long maxDelay, double jitter, boolean keepBuffer, Random random) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = Math.max(baseDelay, maxDelay);
+        this.jitter = Math.min(1, Math.max(0, jitter));
+        this.keepBuffer = keepBuffer;
+        this.random = random;
+    }
+
+    /**
+     * Create a policy from the connect options, or return null when
+     * reconnecting was not requested.
+     * @param options  {reconnect: true | {maxAttempts, baseDelay, maxDelay, jitter, keepBuffer}}
+     */
+    public static ReconnectPolicy fromOptions(JSONObject options) throws JSONException {
+        if (options == null || !options.has("reconnect")) {
+            return null;
+        }
+        JSONObject reconnect = options.optJSONObject("reconnect");
+        if (reconnect == null) {
+            if (!options.optBoolean("reconnect", false)) {
+                return null;
+            }
+            reconnect = new JSONObject();
+        }
+        int maxAttempts = reconnect.optInt("maxAttempts", DEFAULT_MAX_ATTEMPTS);
+        long baseDelay = reconnect.optLong("baseDelay", DEFAULT_BASE_DELAY);
+        long maxDelay = reconnect.optLong("maxDelay", DEFAULT_MAX_DELAY);
+        double jitter = reconnect.optDouble("jitter", DEFAULT_JITTER);
+        if (maxAttempts < 0 || baseDelay < 0 || maxDelay < 0) {
+            throw new JSONException("Invalid reconnect options");
+        }
+        return new ReconnectPolicy(maxAttempts, baseDelay, maxDelay, jitter,
+                reconnect.optBoolean("keepBuffer", true), new Random());
+    }
+
+    /**
+     * Return true if another attempt may be made.
+     * @param attempt  the attempt about to be made, starting at 1
+     */
+    public boolean shouldRetry(int attempt) {
+        return maxAttempts == 0 || attempt <= maxAttempts;
+    }
+
+    /**
+     * Return the delay in milliseconds before an attempt.
+     * @param attempt  the attempt about to be made, starting at 1
+     */
+    public long delayBefore(int attempt) {
+        long delay = baseDelay;
+        for (int i = 1; i < attempt && delay < maxDelay; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, maxDelay);
+        synchronized (random) {
+            return delay - (long) (delay * jitter * random.nextDouble());
+        }
+    }
+
+    public boolean keepBuffer() {
+        return keepBuffer;
+    }
+}
@@ -0,0 +1,150 @@
+package com.megster.cordova;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+
+/**
+ * Serial Port Profile over Bluetooth RFCOMM.
+ *
+ * Each attempt tries the strategy that worked last time for the device
+ * first and the other one if that fails, see ConnectStrategy.
+ */
+public class RfcommTransport implements SerialTransport {
+
+    private static final String TAG = "RfcommTransport";
+
+    // Well known SPP UUID
+    private static final UUID UUID_SPP = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+
+    private final BluetoothDevice device;
+    private final boolean secure;
+
+    /**
+     * @param device  the device to connect to
+     * @param secure  Socket Security type - Secure (true) , Insecure (false)
+     */
+    public RfcommTransport(BluetoothDevice device, boolean secure) {
+        this.device = device;
+        this.secure = secure;
+    }
+
+    public String getAddress() {
+        return device.getAddress();
+    }
+
+    public BluetoothDevice getDevice() {
+        return device;
+    }
+
+    public boolean isSecure() {
+        return secure;
+    }
+
+    public SerialTransport.Connector newConnector() {
+        return new Connector();
+    }
+
+    private class Connector implements SerialTransport.Connector {
+        private final ConnectStrategy.Timings timings = new ConnectStrategy.Timings();
+        private volatile BluetoothSocket socket;
+        private volatile boolean canceled;
+
+        public SerialTransport getTransport() {
+            return RfcommTransport.this;
+        }
+
+        public ConnectStrategy.Timings getTimings() {
+            return timings;
+        }
+
+        public SerialSocket connect() throws IOException {
+            // Always cancel discovery because it will slow down a connection
+            BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+            if (adapter != null) {
+                adapter.cancelDiscovery();
+            }
+
+            ConnectStrategy.Kind preferred = ConnectStrategy.preferredFor(device);
+            ConnectStrategy.Kind kind = preferred;
+            long failedAttempt = 0;
+            while (true) {
+                long start = System.nanoTime();
+                try {
+                    socket = ConnectStrategy.createSocket(device, kind, secure, UUID_SPP);
+                    long created = System.nanoTime();
+                    if (canceled) throw new IOException("Connect cancelled");
+
+                    // This is a blocking call and will only return on a successful connection or an exception
+                    Log.i(TAG, "Connecting to " + device.getAddress() + " with " + kind + "...");
+                    socket.connect();
+                    timings.connected(kind, kind != preferred, failedAttempt, created - start, System.nanoTime() - created);
+                    ConnectStrategy.remember(device, kind);
+                    return new RfcommSocket(socket);
+                } catch (IOException e) {
+                    Log.e(TAG, e.toString());
+                    closeSocket();
+                    if (kind != preferred || canceled) {
+                        throw e;
+                    }
+                    // Some devices only connect one way, try the other
+                    Log.i(TAG, "Trying fallback...");
+                    failedAttempt = System.nanoTime() - start;
+                    kind = ConnectStrategy.fallbackFor(preferred);
+                }
+            }
+        }
+
+        public void cancel() {
+            canceled = true;
+            closeSocket();
+        }
+
+        private void closeSocket() {
+            BluetoothSocket s = socket;
+            if (s == null) return;
+            try {
+                s.close();
+            } catch (IOException e) {
+                Log.e(TAG, "close() of socket failed", e);
+            }
+        }
+    }
+
+    /**
+     * A connected BluetoothSocket.
+     */
+    public static class RfcommSocket implements SerialSocket {
+        private final BluetoothSocket socket;
+
+        public RfcommSocket(BluetoothSocket socket) {
+            this.socket = socket;
+        }
+
+        public InputStream getInputStream() throws IOException {
+            return socket.getInputStream();
+        }
+
+        public OutputStream getOutputStream() throws IOException {
+            return socket.getOutputStream();
+        }
+
+        public String getRemoteAddress() {
+            return socket.getRemoteDevice().getAddress();
+        }
+
+        public String getRemoteName() {
+            return socket.getRemoteDevice().getName();
+        }
+
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,777 @@
+package com.megster.cordova;
+
+import android.util.Log;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The state of one connection to a remote device: its BluetoothSerialService,
+ * receive buffer, subscribers and write queue settings.
+ *
+ * Each connection delivers received data on its own dispatch thread, so a
+ * slow subscriber on one device does not hold up the others.
+ */
+public class SerialConnection implements BluetoothSerialListener {
+
+    // Debugging
+    private static final String TAG = "SerialConnection";
+    private static final boolean D = true;
+
+    // Receive buffer
+    private static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+    private final ScheduledExecutorService scheduler;
+    private final DispatchingListener dispatcher;
+    private final BluetoothSerialService service;
+    private String address;
+
+    // callbacks
+    private CallbackContext connectCallback;
+    // read by the dispatch thread, replaced by subscribeRaw and unsubscribeRaw
+    private volatile CallbackContext rawDataAvailableCallback;
+    private CallbackContext writeQueueCallback;
+    private CallbackContext statsCallback;
+
+    final ByteRingBuffer buffer = new ByteRingBuffer(DEFAULT_BUFFER_SIZE, ByteRingBuffer.OverflowPolicy.DROP_OLDEST);
+
+    // Turns the bytes taken by read and readUntil into strings, keeps a character split between reads
+    private volatile TextDecoder textDecoder = new TextDecoder(TextDecoder.UTF_8);
+
+    // Line and framed data subscribers, each line subscriber group has its own cursor over the buffer
+    private final SubscriberRegistry subscribers = new SubscriberRegistry(buffer);
+
+    // Batched delivery, null when the subscriber gets one result per chunk
+    private volatile DeliveryBatcher rawDataBatcher;
+
+    // The bulk transfer in progress, if any
+    private BulkTransfer transfer;
+
+    // Automatic reconnect, null when the app reconnects itself
+    private SerialTransport transport;
+    private ReconnectPolicy reconnectPolicy;
+    private boolean established;
+    private boolean reportDevice;
+    private int reconnectAttempt;
+    private ScheduledFuture<?> reconnectTask;
+
+    // The response writeAndExpect is waiting for, if any
+    private Expectation expectation;
+
+    // Periodic stats for the stats subscriber
+    private ScheduledFuture<?> statsTask;
+
+    private final Runnable reconnectRunnable = new Runnable() {
+        public void run() {
+            reconnect();
+        }
+    };
+
+    /**
+     * @param scheduler  runs the batched delivery timers
+     */
+    public SerialConnection(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+        this.dispatcher = new DispatchingListener(this, DispatchingListener.DEFAULT_QUEUE_SIZE);
+        this.service = new BluetoothSerialService(dispatcher, scheduler);
+    }
+
+    /**
+     * Return the address of the device, the MAC address for RFCOMM, null if never connected. */
+    public synchronized String getAddress() {
+        return address;
+    }
+
+    public BluetoothSerialService getService() {
+        return service;
+    }
+
+    public boolean isConnected() {
+        return service.getState() == BluetoothSerialService.STATE_CONNECTED;
+    }
+
+    /**
+     * Return true while connected, connecting or waiting to reconnect. */
+    public boolean isActive() {
+        int state = service.getState();
+        return state == BluetoothSerialService.STATE_CONNECTED || state == BluetoothSerialService.STATE_CONNECTING
+                || isReconnecting();
+    }
+
+    public synchronized boolean isReconnecting() {
+        return reconnectAttempt > 0;
+    }
+
+    /**
+     * @param transport  how to reach the device, RfcommTransport for a Bluetooth device
+     * @param options  {timeout, readTimeout, heartbeat, reconnect}, may be null
+     * @param callbackContext  the connect callback, also receives the reconnect events
+     */
+    public void connect(SerialTransport transport, JSONObject options, CallbackContext callbackContext) throws JSONException {
+        ReconnectPolicy reconnectPolicy = ReconnectPolicy.fromOptions(options);
+        LinkWatchdog.Settings watchdog = LinkWatchdog.Settings.fromOptions(options);
+        long timeout = options == null ? 0 : options.optLong("timeout", 0);
+        if (timeout < 0) {
+            throw new JSONException("timeout must not be negative");
+        }
+        service.setConnectTimeout(timeout);
+        service.setWatchdog(watchdog);
+
+        synchronized (this) {
+            cancelReconnect();
+            address = transport.getAddress();
+            this.transport = transport;
+            this.reconnectPolicy = reconnectPolicy;
+            established = false;
+            reportDevice = false;
+        }
+        connectCallback = callbackContext;
+        service.connect(transport);
+        clear();
+        //
+        PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+    }
+
+    /**
+     * Connect to whichever device answers first. The connect callback gets
+     * the address of that device.
+     * @param transports  how to reach each candidate device
+     * @param timeoutMillis  give up when no device connected by then, 0 for no limit
+     */
+    public void connectAny(List<? extends SerialTransport> transports, long timeoutMillis, CallbackContext callbackContext) {
+        synchronized (this) {
+            cancelReconnect();
+            address = null;
+            transport = null;
+            reconnectPolicy = null;
+            established = false;
+            reportDevice = true;
+        }
+        connectCallback = callbackContext;
+        service.setConnectTimeout(0);
+        service.setWatchdog(null);
+        service.connectAny(transports, scheduler, timeoutMillis);
+        clear();
+        //
+        PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+    }
+
+    public void disconnect() {
+        synchronized (this) {
+            cancelReconnect();
+            reconnectPolicy = null;
+        }
+        connectCallback = null;
+        service.stop();
+        failExpectation("Disconnected");
+    }
+
+    private void cancelReconnect() {
+        if (reconnectTask != null) {
+            reconnectTask.cancel(false);
+            reconnectTask = null;
+        }
+        reconnectAttempt = 0;
+    }
+
+    /**
+     * Schedule the next reconnect attempt.
+     * @return the delay before the attempt, or -1 if there are no attempts left
+     */
+    private synchronized long scheduleReconnect() {
+        if (reconnectPolicy == null || !established || !reconnectPolicy.shouldRetry(reconnectAttempt + 1)) {
+            reconnectAttempt = 0;
+            return -1;
+        }
+        reconnectAttempt++;
+        long delay = reconnectPolicy.delayBefore(reconnectAttempt);
+        reconnectTask = scheduler.schedule(reconnectRunnable, delay, TimeUnit.MILLISECONDS);
+        return delay;
+    }
+
+    private synchronized void reconnect() {
+        // the task is cleared when the app disconnects or connects again
+        if (reconnectTask == null) return;
+        reconnectTask = null;
+        if (D) Log.d(TAG, "Reconnect attempt " + reconnectAttempt + " to " + address);
+        service.getStats().onReconnectAttempt();
+        service.connect(transport);
+    }
+
+    /**
+     * Disconnect and stop the dispatch thread, the connection can't be used afterwards. */
+    public void destroy() {
+        unsubscribeStats();
+        subscribers.removeAll();
+        disconnect();
+        dispatcher.shutdown();
+    }
+
+    public void write(byte[] data, CallbackContext callbackContext) {
+        // the callback is completed by the writer thread
+        service.write(data, writeCallback(callbackContext));
+    }
+
+    /**
+     * Write the data and complete the callback with the data received after
+     * the call up to and including the expected response. The response and
+     * the unread data before it are taken away from read and readUntil, the
+     * subscribers still get it. Received data is buffered while waiting,
+     * also when only framed subscribers are registered.
+     * @param expectation  the response to wait for
+     * @param timeoutMillis  fail when the response has not arrived by then
+     */
+    public void writeAndExpect(byte[] data, final Expectation expectation, long timeoutMillis) {
+        synchronized (this) {
+            if (this.expectation != null) {
+                expectation.getCallbackContext().error("Already waiting for " + this.expectation.getDescription());
+                return;
+            }
+            expectation.start(buffer, textDecoder.charset());
+            this.expectation = expectation;
+        }
+        expectation.setTimeoutTask(scheduler.schedule(new Runnable() {
+            public void run() {
+                failExpectation(expectation, "Timed out waiting for " + expectation.getDescription());
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS));
+        service.write(data, new WriteQueue.Callback() {
+            public void onWritten(int length) {
+                // the callback completes when the response arrives
+            }
+
+            public void onError(String message) {
+                failExpectation(expectation, message);
+            }
+        });
+    }
+
+    private synchronized boolean isExpecting() {
+        return expectation != null;
+    }
+
+    private void checkExpectation() {
+        Expectation e;
+        synchronized (this) {
+            e = expectation;
+        }
+        if (e == null) return;
+        String response;
+        synchronized (buffer) {
+            int count = e.match();
+            if (count < 0) return;
+            response = e.take(count);
+            if (!e.finish()) return;
+        }
+        clearExpectation(e);
+        e.getCallbackContext().success(response);
+    }
+
+    private void failExpectation(String message) {
+        Expectation e;
+        synchronized (this) {
+            e = expectation;
+        }
+        if (e != null) {
+            failExpectation(e, message);
+        }
+    }
+
+    private void failExpectation(Expectation e, String message) {
+        if (e.finish()) {
+            clearExpectation(e);
+            e.getCallbackContext().error(message);
+        }
+    }
+
+    private synchronized void clearExpectation(Expectation e) {
+        if (expectation == e) {
+            expectation = null;
+        }
+    }
+
+    /**
+     * Encode text with the charset of the connection. */
+    public byte[] encode(String text) {
+        return textDecoder.encode(text);
+    }
+
+    public int available() {
+        return buffer.available();
+    }
+
+    public String read() {
+        return textDecoder.decode(buffer.read());
+    }
+
+    public String readUntil(String c) {
+        TextDecoder decoder = textDecoder;
+        byte[] data = buffer.readUntil(decoder.encode(c));
+        if (data == null) {
+            return "";
+        }
+        return decoder.decode(data);
+    }
+
+    public void clear() {
+        buffer.clear();
+        textDecoder.reset();
+        subscribers.resetText();
+    }
+
+    /**
+     * Set the charset used for strings and delimiters, UTF-8 by default. A
+     * partial character waiting for the rest of its bytes is dropped.
+     */
+    public void setCharset(Charset charset) {
+        textDecoder = new TextDecoder(charset);
+        subscribers.setCharset(charset);
+    }
+
+    /**
+     * Add a subscriber, replacing the subscriber with the same name.
+     * @param delimiter  the delimiter, or null when given in the options
+     * @param options  subscribe options, may be null
+     */
+    public void subscribe(String delimiter, JSONObject options, CallbackContext callbackContext) throws JSONException {
+        subscribers.add(SubscriberRegistry.Subscriber.fromOptions(delimiter, options, callbackContext, scheduler));
+        //
+        PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+        // the lines already in the buffer don't wait for more data
+        subscribers.deliverLines();
+    }
+
+    /**
+     * @param name  the subscriber to remove, null to remove all of them
+     * @return false if there is no subscriber with the name
+     */
+    public boolean unsubscribe(String name) {
+        if (name == null) {
+            subscribers.removeAll();
+            return true;
+        }
+        return subscribers.remove(name);
+    }
+
+    public void subscribeRaw(JSONObject options, CallbackContext callbackContext) {
+        DeliveryBatcher replaced = rawDataBatcher;
+        rawDataBatcher = DeliveryBatcher.fromOptions(options, callbackContext, scheduler);
+        rawDataAvailableCallback = callbackContext;
+        flushBatcher(replaced);
+        //
+        PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+    }
+
+    public void unsubscribeRaw() {
+        DeliveryBatcher replaced = rawDataBatcher;
+        rawDataBatcher = null;
+        rawDataAvailableCallback = null;
+        flushBatcher(replaced);
+    }
+
+    private void flushBatcher(DeliveryBatcher batcher) {
+        if (batcher != null) {
+            batcher.flush();
+        }
+    }
+
+    public JSONObject getBatchStats() throws JSONException {
+        JSONObject stats = new JSONObject();
+        JSONObject subscriberStats = subscribers.getBatchStats();
+        JSONObject defaultStats = subscriberStats.optJSONObject(SubscriberRegistry.DEFAULT_NAME);
+        if (defaultStats != null) {
+            stats.put("data", defaultStats);
+        }
+        stats.put("subscribers", subscriberStats);
+        DeliveryBatcher batcher = rawDataBatcher;
+        if (batcher != null) {
+            stats.put("rawData", batcher.getStats());
+        }
+        return stats;
+    }
+
+    /**
+     * Resize the receive buffer, keeping whatever has been received so far
+     * unless it no longer fits.
+     */
+    public void configureBuffer(int capacity, ByteRingBuffer.OverflowPolicy policy) {
+        buffer.setOverflowPolicy(policy);
+        if (capacity != buffer.capacity()) {
+            buffer.resize(capacity);
+        }
+    }
+
+    public void setWriteQueueListener(long high, long low, CallbackContext callbackContext) {
+        writeQueueCallback = callbackContext;
+        service.setWriteWatermarks(high, low, new WriteQueue.WatermarkListener() {
+            public void onHighWatermark(long queuedBytes) {
+                sendWriteQueueEvent("high", queuedBytes);
+            }
+
+            public void onLowWatermark(long queuedBytes) {
+                sendWriteQueueEvent("low", queuedBytes);
+            }
+        });
+        //
+        PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+    }
+
+    public void clearWriteQueueListener() {
+        service.setWriteWatermarks(Long.MAX_VALUE, 0, null);
+        writeQueueCallback = null;
+    }
+
+    private void sendWriteQueueEvent(String event, long queuedBytes) {
+        CallbackContext callback = writeQueueCallback;
+        if (callback != null) {
+            try {
+                JSONObject json = new JSONObject();
+                json.put("event", event);
+                json.put("queued", queuedBytes);
+                PluginResult result = new PluginResult(PluginResult.Status.OK, json);
+                result.setKeepCallback(true);
+                callback.sendPluginResult(result);
+            } catch (JSONException e) {
+                // This shouldn't happen, log and ignore
+                Log.e(TAG, "Problem converting write queue event to JSON", e);
+            }
+        }
+    }
+
+    public void setWriteCoalescing(long windowMillis, int maxBytes) {
+        service.setWriteCoalescing(windowMillis, maxBytes);
+    }
+
+    public void flush(CallbackContext callbackContext) {
+        service.flush(writeCallback(callbackContext));
+    }
+
+    public JSONObject getWriteStats() throws JSONException {
+        JSONObject stats = new JSONObject();
+        WriteQueue queue = service.getWriteQueue();
+        if (queue != null) {
+            long writes = queue.getWriteCount();
+            long flushes = queue.getFlushCount();
+            long bytes = queue.getBytesWritten();
+            stats.put("writes", writes);
+            stats.put("flushes", flushes);
+            stats.put("saved", writes - flushes);
+            stats.put("bytes", bytes);
+            stats.put("bytesPerFlush", flushes > 0 ? (double) bytes / flushes : 0);
+            stats.put("queued", queue.getQueuedBytes());
+        }
+        return stats;
+    }
+
+    /**
+     * Return the counters and latency histograms of this connection, they add
+     * up across reconnects. Latencies are in microseconds, connect times in
+     * milliseconds.
+     */
+    public JSONObject getStats() throws JSONException {
+        JSONObject json = service.getStats().toJSON();
+        JSONObject bufferStats = json.optJSONObject("buffer");
+        bufferStats.put("available", buffer.available());
+        bufferStats.put("capacity", buffer.capacity());
+        WriteQueue queue = service.getWriteQueue();
+        json.put("queued", queue != null ? queue.getQueuedBytes() : 0);
+        json.put("connected", isConnected());
+        json.put("parsers", subscribers.getParserStats());
+        json.put("frames", subscribers.getFrameStats());
+        return json;
+    }
+
+    /**
+     * Send the stats to the callback every intervalMillis until unsubscribed. */
+    public synchronized void subscribeStats(long intervalMillis, CallbackContext callbackContext) {
+        cancelStatsTask();
+        statsCallback = callbackContext;
+        statsTask = scheduler.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                sendStats();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        //
+        PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+    }
+
+    public synchronized void unsubscribeStats() {
+        cancelStatsTask();
+        // send no result, so Cordova won't hold onto the stats callback anymore
+        if (statsCallback != null) {
+            statsCallback.sendPluginResult(new PluginResult(PluginResult.Status.NO_RESULT));
+            statsCallback = null;
+        }
+    }
+
+    private void cancelStatsTask() {
+        if (statsTask != null) {
+            statsTask.cancel(false);
+            statsTask = null;
+        }
+    }
+
+    private void sendStats() {
+        CallbackContext callback;
+        synchronized (this) {
+            callback = statsCallback;
+        }
+        if (callback != null) {
+            try {
+                PluginResult result = new PluginResult(PluginResult.Status.OK, getStats());
+                result.setKeepCallback(true);
+                callback.sendPluginResult(result);
+            } catch (JSONException e) {
+                // This shouldn't happen, log and ignore
+                Log.e(TAG, "Problem converting stats to JSON", e);
+            }
+        }
+    }
+
+    /**
+     * Return how long each phase of the last connection took, empty when unknown. */
+    public JSONObject getConnectTimings() throws JSONException {
+        ConnectStrategy.Timings timings = service.getConnectTimings();
+        return timings != null ? timings.toJSON() : new JSONObject();
+    }
+
+    public void startTransfer(long totalSize, CallbackContext callbackContext) {
+        if (transfer != null && !transfer.isFinished()) {
+            callbackContext.error("A transfer is already in progress.");
+            return;
+        }
+        if (!isConnected()) {
+            callbackContext.error("Not connected.");
+            return;
+        }
+        transfer = new BulkTransfer(totalSize, callbackContext);
+        //
+        PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+    }
+
+    public void writeChunk(int sequence, byte[] data, CallbackContext callbackContext) {
+        BulkTransfer t = transfer;
+        if (t == null) {
+            callbackContext.error("No transfer in progress.");
+        } else {
+            t.writeChunk(sequence, data, service, callbackContext);
+        }
+    }
+
+    public void cancelTransfer() {
+        if (transfer != null) {
+            transfer.fail("Transfer cancelled.");
+            transfer = null;
+        }
+    }
+
+    private WriteQueue.Callback writeCallback(final CallbackContext callbackContext) {
+        return new WriteQueue.Callback() {
+            public void onWritten(int length) {
+                callbackContext.success();
+            }
+
+            public void onError(String message) {
+                callbackContext.error(message);
+            }
+        };
+    }
+
+    // BluetoothSerialListener, called on the dispatch thread
+
+    public void onRead(ChunkPool.Chunk chunk) {
+        ConnectionStats stats = service.getStats();
+        long readTime = chunk.readTime;
+        stats.onDispatched(readTime);
+        try {
+            subscribers.decodeFrames(chunk.data, 0, chunk.length);
+            // writeAndExpect matches the response in the buffer
+            if (subscribers.buffersData() || isExpecting()) {
+                int dropped = buffer.write(chunk.data, 0, chunk.length);
+                stats.onBuffered(buffer.available(), dropped);
+                if (dropped > 0) {
+                    notifyBufferOverflow(dropped);
+                }
+                checkExpectation();
+            }
+            // the raw subscriber may change while the chunk is delivered, read it once
+            DeliveryBatcher batcher = rawDataBatcher;
+            CallbackContext rawCallback = rawDataAvailableCallback;
+            if (batcher != null) {
+                batcher.addChunk(chunk.data, 0, chunk.length);
+            } else if (rawCallback != null) {
+                sendRawDataToSubscriber(rawCallback, chunk.toByteArray());
+            }
+        } finally {
+            chunk.recycle();
+        }
+        subscribers.deliverLines();
+        // handed to Cordova, a batcher or the buffer
+        stats.onDelivered(readTime);
+    }
+
+    public void onStateChange(int state) {
+        if (D) Log.i(TAG, address + " MESSAGE_STATE_CHANGE: " + state);
+        switch (state) {
+            case BluetoothSerialService.STATE_CONNECTED:
+                Log.i(TAG, "BluetoothSerialService.STATE_CONNECTED");
+                int attempts;
+                boolean keepBuffer;
+                boolean report;
+                SerialTransport connectedTransport = service.getConnectedTransport();
+                synchronized (this) {
+                    if (connectedTransport != null) {
+                        // connectAny only knows the device once connected
+                        transport = connectedTransport;
+                        address = connectedTransport.getAddress();
+                    }
+                    report = reportDevice;
+                    reportDevice = false;
+                    attempts = reconnectAttempt;
+                    keepBuffer = reconnectPolicy == null || reconnectPolicy.keepBuffer();
+                    reconnectAttempt = 0;
+                    established = true;
+                }
+                if (attempts > 0) {
+                    // a frame cut short by the dropout can't be completed
+                    subscribers.resetFrames();
+                    if (!keepBuffer) {
+                        clear();
+                    }
+                    service.getStats().onReconnected();
+                    notifyReconnectEvent("reconnected", attempts, -1);
+                } else if (report) {
+                    notifyConnectedDevice(connectedTransport);
+                } else {
+                    notifyConnectionSuccess();
+                }
+                break;
+            case BluetoothSerialService.STATE_CONNECTING:
+                Log.i(TAG, "BluetoothSerialService.STATE_CONNECTING");
+                break;
+            case BluetoothSerialService.STATE_LISTEN:
+                Log.i(TAG, "BluetoothSerialService.STATE_LISTEN");
+                break;
+            case BluetoothSerialService.STATE_NONE:
+                Log.i(TAG, "BluetoothSerialService.STATE_NONE");
+                break;
+        }
+    }
+
+    public void onDeviceName(String name) {
+        Log.i(TAG, name);
+    }
+
+    public void onConnectionError(String message) {
+        failExpectation(message);
+        long delay;
+        int attempt;
+        synchronized (this) {
+            delay = scheduleReconnect();
+            attempt = reconnectAttempt;
+        }
+        if (delay >= 0) {
+            Log.i(TAG, message + ", reconnect attempt " + attempt + " in " + delay + "ms");
+            notifyReconnectEvent("reconnecting", attempt, delay);
+        } else {
+            notifyConnectionLost(message);
+        }
+    }
+
+    private void notifyConnectionLost(String error) {
+        if (connectCallback != null) {
+            connectCallback.error(error);
+            connectCallback = null;
+        }
+    }
+
+    private void notifyConnectionSuccess() {
+        if (connectCallback != null) {
+            PluginResult result = new PluginResult(PluginResult.Status.OK);
+            result.setKeepCallback(true);
+            connectCallback.sendPluginResult(result);
+        }
+    }
+
+    private void notifyConnectedDevice(SerialTransport connectedTransport) {
+        CallbackContext callback = connectCallback;
+        if (callback != null) {
+            try {
+                JSONObject json = new JSONObject();
+                json.put("id", connectedTransport.getAddress());
+                json.put("name", service.getConnectedName());
+                // from the start of the race, not just the winning attempt
+                long connectMillis = service.getConnectMillis();
+                if (connectMillis >= 0) {
+                    json.put("connectTime", connectMillis);
+                }
+                PluginResult result = new PluginResult(PluginResult.Status.OK, json);
+                result.setKeepCallback(true);
+                callback.sendPluginResult(result);
+            } catch (JSONException e) {
+                // This shouldn't happen, log and ignore
+                Log.e(TAG, "Problem converting device to JSON", e);
+            }
+        }
+    }
+
+    /**
+     * @param delay  milliseconds until the attempt, -1 to leave it out
+     */
+    private void notifyReconnectEvent(String event, int attempt, long delay) {
+        CallbackContext callback = connectCallback;
+        if (callback != null) {
+            try {
+                JSONObject json = new JSONObject();
+                json.put("event", event);
+                json.put("attempt", attempt);
+                if (delay >= 0) {
+                    json.put("delay", delay);
+                }
+                PluginResult result = new PluginResult(PluginResult.Status.OK, json);
+                result.setKeepCallback(true);
+                callback.sendPluginResult(result);
+            } catch (JSONException e) {
+                // This shouldn't happen, log and ignore
+                Log.e(TAG, "Problem converting reconnect event to JSON", e);
+            }
+        }
+    }
+
+    private void sendRawDataToSubscriber(CallbackContext callback, byte[] data) {
+        if (data != null && data.length > 0) {
+            PluginResult result = new PluginResult(PluginResult.Status.OK, data);
+            result.setKeepCallback(true);
+            callback.sendPluginResult(result);
+        }
+    }
+
+    private void notifyBufferOverflow(int dropped) {
+        Log.w(TAG, "Receive buffer full, dropped " + dropped + " bytes");
+        if (buffer.getOverflowPolicy() == ByteRingBuffer.OverflowPolicy.ERROR) {
+            subscribers.sendError("Receive buffer full, dropped " + dropped + " bytes");
+        }
+    }
+}
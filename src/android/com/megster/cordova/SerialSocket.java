@@ -0,0 +1,30 @@
+package com.megster.cordova;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A connected byte stream to a remote device. BluetoothSerialService only
+ * talks to the device through this interface, so the same read and write
+ * path runs over RFCOMM, an in-memory pipe or TCP.
+ *
+ * Closing the socket must make a blocked read fail with an IOException.
+ */
+public interface SerialSocket extends Closeable {
+
+    InputStream getInputStream() throws IOException;
+
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * Return the address of the remote end, the MAC address for RFCOMM. */
+    String getRemoteAddress();
+
+    /**
+     * Return the name of the remote end, may be null. */
+    String getRemoteName();
+
+    void close() throws IOException;
+}
@@ -0,0 +1,35 @@
+package com.megster.cordova;
+
+/**
+ * A way of reaching a remote device. The transport creates a Connector for
+ * every connection attempt, so reconnecting to the same device just asks
+ * the transport again.
+ *
+ * @see RfcommTransport
+ * @see PipeTransport
+ * @see TcpTransport
+ */
+public interface SerialTransport {
+
+    /**
+     * Return the address of the remote end, used as the connection id. */
+    String getAddress();
+
+    /**
+     * Create an attempt to connect. Each connector connects at most once. */
+    Connector newConnector();
+
+    /**
+     * One connection attempt. connect() blocks until connected or failed,
+     * cancel() may be called from another thread at any time.
+     */
+    interface Connector extends ConnectRace.Attempt<SerialSocket> {
+        /**
+         * Return the transport this attempt connects with. */
+        SerialTransport getTransport();
+
+        /**
+         * Return how long each phase of the attempt took, null if not measured. */
+        ConnectStrategy.Timings getTimings();
+    }
+}
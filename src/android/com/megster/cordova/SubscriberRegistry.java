@@ -0,0 +1,387 @@
+package com.megster.cordova;
+
+import android.util.Log;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The data subscribers of a connection. Each subscriber has a name, its own
+ * delimiter or binary framing and an optional filter, so several parts of an
+ * app can subscribe to the same device without replacing each other.
+ *
+ * Subscribers with the same delimiter form a group sharing one cursor over
+ * the receive buffer, each line is found and decoded once and then sent to
+ * every subscriber of the group whose filter matches. Framed subscribers
+ * each decode the received chunks with their own FrameDecoder.
+ */
+public class SubscriberRegistry {
+
+    private static final String TAG = "SubscriberRegistry";
+    public static final String DEFAULT_NAME = "default";
+
+    /**
+     * One call to subscribe.
+     */
+    public static class Subscriber implements FrameDecoder.Listener {
+        final String name;
+        final String delimiter;
+        final FrameDecoder frameDecoder;
+        final LineParser parser;
+        final DeliveryBatcher batcher;
+        private final CallbackContext callbackContext;
+        private final String prefix;
+        private final Pattern pattern;
+        private byte[] prefixBytes;
+
+        Subscriber(String name, String delimiter, FrameDecoder frameDecoder, LineParser parser, String prefix,
+                   Pattern pattern, DeliveryBatcher batcher, CallbackContext callbackContext) {
+            this.name = name;
+            this.delimiter = delimiter;
+            this.frameDecoder = frameDecoder;
+            this.parser = parser;
+            this.prefix = prefix;
+            this.pattern = pattern;
+            this.batcher = batcher;
+            this.callbackContext = callbackContext;
+        }
+
+        /**
+         * Create a subscriber from the subscribe arguments.
+         * @param delimiter  the delimiter, or null when given in the options
+         * @param options  {name, delimiter or framing, parse, prefix, match, batch options}, may be null
+         */
+        public static Subscriber fromOptions(String delimiter, JSONObject options, CallbackContext callbackContext,
+                                             ScheduledExecutorService scheduler) throws JSONException {
+            FrameDecoder decoder = FrameDecoder.create(options);
+            LineParser parser = LineParser.fromOptions(options);
+            if (parser != null && decoder != null) {
+                throw new JSONException("parse needs a delimiter");
+            }
+            String name = DEFAULT_NAME;
+            String prefix = null;
+            Pattern pattern = null;
+            if (options != null) {
+                name = options.optString("name", DEFAULT_NAME);
+                prefix = options.isNull("prefix") ? null : options.getString("prefix");
+                if (!options.isNull("match")) {
+                    if (decoder != null) {
+                        throw new JSONException("match needs a delimiter");
+                    }
+                    try {
+                        pattern = Pattern.compile(options.getString("match"));
+                    } catch (PatternSyntaxException e) {
+                        throw new JSONException("Invalid match: " + e.getDescription());
+                    }
+                }
+                if (decoder == null) {
+                    delimiter = options.getString("delimiter");
+                }
+            }
+            if (decoder == null && (delimiter == null || delimiter.length() == 0)) {
+                throw new JSONException("delimiter must not be empty");
+            }
+            DeliveryBatcher batcher = DeliveryBatcher.fromOptions(options, callbackContext, scheduler);
+            return new Subscriber(name, decoder == null ? delimiter : null, decoder, parser, prefix, pattern,
+                    batcher, callbackContext);
+        }
+
+        void sendLine(String line) {
+            if (prefix != null && !line.startsWith(prefix)) return;
+            if (pattern != null && !pattern.matcher(line).find()) return;
+            if (parser != null) {
+                sendValues(line);
+            } else if (batcher != null) {
+                batcher.addLine(line);
+            } else {
+                PluginResult result = new PluginResult(PluginResult.Status.OK, line);
+                result.setKeepCallback(true);
+                callbackContext.sendPluginResult(result);
+            }
+        }
+
+        private void sendValues(String line) {
+            double[] values = parser.parse(line, line.length() - delimiter.length());
+            if (values == null) return;
+            if (parser.getFormat() == LineParser.Format.JSON) {
+                try {
+                    JSONArray json = parser.toJSON(values);
+                    if (batcher != null) {
+                        batcher.addValue(json);
+                    } else {
+                        PluginResult result = new PluginResult(PluginResult.Status.OK, json);
+                        result.setKeepCallback(true);
+                        callbackContext.sendPluginResult(result);
+                    }
+                } catch (JSONException e) {
+                    // This shouldn't happen, log and ignore
+                    Log.e(TAG, "Problem converting values to JSON", e);
+                }
+            } else {
+                byte[] bytes = parser.toBytes(values);
+                if (batcher != null) {
+                    batcher.addChunk(bytes, 0, bytes.length);
+                } else {
+                    PluginResult result = new PluginResult(PluginResult.Status.OK, bytes);
+                    result.setKeepCallback(true);
+                    callbackContext.sendPluginResult(result);
+                }
+            }
+        }
+
+        public void onFrame(byte[] frame, int offset, int length) {
+            if (prefixBytes != null && !startsWith(frame, offset, length, prefixBytes)) return;
+            if (batcher != null) {
+                batcher.addChunk(frame, offset, length);
+            } else {
+                PluginResult result = new PluginResult(PluginResult.Status.OK, Arrays.copyOfRange(frame, offset, offset + length));
+                result.setKeepCallback(true);
+                callbackContext.sendPluginResult(result);
+            }
+        }
+
+        void sendError(String message) {
+            PluginResult result = new PluginResult(PluginResult.Status.ERROR, message);
+            result.setKeepCallback(true);
+            callbackContext.sendPluginResult(result);
+        }
+
+        void close() {
+            if (batcher != null) {
+                batcher.flush();
+            }
+            // send no result, so Cordova won't hold onto the callback anymore
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.NO_RESULT));
+        }
+
+        private static boolean startsWith(byte[] data, int offset, int length, byte[] prefix) {
+            if (length < prefix.length) return false;
+            for (int i = 0; i < prefix.length; i++) {
+                if (data[offset + i] != prefix[i]) return false;
+            }
+            return true;
+        }
+    }
+
+    // Line subscribers with the same delimiter
+    private static class LineGroup {
+        final String delimiter;
+        final ByteRingBuffer.Cursor cursor;
+        final List<Subscriber> subscribers = new ArrayList<Subscriber>();
+        byte[] delimiterBytes;
+        TextDecoder decoder;
+
+        LineGroup(String delimiter, ByteRingBuffer.Cursor cursor, Charset charset) {
+            this.delimiter = delimiter;
+            this.cursor = cursor;
+            setCharset(charset);
+        }
+
+        void setCharset(Charset charset) {
+            decoder = new TextDecoder(charset);
+            delimiterBytes = decoder.encode(delimiter);
+        }
+    }
+
+    private final ByteRingBuffer buffer;
+    private final List<Subscriber> subscribers = new ArrayList<Subscriber>();
+    private final List<Subscriber> framed = new ArrayList<Subscriber>();
+    private final List<LineGroup> groups = new ArrayList<LineGroup>();
+    private Charset charset = TextDecoder.UTF_8;
+
+    /**
+     * @param buffer  the receive buffer the line subscribers read from
+     */
+    public SubscriberRegistry(ByteRingBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Add a subscriber, replacing the subscriber with the same name. */
+    public synchronized void add(Subscriber subscriber) {
+        Subscriber replaced = find(subscriber.name);
+        if (replaced != null) {
+            remove(replaced);
+        }
+        subscribers.add(subscriber);
+        if (subscriber.frameDecoder != null) {
+            if (subscriber.prefix != null) {
+                subscriber.prefixBytes = subscriber.prefix.getBytes(charset);
+            }
+            framed.add(subscriber);
+        } else {
+            LineGroup group = null;
+            for (LineGroup g : groups) {
+                if (g.delimiter.equals(subscriber.delimiter)) group = g;
+            }
+            if (group == null) {
+                // a new group also gets the lines nobody has read yet, like
+                // a subscribe made after the data arrived always did
+                group = new LineGroup(subscriber.delimiter, buffer.newReadCursor(), charset);
+                groups.add(group);
+            }
+            group.subscribers.add(subscriber);
+        }
+    }
+
+    /**
+     * Remove the named subscriber.
+     * @return false if there is no subscriber with the name
+     */
+    public synchronized boolean remove(String name) {
+        Subscriber subscriber = find(name);
+        if (subscriber == null) return false;
+        remove(subscriber);
+        return true;
+    }
+
+    public synchronized void removeAll() {
+        while (!subscribers.isEmpty()) {
+            remove(subscribers.get(0));
+        }
+    }
+
+    private void remove(Subscriber subscriber) {
+        subscribers.remove(subscriber);
+        framed.remove(subscriber);
+        for (int i = 0; i < groups.size(); i++) {
+            LineGroup group = groups.get(i);
+            if (group.subscribers.remove(subscriber) && group.subscribers.isEmpty()) {
+                buffer.removeCursor(group.cursor);
+                groups.remove(i);
+                break;
+            }
+        }
+        subscriber.close();
+    }
+
+    private Subscriber find(String name) {
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.name.equals(name)) return subscriber;
+        }
+        return null;
+    }
+
+    public synchronized boolean isEmpty() {
+        return subscribers.isEmpty();
+    }
+
+    /**
+     * Return false while only framed subscribers are registered, their data
+     * is taken out of the stream and not kept in the receive buffer.
+     */
+    public synchronized boolean buffersData() {
+        return !groups.isEmpty() || framed.isEmpty();
+    }
+
+    /**
+     * Pass received bytes to the frame decoders of the framed subscribers. */
+    public synchronized void decodeFrames(byte[] data, int offset, int length) {
+        for (Subscriber subscriber : framed) {
+            subscriber.frameDecoder.decode(data, offset, length, subscriber);
+        }
+    }
+
+    /**
+     * Send every complete line in the receive buffer to the line subscribers. */
+    public synchronized void deliverLines() {
+        for (LineGroup group : groups) {
+            byte[] bytes;
+            while ((bytes = group.cursor.readUntil(group.delimiterBytes)) != null) {
+                String line = group.decoder.decode(bytes);
+                for (Subscriber subscriber : group.subscribers) {
+                    subscriber.sendLine(line);
+                }
+            }
+        }
+    }
+
+    /**
+     * Report an error to every line subscriber, the subscriptions stay open. */
+    public synchronized void sendError(String message) {
+        for (LineGroup group : groups) {
+            for (Subscriber subscriber : group.subscribers) {
+                subscriber.sendError(message);
+            }
+        }
+    }
+
+    /**
+     * Drop partial frames, a frame cut short by a dropout can't be completed. */
+    public synchronized void resetFrames() {
+        for (Subscriber subscriber : framed) {
+            subscriber.frameDecoder.reset();
+        }
+    }
+
+    /**
+     * Drop partial characters, used when the buffer is cleared. */
+    public synchronized void resetText() {
+        for (LineGroup group : groups) {
+            group.decoder.reset();
+        }
+    }
+
+    public synchronized void setCharset(Charset charset) {
+        this.charset = charset;
+        for (LineGroup group : groups) {
+            group.setCharset(charset);
+        }
+        for (Subscriber subscriber : framed) {
+            if (subscriber.prefix != null) {
+                subscriber.prefixBytes = subscriber.prefix.getBytes(charset);
+            }
+        }
+    }
+
+    /**
+     * @return {name: parse stats} for the subscribers that parse lines
+     */
+    public synchronized JSONObject getParserStats() throws JSONException {
+        JSONObject stats = new JSONObject();
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.parser != null) {
+                stats.put(subscriber.name, subscriber.parser.getStats());
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * @return {name: {dropped}} for the framed subscribers, dropped counts
+     *         the malformed and oversized frames
+     */
+    public synchronized JSONObject getFrameStats() throws JSONException {
+        JSONObject stats = new JSONObject();
+        for (Subscriber subscriber : framed) {
+            JSONObject frameStats = new JSONObject();
+            frameStats.put("dropped", subscriber.frameDecoder.getDroppedFrames());
+            stats.put(subscriber.name, frameStats);
+        }
+        return stats;
+    }
+
+    /**
+     * @return {name: batch stats} for the subscribers that batch
+     */
+    public synchronized JSONObject getBatchStats() throws JSONException {
+        JSONObject stats = new JSONObject();
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.batcher != null) {
+                stats.put(subscriber.name, subscriber.batcher.getStats());
+            }
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,93 @@
+package com.megster.cordova;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * A TCP connection standing in for a serial device, for example a serial
+ * to network bridge or a simulator running on a development machine.
+ */
+public class TcpTransport implements SerialTransport {
+
+    private final String host;
+    private final int port;
+    private final int connectTimeout;
+
+    /**
+     * @param host  host name or IP address
+     * @param port  TCP port
+     * @param connectTimeout  milliseconds to wait for the connection, 0 for the system default
+     */
+    public TcpTransport(String host, int port, int connectTimeout) {
+        this.host = host;
+        this.port = port;
+        this.connectTimeout = connectTimeout;
+    }
+
+    public String getAddress() {
+        return host + ":" + port;
+    }
+
+    public SerialTransport.Connector newConnector() {
+        return new Connector();
+    }
+
+    private class Connector implements SerialTransport.Connector {
+        private final Socket socket = new Socket();
+
+        public SerialTransport getTransport() {
+            return TcpTransport.this;
+        }
+
+        public ConnectStrategy.Timings getTimings() {
+            return null;
+        }
+
+        public SerialSocket connect() throws IOException {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, port), connectTimeout);
+            return new TcpSocket(socket, getAddress());
+        }
+
+        public void cancel() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // nothing left to clean up
+            }
+        }
+    }
+
+    private static class TcpSocket implements SerialSocket {
+        private final Socket socket;
+        private final String address;
+
+        TcpSocket(Socket socket, String address) {
+            this.socket = socket;
+            this.address = address;
+        }
+
+        public InputStream getInputStream() throws IOException {
+            return socket.getInputStream();
+        }
+
+        public OutputStream getOutputStream() throws IOException {
+            return socket.getOutputStream();
+        }
+
+        public String getRemoteAddress() {
+            return address;
+        }
+
+        public String getRemoteName() {
+            return address;
+        }
+
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.megster.cordova;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ * Turns the bytes taken from the receive buffer into text with the charset
+ * of the connection. A character split between two reads is kept until the
+ * rest of it arrives instead of being decoded as two broken halves.
+ *
+ * ISO-8859-1 and US-ASCII have one byte per character, those are decoded
+ * directly without a CharsetDecoder.
+ */
+public class TextDecoder {
+
+    public static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private static final byte[] EMPTY = new byte[0];
+
+    // lines up to this many characters are decoded into a reused buffer
+    private static final int REUSED_CHARS = 4096;
+
+    private final Charset charset;
+    private final boolean singleByte;
+    private final CharsetDecoder decoder;
+    // the start of a character whose remaining bytes have not been read yet
+    private byte[] pending = EMPTY;
+    private final CharBuffer reused = CharBuffer.allocate(REUSED_CHARS);
+
+    public TextDecoder(Charset charset) {
+        this.charset = charset;
+        this.singleByte = charset.equals(ISO_8859_1) || charset.equals(US_ASCII);
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    public Charset charset() {
+        return charset;
+    }
+
+    /**
+     * Encode a delimiter or other text the way the device sends it. */
+    public byte[] encode(String text) {
+        return text.getBytes(charset);
+    }
+
+    /**
+     * Decode the next bytes of the stream. Bytes at the end that are only
+     * part of a character are held back and decoded with the next call.
+     */
+    public synchronized String decode(byte[] data) {
+        if (singleByte) {
+            return new String(data, charset);
+        }
+        ByteBuffer in;
+        if (pending.length == 0) {
+            in = ByteBuffer.wrap(data);
+        } else {
+            in = ByteBuffer.allocate(pending.length + data.length);
+            in.put(pending).put(data);
+            in.flip();
+        }
+        int needed = (int) Math.ceil(in.remaining() * (double) decoder.maxCharsPerByte());
+        CharBuffer chars = needed <= REUSED_CHARS ? reused : CharBuffer.allocate(needed);
+        chars.clear();
+        decoder.decode(in, chars, false);
+        if (in.hasRemaining()) {
+            pending = new byte[in.remaining()];
+            in.get(pending);
+        } else {
+            pending = EMPTY;
+        }
+        chars.flip();
+        return chars.toString();
+    }
+
+    /**
+     * Decode the next bytes of the stream like decode(byte[]), one character
+     * at a time, for callers that need to know which bytes each character
+     * came from. Malformed bytes become a replacement character that ends
+     * where they end.
+     * @param offset  the position of data in the stream of the caller
+     * @param text  the characters are appended to it
+     * @param ends  set to the position after the last byte of each
+     *              character appended, at the index of the character in text
+     * @return ends, or a larger copy of it when it was too small
+     */
+    public synchronized int[] decode(byte[] data, int offset, StringBuilder text, int[] ends) {
+        ByteBuffer in = ByteBuffer.allocate(pending.length + data.length);
+        in.put(pending).put(data);
+        in.flip();
+        // the pending bytes came before data
+        int base = offset - pending.length;
+        CharBuffer out = CharBuffer.allocate(2);
+        while (true) {
+            out.clear();
+            out.limit(1);
+            if (decoder.decode(in, out, false).isOverflow() && out.position() == 0) {
+                // a surrogate pair is decoded in one go
+                out.limit(2);
+                decoder.decode(in, out, false);
+            }
+            if (out.position() == 0) break;
+            for (int i = 0; i < out.position(); i++) {
+                int index = text.length();
+                if (index >= ends.length) {
+                    ends = Arrays.copyOf(ends, Math.max(16, ends.length * 2));
+                }
+                ends[index] = base + in.position();
+                text.append(out.get(i));
+            }
+        }
+        if (in.hasRemaining()) {
+            pending = new byte[in.remaining()];
+            in.get(pending);
+        } else {
+            pending = EMPTY;
+        }
+        return ends;
+    }
+
+    /**
+     * Forget a partial character, used when the buffer is cleared. */
+    public synchronized void reset() {
+        pending = EMPTY;
+        decoder.reset();
+    }
+}
@@ -0,0 +1,144 @@
+package com.megster.cordova;
+
+import org.apache.cordova.CordovaArgs;
+import org.json.JSONException;
+
+import java.util.Arrays;
+
+/**
+ * Turns the data arguments of the write actions into bytes.
+ *
+ * ArrayBuffers cross the bridge as base64, a third larger than the data and
+ * decoded into a new array. Text can be sent as a string instead and is
+ * converted in one pass, each character becoming the byte of its low 8 bits
+ * like the JavaScript side did before. Several ArrayBuffers are decoded
+ * straight into one array, so the app does not have to join them first.
+ */
+public class WriteData {
+
+    public static final String LATIN1 = "latin1";
+    public static final String HEX = "hex";
+
+    // values of the base64 and hex digits, -1 for other characters
+    private static final int[] BASE64 = new int[128];
+    private static final int[] HEX_DIGITS = new int[128];
+
+    static {
+        Arrays.fill(BASE64, -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64[alphabet.charAt(i)] = i;
+        }
+        Arrays.fill(HEX_DIGITS, -1);
+        for (int i = 0; i < 16; i++) {
+            HEX_DIGITS[Character.forDigit(i, 16)] = i;
+            HEX_DIGITS[Character.toUpperCase(Character.forDigit(i, 16))] = i;
+        }
+    }
+
+    private WriteData() {
+    }
+
+    /**
+     * @param encoding  null for an ArrayBuffer, latin1 or hex for a string
+     * @return the bytes, or null when the data is not valid for the encoding
+     */
+    public static byte[] fromArgs(CordovaArgs args, int index, String encoding) throws JSONException {
+        if (encoding == null) {
+            return args.getArrayBuffer(index);
+        } else if (LATIN1.equals(encoding)) {
+            return latin1(args.getString(index));
+        } else if (HEX.equals(encoding)) {
+            return hex(args.getString(index));
+        }
+        throw new JSONException("Unknown encoding " + encoding);
+    }
+
+    /**
+     * Decode count ArrayBuffer arguments into one array.
+     * @return the bytes, or null when an argument is not valid base64
+     */
+    public static byte[] join(CordovaArgs args, int first, int count) throws JSONException {
+        String[] parts = new String[count];
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            parts[i] = args.getString(first + i);
+            int size = decodedLength(parts[i]);
+            if (size < 0) return null;
+            length += size;
+        }
+        byte[] out = new byte[length];
+        int offset = 0;
+        for (String part : parts) {
+            offset = decodeBase64(part, out, offset);
+            if (offset < 0) return null;
+        }
+        return out;
+    }
+
+    public static byte[] latin1(String text) {
+        int length = text.length();
+        byte[] out = new byte[length];
+        for (int i = 0; i < length; i++) {
+            out[i] = (byte) text.charAt(i);
+        }
+        return out;
+    }
+
+    /**
+     * @return the bytes, or null if the length is odd or a character is not a hex digit
+     */
+    public static byte[] hex(String text) {
+        int length = text.length();
+        if ((length & 1) != 0) return null;
+        byte[] out = new byte[length / 2];
+        for (int i = 0; i < out.length; i++) {
+            int high = digit(HEX_DIGITS, text.charAt(2 * i));
+            int low = digit(HEX_DIGITS, text.charAt(2 * i + 1));
+            if ((high | low) < 0) return null;
+            out[i] = (byte) (high << 4 | low);
+        }
+        return out;
+    }
+
+    // Number of bytes in padded base64, -1 if the length is wrong
+    private static int decodedLength(String base64) {
+        int length = base64.length();
+        if ((length & 3) != 0) return -1;
+        int padding = 0;
+        if (length > 0 && base64.charAt(length - 1) == '=') padding++;
+        if (length > 1 && base64.charAt(length - 2) == '=') padding++;
+        return length / 4 * 3 - padding;
+    }
+
+    // Decode padded base64 into out at offset, return the offset after the bytes or -1
+    private static int decodeBase64(String base64, byte[] out, int offset) {
+        int length = base64.length();
+        if (length == 0) return offset;
+        // all but the last group have four digits and no padding
+        int last = length - 4;
+        for (int i = 0; i < last; i += 4) {
+            int bits = digit(BASE64, base64.charAt(i)) << 18 | digit(BASE64, base64.charAt(i + 1)) << 12
+                    | digit(BASE64, base64.charAt(i + 2)) << 6 | digit(BASE64, base64.charAt(i + 3));
+            if (bits < 0) return -1;
+            out[offset++] = (byte) (bits >> 16);
+            out[offset++] = (byte) (bits >> 8);
+            out[offset++] = (byte) bits;
+        }
+        char c3 = base64.charAt(last + 2);
+        char c4 = base64.charAt(last + 3);
+        int bits = digit(BASE64, base64.charAt(last)) << 18 | digit(BASE64, base64.charAt(last + 1)) << 12
+                | (c3 == '=' && c4 == '=' ? 0 : digit(BASE64, c3) << 6) | (c4 == '=' ? 0 : digit(BASE64, c4));
+        if (bits < 0) return -1;
+        out[offset++] = (byte) (bits >> 16);
+        if (c3 == '=') return offset;
+        out[offset++] = (byte) (bits >> 8);
+        if (c4 == '=') return offset;
+        out[offset++] = (byte) bits;
+        return offset;
+    }
+
+    private static int digit(int[] digits, char c) {
+        return c < 128 ? digits[c] : -1;
+    }
+}
@@ -0,0 +1,356 @@
+package com.megster.cordova;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Bounded queue of writes drained to an OutputStream by a dedicated writer
+ * thread, so callers never block on a full RFCOMM buffer.
+ *
+ * Every write has a callback that is called once the bytes have been written
+ * or the write failed. The queue reports when the number of queued bytes
+ * rises above the high watermark and when it drops back below the low
+ * watermark, so callers can apply flow control.
+ *
+ * Optionally small writes are coalesced: the writer waits up to a time window
+ * after the first queued write, or until enough bytes are queued, and writes
+ * everything queued in a single call to the stream.
+ */
+public class WriteQueue {
+
+    private static final String TAG = "WriteQueue";
+
+    /**
+     * Completion of a single write.
+     */
+    public interface Callback {
+        void onWritten(int length);
+        void onError(String message);
+    }
+
+    /**
+     * Flow control events.
+     */
+    public interface WatermarkListener {
+        void onHighWatermark(long queuedBytes);
+        void onLowWatermark(long queuedBytes);
+    }
+
+    private static class Request {
+        final byte[] data;
+        final Callback callback;
+        final long queuedAt;
+
+        Request(byte[] data, Callback callback) {
+            this.data = data;
+            this.callback = callback;
+            this.queuedAt = System.nanoTime();
+        }
+    }
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final OutputStream out;
+    private final ConnectionStats stats;
+    private final long capacity;
+    private long highWatermark;
+    private long lowWatermark;
+    private WatermarkListener watermarkListener;
+    private final ArrayDeque<Request> queue = new ArrayDeque<Request>();
+    private final Thread writer;
+
+    private long queuedBytes;
+    private boolean aboveHighWatermark;
+    private boolean started;
+    private boolean closed;
+
+    // coalescing, disabled when coalesceWindow is 0
+    private long coalesceWindow;
+    private int coalesceBytes;
+    private boolean flushRequested;
+
+    // counters
+    private long writeCount;
+    private long flushCount;
+    private long bytesWritten;
+
+    /**
+     * @param out  the stream to write to
+     * @param capacity  maximum number of queued bytes
+     */
+    public WriteQueue(OutputStream out, long capacity) {
+        this(out, capacity, null);
+    }
+
+    /**
+     * @param out  the stream to write to
+     * @param capacity  maximum number of queued bytes
+     * @param stats  counts the bytes written, may be null
+     */
+    public WriteQueue(OutputStream out, long capacity, ConnectionStats stats) {
+        this.out = out;
+        this.capacity = capacity;
+        this.stats = stats;
+        this.highWatermark = capacity;
+        this.lowWatermark = 0;
+        this.writer = new Thread(new Runnable() {
+            public void run() {
+                drain();
+            }
+        }, "WriteQueue");
+    }
+
+    public void start() {
+        synchronized (this) {
+            started = true;
+        }
+        writer.start();
+    }
+
+    /**
+     * @param highWatermark  queued bytes at which the listener is told to slow down
+     * @param lowWatermark  queued bytes at which the listener is told to resume
+     * @param watermarkListener  listener for flow control events, may be null
+     */
+    public synchronized void setWatermarks(long highWatermark, long lowWatermark, WatermarkListener watermarkListener) {
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        this.watermarkListener = watermarkListener;
+    }
+
+    /**
+     * Coalesce writes queued within a time window into a single stream write.
+     * @param windowMillis  how long to wait for more writes, 0 to write immediately
+     * @param maxBytes  write as soon as this many bytes are queued
+     */
+    public synchronized void setCoalescing(long windowMillis, int maxBytes) {
+        this.coalesceWindow = windowMillis;
+        this.coalesceBytes = maxBytes;
+        notifyAll();
+    }
+
+    /**
+     * Write everything queued without waiting for the coalescing window. The
+     * callback is called once the writes queued before it have been written.
+     */
+    public void flush(Callback callback) {
+        synchronized (this) {
+            if (!closed) {
+                queue.addLast(new Request(EMPTY, callback));
+                flushRequested = true;
+                notifyAll();
+                return;
+            }
+        }
+        if (callback != null) callback.onError("Not connected.");
+    }
+
+    /**
+     * Return the number of writes queued since the queue was created. */
+    public synchronized long getWriteCount() {
+        return writeCount;
+    }
+
+    /**
+     * Return the number of writes to the stream, lower than the write count
+     * when writes have been coalesced.
+     */
+    public synchronized long getFlushCount() {
+        return flushCount;
+    }
+
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Queue bytes for writing. The callback, if any, is called from the writer
+     * thread, or immediately when the queue is closed or full.
+     * @return false if the bytes were not queued
+     */
+    public boolean write(byte[] data, Callback callback) {
+        boolean high = false;
+        String error = null;
+        long queued;
+        WatermarkListener listener;
+        synchronized (this) {
+            if (closed) {
+                error = "Not connected.";
+            } else if (queuedBytes > 0 && queuedBytes + data.length > capacity) {
+                error = "Write queue full.";
+            } else {
+                queue.addLast(new Request(data, callback));
+                queuedBytes += data.length;
+                if (!aboveHighWatermark && queuedBytes >= highWatermark) {
+                    aboveHighWatermark = true;
+                    high = true;
+                }
+                notifyAll();
+            }
+            queued = queuedBytes;
+            listener = watermarkListener;
+        }
+
+        if (error != null) {
+            if (callback != null) callback.onError(error);
+            return false;
+        }
+        if (high && listener != null) {
+            listener.onHighWatermark(queued);
+        }
+        return true;
+    }
+
+    /**
+     * Return the number of bytes waiting to be written. */
+    public synchronized long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    /**
+     * Stop the writer thread and fail the writes that are still queued. */
+    public void close() {
+        boolean running;
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            running = started;
+            notifyAll();
+        }
+        if (running) {
+            writer.interrupt();
+        } else {
+            // no writer thread to fail them
+            failPending();
+        }
+    }
+
+    private void drain() {
+        ArrayList<Request> batch = new ArrayList<Request>();
+        byte[] buffer = EMPTY;
+
+        while (true) {
+            int length = 0;
+            synchronized (this) {
+                while (queue.isEmpty() && !closed) {
+                    waitQuietly(0);
+                }
+                if (closed) break;
+                if (coalesceWindow > 0) {
+                    // give more writes a chance to arrive
+                    long deadline = queue.peekFirst().queuedAt + coalesceWindow * 1000000L;
+                    long remaining;
+                    while (!closed && !flushRequested && queuedBytes < coalesceBytes
+                            && (remaining = deadline - System.nanoTime()) > 0) {
+                        waitQuietly(Math.max(1, remaining / 1000000L));
+                    }
+                }
+                flushRequested = false;
+                if (closed) break;
+
+                // take the writes that fit together in one stream write
+                Iterator<Request> it = queue.iterator();
+                while (it.hasNext()) {
+                    Request request = it.next();
+                    if (!batch.isEmpty() && (coalesceWindow == 0 || length + request.data.length > coalesceBytes)) {
+                        break;
+                    }
+                    batch.add(request);
+                    length += request.data.length;
+                }
+            }
+
+            try {
+                // a batch of flush requests or empty writes has nothing to write
+                if (length > 0) {
+                    if (batch.size() == 1) {
+                        out.write(batch.get(0).data);
+                    } else {
+                        if (buffer.length < length) {
+                            buffer = new byte[length];
+                        }
+                        int offset = 0;
+                        for (Request request : batch) {
+                            System.arraycopy(request.data, 0, buffer, offset, request.data.length);
+                            offset += request.data.length;
+                        }
+                        out.write(buffer, 0, length);
+                    }
+                    if (stats != null) {
+                        stats.onSent(length);
+                    }
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Exception during write", e);
+                synchronized (this) {
+                    for (int i = 0; i < batch.size(); i++) {
+                        queue.pollFirst();
+                    }
+                    closed = true;
+                }
+                for (Request request : batch) {
+                    if (request.callback != null) request.callback.onError(e.getMessage());
+                }
+                break;
+            }
+
+            boolean low = false;
+            long queued;
+            WatermarkListener listener;
+            synchronized (this) {
+                for (Request request : batch) {
+                    queue.pollFirst();
+                    if (request.data.length > 0) {
+                        writeCount++;
+                    }
+                }
+                if (length > 0) {
+                    flushCount++;
+                    bytesWritten += length;
+                }
+                queuedBytes -= length;
+                if (aboveHighWatermark && queuedBytes <= lowWatermark) {
+                    aboveHighWatermark = false;
+                    low = true;
+                }
+                queued = queuedBytes;
+                listener = watermarkListener;
+            }
+            for (Request request : batch) {
+                if (request.callback != null) request.callback.onWritten(request.data.length);
+            }
+            if (low && listener != null) {
+                listener.onLowWatermark(queued);
+            }
+            batch.clear();
+        }
+        failPending();
+    }
+
+    private void waitQuietly(long millis) {
+        try {
+            wait(millis);
+        } catch (InterruptedException e) {
+            // closed is checked again
+        }
+    }
+
+    private void failPending() {
+        Request request;
+        while (true) {
+            synchronized (this) {
+                request = queue.pollFirst();
+                if (request == null) {
+                    queuedBytes = 0;
+                    return;
+                }
+            }
+            if (request.callback != null) request.callback.onError("Not connected.");
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.megster.cordova;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BluetoothSerialServiceTest {
+
+    /**
+     * Records the events of the service.
+     */
+    private static class Events implements BluetoothSerialListener {
+        final BlockingQueue<Integer> states = new LinkedBlockingQueue<Integer>();
+
+        public void onStateChange(int state) {
+            states.add(state);
+        }
+
+        public void onDeviceName(String name) {
+        }
+
+        public void onRead(ChunkPool.Chunk chunk) {
+            chunk.recycle();
+        }
+
+        public void onConnectionError(String message) {
+        }
+
+        int next() throws InterruptedException {
+            Integer state = states.poll(2, TimeUnit.SECONDS);
+            if (state == null) fail("no state change");
+            return state;
+        }
+    }
+
+    /**
+     * A device that answers once released, handing out its end of the pipes.
+     */
+    private static class SlowDevice implements PipeTransport.Peer {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final BlockingQueue<SerialSocket> sockets = new LinkedBlockingQueue<SerialSocket>();
+
+        public void accept(SerialSocket socket) throws IOException {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted");
+            }
+            sockets.add(socket);
+        }
+    }
+
+    private final Events events = new Events();
+    private final BluetoothSerialService service = new BluetoothSerialService(events);
+
+    @After
+    public void tearDown() {
+        service.stop();
+    }
+
+    // True once a read on the device end fails because the phone end was closed
+    private static boolean isClosed(SerialSocket device) throws IOException {
+        InputStream in = device.getInputStream();
+        try {
+            in.read(new byte[1]);
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    @Test
+    public void connectsAndStops() throws Exception {
+        SlowDevice device = new SlowDevice();
+        device.release.countDown();
+        PipeTransport transport = new PipeTransport("a", 64, device);
+        service.connect(transport);
+        assertEquals(BluetoothSerialService.STATE_CONNECTING, events.next());
+        assertEquals(BluetoothSerialService.STATE_CONNECTED, events.next());
+        assertSame(transport, service.getConnectedTransport());
+        assertEquals("a", service.getConnectedName());
+
+        service.stop();
+        assertEquals(BluetoothSerialService.STATE_NONE, events.next());
+        assertTrue(isClosed(device.sockets.poll(2, TimeUnit.SECONDS)));
+    }
+
+    @Test
+    public void attemptThatFinishesAfterStopIsClosed() throws Exception {
+        SlowDevice device = new SlowDevice();
+        service.connect(new PipeTransport("a", 64, device));
+        assertEquals(BluetoothSerialService.STATE_CONNECTING, events.next());
+        assertTrue(device.entered.await(2, TimeUnit.SECONDS));
+
+        service.stop();
+        assertEquals(BluetoothSerialService.STATE_NONE, events.next());
+        device.release.countDown();
+
+        assertTrue(isClosed(device.sockets.poll(2, TimeUnit.SECONDS)));
+        assertNull(events.states.poll(200, TimeUnit.MILLISECONDS));
+        assertEquals(BluetoothSerialService.STATE_NONE, service.getState());
+    }
+
+    @Test
+    public void attemptReplacedByANewerConnectIsClosed() throws Exception {
+        SlowDevice first = new SlowDevice();
+        service.connect(new PipeTransport("a", 64, first));
+        assertEquals(BluetoothSerialService.STATE_CONNECTING, events.next());
+        assertTrue(first.entered.await(2, TimeUnit.SECONDS));
+
+        SlowDevice second = new SlowDevice();
+        second.release.countDown();
+        PipeTransport transport = new PipeTransport("b", 64, second);
+        service.connect(transport);
+        assertEquals(BluetoothSerialService.STATE_CONNECTING, events.next());
+        assertEquals(BluetoothSerialService.STATE_CONNECTED, events.next());
+
+        first.release.countDown();
+        assertTrue(isClosed(first.sockets.poll(2, TimeUnit.SECONDS)));
+        assertNull(events.states.poll(200, TimeUnit.MILLISECONDS));
+        assertSame(transport, service.getConnectedTransport());
+        assertEquals(BluetoothSerialService.STATE_CONNECTED, service.getState());
+    }
+
+    @Test
+    public void connectAnyKeepsTheFirstDeviceAndClosesTheOthers() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            SlowDevice slow = new SlowDevice();
+            SlowDevice fast = new SlowDevice();
+            PipeTransport winner = new PipeTransport("b", 64, fast);
+            service.connectAny(Arrays.asList(new PipeTransport("a", 64, slow), winner), scheduler, 0);
+            assertEquals(BluetoothSerialService.STATE_CONNECTING, events.next());
+            // the slow device is still connecting when the fast one answers
+            assertTrue(slow.entered.await(2, TimeUnit.SECONDS));
+            fast.release.countDown();
+            assertEquals(BluetoothSerialService.STATE_CONNECTED, events.next());
+            assertSame(winner, service.getConnectedTransport());
+            assertTrue(service.getConnectMillis() >= 0);
+
+            slow.release.countDown();
+            assertTrue(isClosed(slow.sockets.poll(2, TimeUnit.SECONDS)));
+            assertNull(events.states.poll(200, TimeUnit.MILLISECONDS));
+            assertSame(winner, service.getConnectedTransport());
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.megster.cordova;
+
+import org.apache.cordova.PluginResult;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BulkTransferTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final SerialConnection connection = new SerialConnection(scheduler);
+    private final Device device = new Device();
+    private final Results progress = new Results();
+
+    @After
+    public void tearDown() {
+        connection.destroy();
+        scheduler.shutdownNow();
+    }
+
+    private SerialSocket connect(int capacity) throws Exception {
+        Results connected = new Results();
+        connection.connect(new PipeTransport("a", capacity, device), null, connected);
+        SerialSocket socket = device.next();
+        assertTrue(Results.isOk(connected.nextResult()));
+        return socket;
+    }
+
+    private PluginResult writeChunk(int sequence, String data) throws InterruptedException {
+        Results written = new Results();
+        connection.writeChunk(sequence, data.getBytes(Device.ASCII), written);
+        return written.nextResult();
+    }
+
+    private static void assertError(String message, PluginResult result) {
+        assertTrue(Results.isError(result));
+        assertEquals(message, result.getMessage());
+    }
+
+    private JSONObject nextProgress() throws InterruptedException {
+        PluginResult result = progress.nextResult();
+        assertTrue(Results.isOk(result));
+        return new JSONObject(result.getMessage());
+    }
+
+    @Test
+    public void chunksAreWrittenAndProgressIsReported() throws Exception {
+        SerialSocket socket = connect(64);
+        connection.startTransfer(10, progress);
+
+        assertTrue(Results.isOk(writeChunk(0, "abcd")));
+        assertTrue(Results.isOk(writeChunk(1, "efgh")));
+        assertTrue(Results.isOk(writeChunk(2, "ij")));
+        assertEquals("abcdefghij", Device.receive(socket, 10));
+
+        JSONObject first = nextProgress();
+        assertEquals(4, first.getLong("sent"));
+        assertEquals(10, first.getLong("total"));
+        assertFalse(first.has("complete"));
+        assertEquals(8, nextProgress().getLong("sent"));
+
+        PluginResult last = progress.nextResult();
+        assertFalse(last.getKeepCallback());
+        JSONObject done = new JSONObject(last.getMessage());
+        assertEquals(10, done.getLong("sent"));
+        assertTrue(done.getBoolean("complete"));
+
+        assertError("No transfer in progress.", writeChunk(3, "k"));
+    }
+
+    @Test
+    public void chunksMustArriveInSequence() throws Exception {
+        connect(64);
+        connection.startTransfer(6, progress);
+
+        assertError("Expected chunk 0 but got 1.", writeChunk(1, "ab"));
+        assertTrue(Results.isOk(writeChunk(0, "ab")));
+        assertError("Expected chunk 1 but got 0.", writeChunk(0, "cd"));
+        assertTrue(Results.isOk(writeChunk(1, "cd")));
+        assertEquals(2, nextProgress().getLong("sent"));
+        assertEquals(4, nextProgress().getLong("sent"));
+    }
+
+    @Test
+    public void chunkPastTheTotalSizeIsRejected() throws Exception {
+        connect(64);
+        connection.startTransfer(5, progress);
+
+        assertTrue(Results.isOk(writeChunk(0, "abc")));
+        assertError("Chunk exceeds the transfer size.", writeChunk(1, "def"));
+        // the rejected chunk does not count, it can be sent again smaller
+        assertTrue(Results.isOk(writeChunk(1, "de")));
+        assertEquals(3, nextProgress().getLong("sent"));
+        assertTrue(nextProgress().getBoolean("complete"));
+    }
+
+    @Test
+    public void cancelFailsTheTransfer() throws Exception {
+        connect(64);
+        connection.startTransfer(10, progress);
+        assertTrue(Results.isOk(writeChunk(0, "abc")));
+        assertEquals(3, nextProgress().getLong("sent"));
+
+        connection.cancelTransfer();
+
+        assertError("Transfer cancelled.", progress.nextResult());
+        assertError("No transfer in progress.", writeChunk(1, "def"));
+        Results next = new Results();
+        connection.startTransfer(3, next);
+        assertEquals(PluginResult.Status.NO_RESULT.ordinal(), next.next().getStatus());
+    }
+
+    @Test
+    public void onlyOneTransferAtATime() throws Exception {
+        Results notConnected = new Results();
+        connection.startTransfer(10, notConnected);
+        assertError("Not connected.", notConnected.next());
+
+        connect(64);
+        connection.startTransfer(10, progress);
+        Results second = new Results();
+        connection.startTransfer(10, second);
+        assertError("A transfer is already in progress.", second.next());
+    }
+
+    @Test
+    public void lastProgressHasTheElapsedTimeAndRate() throws Exception {
+        SerialSocket socket = connect(16);
+        connection.startTransfer(100, progress);
+        StringBuilder payload = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            payload.append("0123456789");
+        }
+        Results written = new Results();
+        connection.writeChunk(0, payload.toString().getBytes(Device.ASCII), written);
+
+        // the device reads slowly, the write can't finish for 300ms
+        assertNull(written.poll(300));
+        assertEquals(payload.toString(), Device.receive(socket, 100));
+        assertTrue(Results.isOk(written.nextResult()));
+
+        JSONObject done = nextProgress();
+        assertTrue(done.getBoolean("complete"));
+        long millis = done.getLong("millis");
+        long rate = done.getLong("bytesPerSecond");
+        assertTrue(millis + "ms", millis >= 300);
+        assertTrue(rate + " bytes/s", rate > 0 && rate <= 100 * 1000 / 300);
+        assertEquals(100 * 1000.0 / millis, rate, 100 * 1000.0 / millis * 0.1 + 1);
+    }
+}
@@ -0,0 +1,299 @@
+package com.megster.cordova;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ByteRingBufferTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(ASCII);
+    }
+
+    private static String string(byte[] b) {
+        return b == null ? null : new String(b, ASCII);
+    }
+
+    private static int write(ByteRingBuffer buffer, String s) {
+        byte[] b = bytes(s);
+        return buffer.write(b, 0, b.length);
+    }
+
+    @Test
+    public void readsWhatWasWritten() {
+        ByteRingBuffer buffer = new ByteRingBuffer(16, ByteRingBuffer.OverflowPolicy.DROP_OLDEST);
+        write(buffer, "hello");
+        write(buffer, " world");
+        assertEquals(11, buffer.available());
+        assertEquals("hello world", string(buffer.read()));
+        assertEquals(0, buffer.available());
+    }
+
+    @Test
+    public void writesAndReadsAcrossTheEnd() {
+        ByteRingBuffer buffer = new ByteRingBuffer(8, ByteRingBuffer.OverflowPolicy.ERROR);
+        write(buffer, "abcdef");
+        assertEquals("abcd", string(buffer.read(4)));
+        // wraps around to the start of the array
+        assertEquals(0, write(buffer, "ghijkl"));
+        assertEquals(8, buffer.available());
+        assertEquals("efghijkl", string(buffer.peek()));
+        assertEquals("efghijkl", string(buffer.read()));
+    }
+
+    @Test
+    public void readCountReturnsWhatIsBuffered() {
+        ByteRingBuffer buffer = new ByteRingBuffer(8, ByteRingBuffer.OverflowPolicy.ERROR);
+        write(buffer, "abc");
+        assertEquals("abc", string(buffer.read(10)));
+        assertEquals(0, buffer.read(1).length);
+    }
+
+    @Test
+    public void readUntilFindsDelimiterAcrossTheEnd() {
+        ByteRingBuffer buffer = new ByteRingBuffer(8, ByteRingBuffer.OverflowPolicy.ERROR);
+        write(buffer, "xxxxx");
+        buffer.read(5);
+        write(buffer, "ab\r");
+        assertNull(buffer.readUntil(bytes("\r\n")));
+        write(buffer, "\ncd");
+        assertEquals("ab\r\n", string(buffer.readUntil(bytes("\r\n"))));
+        assertEquals("cd", string(buffer.read()));
+    }
+
+    @Test
+    public void readUntilResumesWhereTheLastSearchStopped() {
+        ByteRingBuffer buffer = new ByteRingBuffer(64, ByteRingBuffer.OverflowPolicy.ERROR);
+        write(buffer, "aaaaaaaa");
+        assertEquals(-1, buffer.indexOf(bytes("ab")));
+        write(buffer, "b\n");
+        assertEquals(7, buffer.indexOf(bytes("ab")));
+        // a different delimiter starts over
+        assertEquals(9, buffer.indexOf(bytes("\n")));
+        assertEquals("aaaaaaaab", string(buffer.readUntil(bytes("ab"))));
+        assertEquals(0, buffer.indexOf(bytes("\n")));
+    }
+
+    @Test
+    public void dropOldestKeepsTheNewestBytes() {
+        ByteRingBuffer buffer = new ByteRingBuffer(8, ByteRingBuffer.OverflowPolicy.DROP_OLDEST);
+        write(buffer, "abcdef");
+        assertEquals(3, write(buffer, "ghijk"));
+        assertEquals("defghijk", string(buffer.read()));
+        assertEquals(3, buffer.getDroppedBytes());
+    }
+
+    @Test
+    public void dropOldestWithMoreThanTheCapacity() {
+        ByteRingBuffer buffer = new ByteRingBuffer(4, ByteRingBuffer.OverflowPolicy.DROP_OLDEST);
+        write(buffer, "ab");
+        assertEquals(8, write(buffer, "0123456789"));
+        assertEquals("6789", string(buffer.read()));
+    }
+
+    @Test
+    public void dropNewestKeepsTheOldestBytes() {
+        ByteRingBuffer buffer = new ByteRingBuffer(8, ByteRingBuffer.OverflowPolicy.DROP_NEWEST);
+        write(buffer, "abcdef");
+        assertEquals(3, write(buffer, "ghijk"));
+        assertEquals("abcdefgh", string(buffer.read()));
+        assertEquals(3, buffer.getDroppedBytes());
+    }
+
+    @Test
+    public void errorPolicyDropsTheIncomingBytes() {
+        ByteRingBuffer buffer = new ByteRingBuffer(4, ByteRingBuffer.OverflowPolicy.ERROR);
+        write(buffer, "abcd");
+        assertEquals(2, write(buffer, "ef"));
+        assertEquals("abcd", string(buffer.read()));
+    }
+
+    @Test
+    public void overflowKeepsTheSearchInStep() {
+        ByteRingBuffer buffer = new ByteRingBuffer(8, ByteRingBuffer.OverflowPolicy.DROP_OLDEST);
+        write(buffer, "abcdefg");
+        assertEquals(-1, buffer.indexOf(bytes("\n")));
+        write(buffer, "hi\n");
+        assertEquals("cdefghi\n", string(buffer.readUntil(bytes("\n"))));
+    }
+
+    @Test
+    public void resizeKeepsTheBufferedBytes() {
+        ByteRingBuffer buffer = new ByteRingBuffer(8, ByteRingBuffer.OverflowPolicy.ERROR);
+        write(buffer, "abcdef");
+        buffer.read(4);
+        write(buffer, "ghij");
+        assertEquals(0, buffer.resize(16));
+        assertEquals(16, buffer.capacity());
+        write(buffer, "klmnop");
+        assertEquals("efghijklmnop", string(buffer.read()));
+    }
+
+    @Test
+    public void resizeDropsTheOldestBytesThatDoNotFit() {
+        ByteRingBuffer buffer = new ByteRingBuffer(8, ByteRingBuffer.OverflowPolicy.ERROR);
+        write(buffer, "abcdefgh");
+        assertEquals(5, buffer.resize(3));
+        assertEquals("fgh", string(buffer.read()));
+        assertEquals(5, buffer.getDroppedBytes());
+    }
+
+    @Test
+    public void clearEmptiesTheBuffer() {
+        ByteRingBuffer buffer = new ByteRingBuffer(8, ByteRingBuffer.OverflowPolicy.ERROR);
+        write(buffer, "ab\ncd");
+        buffer.clear();
+        assertEquals(0, buffer.available());
+        assertNull(buffer.readUntil(bytes("\n")));
+        write(buffer, "ef\n");
+        assertEquals("ef\n", string(buffer.readUntil(bytes("\n"))));
+    }
+
+    @Test
+    public void newCursorStartsAfterTheBufferedBytes() {
+        ByteRingBuffer buffer = new ByteRingBuffer(16, ByteRingBuffer.OverflowPolicy.ERROR);
+        write(buffer, "old\n");
+        ByteRingBuffer.Cursor cursor = buffer.newCursor();
+        assertNull(cursor.readUntil(bytes("\n")));
+        assertEquals(4, buffer.available());
+        write(buffer, "new\n");
+        assertEquals("new\n", string(cursor.readUntil(bytes("\n"))));
+        assertNull(cursor.readUntil(bytes("\n")));
+        // read only sees the data after the last line the cursor returned
+        assertEquals(0, buffer.available());
+    }
+
+    @Test
+    public void directReadsSkipWhatACursorReturned() {
+        ByteRingBuffer buffer = new ByteRingBuffer(16, ByteRingBuffer.OverflowPolicy.ERROR);
+        ByteRingBuffer.Cursor cursor = buffer.newCursor();
+        write(buffer, "a\nb\nc");
+        assertEquals("a\n", string(cursor.readUntil(bytes("\n"))));
+        assertEquals(3, buffer.available());
+        assertEquals("b\nc", string(buffer.peek()));
+        assertEquals("b\n", string(buffer.readUntil(bytes("\n"))));
+        // the cursor skips what was read directly
+        write(buffer, "d\n");
+        assertEquals("cd\n", string(cursor.readUntil(bytes("\n"))));
+        assertEquals(0, buffer.available());
+    }
+
+    @Test
+    public void bytesAreRemovedOnceEveryCursorReadThem() {
+        ByteRingBuffer buffer = new ByteRingBuffer(8, ByteRingBuffer.OverflowPolicy.ERROR);
+        ByteRingBuffer.Cursor lines = buffer.newCursor();
+        ByteRingBuffer.Cursor records = buffer.newCursor();
+        write(buffer, "a\nb;c\n");
+        assertEquals("a\n", string(lines.readUntil(bytes("\n"))));
+        assertEquals("b;c\n", string(lines.readUntil(bytes("\n"))));
+        assertEquals("a\nb;", string(records.readUntil(bytes(";"))));
+        // only "c\n" is left for the records cursor, there is room for six more bytes
+        assertEquals(0, write(buffer, "d;e\nf;"));
+        assertEquals("c\nd;", string(records.readUntil(bytes(";"))));
+        assertEquals("d;e\n", string(lines.readUntil(bytes("\n"))));
+        assertEquals("e\nf;", string(records.readUntil(bytes(";"))));
+        assertEquals(0, buffer.available());
+    }
+
+    @Test
+    public void laggingCursorDoesNotHoldUpTheOthers() {
+        ByteRingBuffer buffer = new ByteRingBuffer(8, ByteRingBuffer.OverflowPolicy.ERROR);
+        ByteRingBuffer.Cursor lines = buffer.newCursor();
+        ByteRingBuffer.Cursor records = buffer.newCursor();
+        write(buffer, "ab\ncd\n");
+        assertEquals("ab\n", string(lines.readUntil(bytes("\n"))));
+        assertEquals("cd\n", string(lines.readUntil(bytes("\n"))));
+        assertNull(records.readUntil(bytes(";")));
+
+        // the oldest byte only the records cursor needed makes room
+        assertEquals(1, write(buffer, "ef\n"));
+        assertEquals(1, buffer.getDroppedBytes());
+        assertEquals("ef\n", string(lines.readUntil(bytes("\n"))));
+        assertEquals(1, write(buffer, ";"));
+        assertEquals("\ncd\nef\n;", string(records.readUntil(bytes(";"))));
+        assertEquals(0, buffer.available());
+    }
+
+    @Test
+    public void overflowPolicyAppliesWhenNoCursorIsAhead() {
+        ByteRingBuffer buffer = new ByteRingBuffer(8, ByteRingBuffer.OverflowPolicy.ERROR);
+        ByteRingBuffer.Cursor lines = buffer.newCursor();
+        ByteRingBuffer.Cursor records = buffer.newCursor();
+        write(buffer, "abcdefg");
+        assertEquals(2, write(buffer, "hi\n"));
+        assertNull(lines.readUntil(bytes("\n")));
+        assertNull(records.readUntil(bytes(";")));
+        assertEquals("abcdefgh", string(buffer.read()));
+    }
+
+    @Test
+    public void removingACursorReleasesTheBytesOnlyItNeeded() {
+        ByteRingBuffer buffer = new ByteRingBuffer(8, ByteRingBuffer.OverflowPolicy.ERROR);
+        ByteRingBuffer.Cursor lines = buffer.newCursor();
+        ByteRingBuffer.Cursor records = buffer.newCursor();
+        write(buffer, "abcdef\n");
+        assertEquals("abcdef\n", string(lines.readUntil(bytes("\n"))));
+        assertNull(records.readUntil(bytes(";")));
+        buffer.removeCursor(records);
+        assertEquals(0, write(buffer, "12345678"));
+        assertEquals("12345678", string(buffer.read()));
+    }
+
+    @Test
+    public void removedCursorKeepsWhatItReturnedFromTheReads() {
+        ByteRingBuffer buffer = new ByteRingBuffer(16, ByteRingBuffer.OverflowPolicy.ERROR);
+        ByteRingBuffer.Cursor lines = buffer.newCursor();
+        ByteRingBuffer.Cursor response = buffer.newCursor();
+        write(buffer, "OK\nmore");
+        assertEquals("OK\n", string(response.readUntil(bytes("OK\n"))));
+        buffer.removeCursor(response);
+        assertEquals("more", string(buffer.peek()));
+        assertEquals("OK\n", string(lines.readUntil(bytes("\n"))));
+        assertEquals("more", string(buffer.read()));
+    }
+
+    @Test
+    public void parsesOverflowPolicyNames() {
+        assertEquals(ByteRingBuffer.OverflowPolicy.DROP_OLDEST, ByteRingBuffer.OverflowPolicy.fromString("dropOldest"));
+        assertEquals(ByteRingBuffer.OverflowPolicy.DROP_NEWEST, ByteRingBuffer.OverflowPolicy.fromString("dropNewest"));
+        assertEquals(ByteRingBuffer.OverflowPolicy.ERROR, ByteRingBuffer.OverflowPolicy.fromString("error"));
+        assertNull(ByteRingBuffer.OverflowPolicy.fromString("drop"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroCapacity() {
+        new ByteRingBuffer(0, ByteRingBuffer.OverflowPolicy.ERROR);
+    }
+
+    @Test
+    public void readsMatchAReferenceModel() {
+        // random writes and reads against a plain byte queue
+        Random random = new Random(1);
+        ByteRingBuffer buffer = new ByteRingBuffer(37, ByteRingBuffer.OverflowPolicy.DROP_OLDEST);
+        ArrayDeque<Byte> model = new ArrayDeque<Byte>();
+        byte next = 0;
+        for (int round = 0; round < 2000; round++) {
+            byte[] chunk = new byte[random.nextInt(50)];
+            for (int i = 0; i < chunk.length; i++) {
+                chunk[i] = next++;
+                model.addLast(chunk[i]);
+            }
+            buffer.write(chunk, 0, chunk.length);
+            while (model.size() > 37) {
+                model.removeFirst();
+            }
+            byte[] out = buffer.read(random.nextInt(40));
+            for (byte b : out) {
+                assertEquals((byte) model.removeFirst(), b);
+            }
+            assertEquals(model.size(), buffer.available());
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.megster.cordova;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConnectRaceTest {
+
+    /**
+     * Connects to socket when released, or fails. Like a blocking Bluetooth
+     * connect, a cancel does not stop a connect that is about to succeed.
+     */
+    private static class FakeAttempt implements ConnectRace.Attempt<String> {
+        final String socket;
+        final boolean fails;
+        final long delayMillis;
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+        private boolean connected;
+
+        FakeAttempt(String socket, boolean fails, long delayMillis) {
+            this.socket = socket;
+            this.fails = fails;
+            this.delayMillis = delayMillis;
+        }
+
+        public String connect() throws IOException {
+            try {
+                release.await();
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted");
+            }
+            if (fails) throw new IOException(socket + " failed");
+            synchronized (this) {
+                connected = true;
+            }
+            return socket;
+        }
+
+        public synchronized void cancel() {
+            if (connected) {
+                closed.countDown();
+            } else {
+                cancelled.countDown();
+            }
+        }
+
+        boolean wasCancelled() {
+            return cancelled.getCount() == 0;
+        }
+
+        boolean wasClosed() throws InterruptedException {
+            return closed.await(2, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Records the outcome of the race.
+     */
+    private static class Outcome implements ConnectRace.Listener<String> {
+        final BlockingQueue<String> events = new LinkedBlockingQueue<String>();
+        volatile long millis = -1;
+
+        public void onConnected(int index, String socket, long millis) {
+            this.millis = millis;
+            events.add(index + " " + socket);
+        }
+
+        public void onFailed(String message) {
+            events.add(message);
+        }
+
+        String next() throws InterruptedException {
+            String event = events.poll(2, TimeUnit.SECONDS);
+            if (event == null) fail("race did not finish");
+            return event;
+        }
+    }
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Outcome outcome = new Outcome();
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private ConnectRace<String> start(long timeoutMillis, FakeAttempt... attempts) {
+        ConnectRace<String> race = new ConnectRace<String>(Arrays.asList(attempts), outcome);
+        race.start(scheduler, timeoutMillis);
+        return race;
+    }
+
+    @Test
+    public void firstWinnerIsKeptAndTheOthersCancelled() throws Exception {
+        FakeAttempt a = new FakeAttempt("a", false, 0);
+        FakeAttempt b = new FakeAttempt("b", false, 0);
+        FakeAttempt c = new FakeAttempt("c", false, 0);
+        start(0, a, b, c);
+        b.release.countDown();
+        assertEquals("1 b", outcome.next());
+        assertTrue(a.wasCancelled());
+        assertTrue(c.wasCancelled());
+        assertFalse(b.wasCancelled());
+        a.release.countDown();
+        c.release.countDown();
+    }
+
+    @Test
+    public void loserThatConnectsLateIsClosed() throws Exception {
+        FakeAttempt a = new FakeAttempt("a", false, 0);
+        FakeAttempt b = new FakeAttempt("b", false, 0);
+        start(0, a, b);
+        a.release.countDown();
+        assertEquals("0 a", outcome.next());
+        b.release.countDown();
+        assertTrue(b.wasClosed());
+        assertNull(outcome.events.poll(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, a.closed.getCount());
+    }
+
+    @Test
+    public void failsWhenEveryAttemptFails() throws Exception {
+        FakeAttempt a = new FakeAttempt("a", true, 0);
+        FakeAttempt b = new FakeAttempt("b", true, 0);
+        start(0, a, b);
+        a.release.countDown();
+        assertNull(outcome.events.poll(100, TimeUnit.MILLISECONDS));
+        b.release.countDown();
+        assertEquals("Unable to connect to any device", outcome.next());
+    }
+
+    @Test
+    public void failingAttemptDoesNotEndTheRace() throws Exception {
+        FakeAttempt a = new FakeAttempt("a", true, 0);
+        FakeAttempt b = new FakeAttempt("b", false, 0);
+        start(0, a, b);
+        a.release.countDown();
+        b.release.countDown();
+        assertEquals("1 b", outcome.next());
+    }
+
+    @Test
+    public void timesOutAndCancelsTheAttempts() throws Exception {
+        FakeAttempt a = new FakeAttempt("a", false, 0);
+        FakeAttempt b = new FakeAttempt("b", false, 0);
+        start(100, a, b);
+        assertEquals("Connect timed out", outcome.next());
+        assertTrue(a.wasCancelled());
+        assertTrue(b.wasCancelled());
+        a.release.countDown();
+        b.release.countDown();
+        assertTrue(a.wasClosed());
+        assertTrue(b.wasClosed());
+        assertNull(outcome.events.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void cancelledRaceReportsNothing() throws Exception {
+        FakeAttempt a = new FakeAttempt("a", false, 0);
+        ConnectRace<String> race = start(0, a);
+        race.cancel();
+        assertTrue(a.wasCancelled());
+        a.release.countDown();
+        assertTrue(a.wasClosed());
+        assertNull(outcome.events.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void reportsTheTimeFromTheStartOfTheRace() throws Exception {
+        FakeAttempt a = new FakeAttempt("a", false, 150);
+        start(0, a);
+        a.release.countDown();
+        assertEquals("0 a", outcome.next());
+        assertTrue(outcome.millis + "ms", outcome.millis >= 150);
+    }
+}
@@ -0,0 +1,168 @@
+package com.megster.cordova;
+
+import org.apache.cordova.PluginResult;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConnectionRegistryTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ConnectionRegistry registry = new ConnectionRegistry(scheduler);
+    private final Device deviceA = new Device();
+    private final Device deviceB = new Device();
+
+    @After
+    public void tearDown() {
+        registry.destroy();
+        scheduler.shutdownNow();
+    }
+
+    // Connect the device on the connection the registry picks for it
+    private SerialSocket connect(String address, Device device, int capacity) throws Exception {
+        return connect(registry.connectionFor(address), address, device, capacity);
+    }
+
+    private static SerialSocket connect(SerialConnection connection, String address, Device device, int capacity)
+            throws Exception {
+        Results connected = new Results();
+        connection.connect(new PipeTransport(address, capacity, device), null, connected);
+        SerialSocket socket = device.next();
+        assertTrue(Results.isOk(connected.nextResult()));
+        return socket;
+    }
+
+    private static void assertClosed(SerialSocket socket) {
+        try {
+            socket.getInputStream().read();
+            fail("still connected");
+        } catch (IOException e) {
+            // the phone closed the link
+        }
+    }
+
+    @Test
+    public void idleDefaultConnectionIsReused() throws Exception {
+        SerialConnection first = registry.connectionFor("a");
+        assertSame(registry.getDefault(), first);
+        connect(first, "a", deviceA, 64);
+
+        // a device keeps its connection, another one gets a new connection
+        assertSame(first, registry.connectionFor("a"));
+        SerialConnection second = registry.connectionFor("b");
+        assertNotSame(first, second);
+        connect(second, "b", deviceB, 64);
+        assertSame(first, registry.find("a"));
+        assertSame(second, registry.find("b"));
+        assertNull(registry.find("c"));
+
+        // the default connection is free again after its device disconnects
+        registry.disconnect(first);
+        assertSame(registry.getDefault(), registry.connectionFor("c"));
+    }
+
+    @Test(timeout = 10000)
+    public void connectionsHaveTheirOwnBuffersSubscribersAndWriteQueues() throws Exception {
+        SerialSocket socketA = connect("a", deviceA, 16);
+        SerialSocket socketB = connect("b", deviceB, 16);
+        SerialConnection a = registry.find("a");
+        SerialConnection b = registry.find("b");
+
+        Results linesA = new Results();
+        Results linesB = new Results();
+        a.subscribe("\n", null, linesA);
+        b.subscribe("\n", null, linesB);
+        linesA.next();
+        linesB.next();
+
+        Device.send(socketA, "from a\nrest a");
+        Device.send(socketB, "from b\n");
+        assertEquals("from a\n", linesA.nextResult().getMessage());
+        assertEquals("from b\n", linesB.nextResult().getMessage());
+        assertNull(linesA.poll(100));
+        assertNull(linesB.poll(0));
+        assertEquals(0, b.available());
+        assertEquals("rest a", a.read());
+
+        // device a does not read, its writes wait without holding up b
+        Results writtenA = new Results();
+        Results writtenB = new Results();
+        byte[] large = new byte[1000];
+        Arrays.fill(large, (byte) 'x');
+        a.write(large, writtenA);
+        b.write("hello".getBytes(Device.ASCII), writtenB);
+        assertEquals("hello", Device.receive(socketB, 5));
+        assertTrue(Results.isOk(writtenB.nextResult()));
+        assertNull(writtenA.poll(100));
+        assertTrue(a.getWriteStats().getLong("queued") > 0);
+        assertEquals(0, b.getWriteStats().getLong("queued"));
+    }
+
+    @Test(timeout = 10000)
+    public void disconnectAllDisconnectsEveryDevice() throws Exception {
+        SerialSocket socketA = connect("a", deviceA, 64);
+        SerialSocket socketB = connect("b", deviceB, 64);
+        SerialConnection b = registry.find("b");
+
+        registry.disconnectAll();
+
+        assertClosed(socketA);
+        assertClosed(socketB);
+        assertFalse(registry.getDefault().isActive());
+        assertFalse(b.isActive());
+        // only the default connection is kept
+        assertNull(registry.find("b"));
+        assertSame(registry.getDefault(), registry.connectionFor("b"));
+    }
+
+    @Test
+    public void disconnectOneDeviceKeepsTheOthers() throws Exception {
+        connect("a", deviceA, 64);
+        SerialSocket socketB = connect("b", deviceB, 64);
+        SerialConnection a = registry.find("a");
+        SerialConnection b = registry.find("b");
+
+        Results lines = new Results();
+        b.subscribe("\n", null, lines);
+        lines.next();
+        registry.disconnect(a);
+
+        assertFalse(a.isActive());
+        assertTrue(b.isConnected());
+        Device.send(socketB, "still here\n");
+        PluginResult result = lines.nextResult();
+        assertEquals("still here\n", result.getMessage());
+    }
+
+    @Test
+    public void releaseIdleForgetsOnlyIdleConnections() throws Exception {
+        connect("a", deviceA, 64);
+        connect("b", deviceB, 64);
+        SerialConnection b = registry.find("b");
+
+        // nothing is released while one of the devices is connected
+        assertEquals("b", registry.releaseIdle(Arrays.asList("c", "b")));
+        assertSame(b, registry.find("b"));
+
+        b.disconnect();
+        assertNull(registry.releaseIdle(Arrays.asList("b")));
+        assertNull(registry.find("b"));
+
+        // the default connection is never forgotten
+        registry.getDefault().disconnect();
+        assertNull(registry.releaseIdle(Arrays.asList("a")));
+        assertSame(registry.getDefault(), registry.find("a"));
+    }
+}
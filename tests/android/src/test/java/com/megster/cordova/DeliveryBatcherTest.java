@@ -0,0 +1,145 @@
+package com.megster.cordova;
+
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Base64;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DeliveryBatcherTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Results results = new Results();
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(Device.ASCII);
+    }
+
+    @Test
+    public void fromOptionsOnlyBatchesWhenAsked() throws Exception {
+        assertNull(DeliveryBatcher.fromOptions(null, results, scheduler));
+        assertNull(DeliveryBatcher.fromOptions(new JSONObject("{maxBatchSize: 2}"), results, scheduler));
+        DeliveryBatcher batcher = DeliveryBatcher.fromOptions(new JSONObject("{batch: true, maxBatchSize: 2}"), results, scheduler);
+        batcher.addLine("a");
+        assertNull(results.poll(0));
+        batcher.addLine("b");
+        assertEquals("[\"a\",\"b\"]", results.next().getMessage());
+    }
+
+    @Test
+    public void flushesWhenTheBatchIsFull() throws Exception {
+        DeliveryBatcher batcher = new DeliveryBatcher(results, scheduler, 60000, 3);
+        batcher.addLine("one");
+        batcher.addLine("two");
+        assertNull(results.poll(50));
+        batcher.addLine("three");
+
+        PluginResult result = results.next();
+        assertTrue(Results.isOk(result));
+        assertTrue(result.getKeepCallback());
+        assertEquals("[\"one\",\"two\",\"three\"]", result.getMessage());
+
+        batcher.addLine("four");
+        assertNull(results.poll(50));
+    }
+
+    @Test
+    public void flushesAfterMaxLatency() throws Exception {
+        DeliveryBatcher batcher = new DeliveryBatcher(results, scheduler, 100, 64);
+        long start = System.nanoTime();
+        batcher.addLine("one");
+        batcher.addValue(new JSONArray("[1.5, 2]"));
+
+        PluginResult result = results.next();
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        assertTrue(elapsed + "ms", elapsed >= 100);
+        assertEquals("[\"one\",[1.5,2]]", result.getMessage());
+
+        // the latency counts from the first item of the next batch
+        batcher.addLine("two");
+        assertEquals("[\"two\"]", results.next().getMessage());
+    }
+
+    @Test
+    public void chunksAreSentWithTheirOffsets() throws Exception {
+        DeliveryBatcher batcher = new DeliveryBatcher(results, scheduler, 60000, 3);
+        byte[] frame = bytes("xxabcxx");
+        batcher.addChunk(frame, 2, 3);
+        batcher.addChunk(bytes("de"), 0, 2);
+        batcher.addChunk(bytes("fghi"), 0, 4);
+
+        PluginResult result = results.next();
+        assertEquals(PluginResult.MESSAGE_TYPE_MULTIPART, result.getMessageType());
+        assertTrue(result.getKeepCallback());
+        assertEquals(2, result.getMultipartMessagesSize());
+        PluginResult data = result.getMultipartMessage(0);
+        assertEquals(PluginResult.MESSAGE_TYPE_ARRAYBUFFER, data.getMessageType());
+        assertEquals("abcdefghi", new String(Base64.getDecoder().decode(data.getMessage()), Device.ASCII));
+        assertEquals("[0,3,5]", result.getMultipartMessage(1).getMessage());
+
+        // the next batch starts at offset 0 again
+        batcher.addChunk(bytes("j"), 0, 1);
+        batcher.flush();
+        assertEquals("[0]", results.next().getMultipartMessage(1).getMessage());
+    }
+
+    @Test
+    public void flushSendsWhatIsPendingAndNothingWhenEmpty() throws Exception {
+        DeliveryBatcher batcher = new DeliveryBatcher(results, scheduler, 100, 64);
+        batcher.flush();
+        assertNull(results.poll(0));
+
+        batcher.addLine("one");
+        batcher.flush();
+        assertEquals("[\"one\"]", results.next().getMessage());
+        // the scheduled flush was cancelled
+        assertNull(results.poll(200));
+    }
+
+    @Test
+    public void unsubscribeFlushesBeforeClosing() throws Exception {
+        SubscriberRegistry.Subscriber subscriber = SubscriberRegistry.Subscriber.fromOptions(null,
+                new JSONObject("{delimiter: '\\n', batch: true, maxLatency: 60000}"), results, scheduler);
+        subscriber.sendLine("one\n");
+        subscriber.sendLine("two\n");
+        assertNull(results.poll(0));
+
+        subscriber.close();
+
+        assertEquals("[\"one\\n\",\"two\\n\"]", results.next().getMessage());
+        assertEquals(PluginResult.Status.NO_RESULT.ordinal(), results.next().getStatus());
+    }
+
+    @Test
+    public void statsCountTheItemsAndResults() throws Exception {
+        DeliveryBatcher batcher = new DeliveryBatcher(results, scheduler, 60000, 4);
+        for (int i = 0; i < 10; i++) {
+            batcher.addLine("line " + i);
+        }
+
+        // two full batches sent, two lines pending
+        JSONObject stats = batcher.getStats();
+        assertEquals(10, stats.getLong("items"));
+        assertEquals(2, stats.getLong("results"));
+        assertEquals(6, stats.getLong("saved"));
+
+        batcher.flush();
+        stats = batcher.getStats();
+        assertEquals(10, stats.getLong("items"));
+        assertEquals(3, stats.getLong("results"));
+        assertEquals(7, stats.getLong("saved"));
+    }
+}
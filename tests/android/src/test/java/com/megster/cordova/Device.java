@@ -0,0 +1,54 @@
+package com.megster.cordova;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.fail;
+
+/**
+ * The device end of PipeTransport connections, one socket per connection.
+ */
+class Device implements PipeTransport.Peer {
+
+    static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final BlockingQueue<SerialSocket> sockets = new LinkedBlockingQueue<SerialSocket>();
+
+    public void accept(SerialSocket socket) {
+        sockets.add(socket);
+    }
+
+    /**
+     * Return the device end of the next connection. */
+    SerialSocket next() throws InterruptedException {
+        SerialSocket socket = sockets.poll(2, TimeUnit.SECONDS);
+        if (socket == null) fail("not connected");
+        return socket;
+    }
+
+    SerialSocket poll(long millis) throws InterruptedException {
+        return sockets.poll(millis, TimeUnit.MILLISECONDS);
+    }
+
+    static void send(SerialSocket socket, String text) throws IOException {
+        socket.getOutputStream().write(text.getBytes(ASCII));
+    }
+
+    /**
+     * Read exactly count bytes sent by the phone. */
+    static String receive(SerialSocket socket, int count) throws IOException {
+        InputStream in = socket.getInputStream();
+        byte[] data = new byte[count];
+        int length = 0;
+        while (length < count) {
+            int n = in.read(data, length, count - length);
+            if (n < 0) fail("closed after " + length + " bytes");
+            length += n;
+        }
+        return new String(data, ASCII);
+    }
+}
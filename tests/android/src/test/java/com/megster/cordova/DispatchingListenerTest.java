@@ -0,0 +1,234 @@
+package com.megster.cordova;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class DispatchingListenerTest {
+
+    private static final int SAMPLES = 9;
+    private static final long BUSY_MILLIS = 100;
+
+    // Stands in for the UI thread, kept busy with long tasks like a slow WebView
+    private final ExecutorService uiThread = Executors.newSingleThreadExecutor();
+    private volatile boolean busy = true;
+
+    @After
+    public void tearDown() {
+        busy = false;
+        uiThread.shutdownNow();
+    }
+
+    /**
+     * Records when each read arrives.
+     */
+    private static class ReadRecorder implements BluetoothSerialListener {
+        final BlockingQueue<Long> reads = new LinkedBlockingQueue<Long>();
+        final BlockingQueue<Integer> states = new LinkedBlockingQueue<Integer>();
+
+        public void onStateChange(int state) {
+            states.add(state);
+        }
+
+        public void onDeviceName(String name) {
+        }
+
+        public void onRead(ChunkPool.Chunk chunk) {
+            chunk.recycle();
+            reads.add(System.nanoTime());
+        }
+
+        public void onConnectionError(String message) {
+        }
+    }
+
+    /**
+     * Posts every event to the UI thread, the way the Handler did.
+     */
+    private class UiThreadListener implements BluetoothSerialListener {
+        final ReadRecorder recorder;
+
+        UiThreadListener(ReadRecorder recorder) {
+            this.recorder = recorder;
+        }
+
+        public void onStateChange(final int state) {
+            uiThread.execute(new Runnable() {
+                public void run() {
+                    recorder.onStateChange(state);
+                }
+            });
+        }
+
+        public void onDeviceName(String name) {
+        }
+
+        public void onRead(final ChunkPool.Chunk chunk) {
+            uiThread.execute(new Runnable() {
+                public void run() {
+                    recorder.onRead(chunk);
+                }
+            });
+        }
+
+        public void onConnectionError(String message) {
+        }
+    }
+
+    private void keepUiThreadBusy() {
+        uiThread.execute(new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(BUSY_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (busy) {
+                    keepUiThreadBusy();
+                }
+            }
+        });
+    }
+
+    // Connect over a pipe, write one byte at a time and return the median read latency in ms
+    private long medianReadLatency(BluetoothSerialListener listener, ReadRecorder recorder) throws Exception {
+        final BlockingQueue<SerialSocket> device = new LinkedBlockingQueue<SerialSocket>();
+        BluetoothSerialService service = new BluetoothSerialService(listener);
+        service.connect(new PipeTransport("pipe", 1024, new PipeTransport.Peer() {
+            public void accept(SerialSocket socket) {
+                device.add(socket);
+            }
+        }));
+        try {
+            OutputStream out = device.poll(5, TimeUnit.SECONDS).getOutputStream();
+            assertEquals(BluetoothSerialService.STATE_CONNECTING, (int) recorder.states.poll(5, TimeUnit.SECONDS));
+            assertEquals(BluetoothSerialService.STATE_CONNECTED, (int) recorder.states.poll(5, TimeUnit.SECONDS));
+
+            long[] latencies = new long[SAMPLES];
+            for (int i = 0; i < SAMPLES; i++) {
+                long sent = System.nanoTime();
+                out.write(i);
+                Long received = recorder.reads.poll(5, TimeUnit.SECONDS);
+                assertNotNull(received);
+                latencies[i] = TimeUnit.NANOSECONDS.toMillis(received - sent);
+            }
+            Arrays.sort(latencies);
+            return latencies[SAMPLES / 2];
+        } finally {
+            service.stop();
+        }
+    }
+
+    @Test
+    public void readsDoNotWaitForABusyUiThread() throws Exception {
+        ReadRecorder onUiThread = new ReadRecorder();
+        ReadRecorder dispatched = new ReadRecorder();
+        DispatchingListener dispatcher = new DispatchingListener(dispatched, 16);
+
+        keepUiThreadBusy();
+        long uiLatency = medianReadLatency(new UiThreadListener(onUiThread), onUiThread);
+        long dispatchLatency = medianReadLatency(dispatcher, dispatched);
+        dispatcher.shutdown();
+
+        assertTrue("UI thread latency " + uiLatency + "ms", uiLatency >= BUSY_MILLIS / 2);
+        assertTrue("dispatch latency " + dispatchLatency + "ms", dispatchLatency < BUSY_MILLIS / 5);
+    }
+
+    @Test
+    public void stateChangesDoNotWaitForRoom() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final ReadRecorder recorder = new ReadRecorder();
+        BluetoothSerialListener slow = new ReadRecorder() {
+            public void onRead(ChunkPool.Chunk chunk) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                recorder.onRead(chunk);
+            }
+
+            public void onStateChange(int state) {
+                recorder.onStateChange(state);
+            }
+        };
+        final DispatchingListener dispatcher = new DispatchingListener(slow, 2);
+        final ChunkPool pool = new ChunkPool(16, 4);
+
+        // one read is running and one is waiting, which uses up the room
+        for (int i = 0; i < 2; i++) {
+            dispatcher.onRead(pool.acquire());
+        }
+        final Object serviceLock = new Object();
+        Thread producer = new Thread(new Runnable() {
+            public void run() {
+                synchronized (serviceLock) {
+                    dispatcher.onStateChange(BluetoothSerialService.STATE_NONE);
+                }
+            }
+        });
+        producer.start();
+        producer.join(1000);
+        assertFalse("state change blocked", producer.isAlive());
+
+        // the read that comes next waits for room
+        Thread reader = new Thread(new Runnable() {
+            public void run() {
+                dispatcher.onRead(pool.acquire());
+            }
+        });
+        reader.start();
+        reader.join(200);
+        assertTrue("read did not wait", reader.isAlive());
+
+        release.countDown();
+        reader.join(1000);
+        assertFalse(reader.isAlive());
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(recorder.reads.poll(1, TimeUnit.SECONDS));
+        }
+        assertEquals(BluetoothSerialService.STATE_NONE, (int) recorder.states.poll(1, TimeUnit.SECONDS));
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void shutdownWakesWaitingReads() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final DispatchingListener dispatcher = new DispatchingListener(new ReadRecorder() {
+            public void onRead(ChunkPool.Chunk chunk) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, 1);
+        final ChunkPool pool = new ChunkPool(16, 4);
+        dispatcher.onRead(pool.acquire());
+        Thread reader = new Thread(new Runnable() {
+            public void run() {
+                dispatcher.onRead(pool.acquire());
+            }
+        });
+        reader.start();
+        reader.join(200);
+        assertTrue(reader.isAlive());
+        dispatcher.shutdown();
+        reader.join(1000);
+        assertFalse("read still waiting after shutdown", reader.isAlive());
+        release.countDown();
+    }
+}
@@ -0,0 +1,137 @@
+package com.megster.cordova;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ExpectationTest {
+
+    private static final Charset UTF_8 = TextDecoder.UTF_8;
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(UTF_8);
+    }
+
+    private static void write(ByteRingBuffer buffer, byte[] b) {
+        buffer.write(b, 0, b.length);
+    }
+
+    private static ByteRingBuffer buffer() {
+        return new ByteRingBuffer(256, ByteRingBuffer.OverflowPolicy.DROP_OLDEST);
+    }
+
+    private static Expectation expect(ByteRingBuffer buffer, String regex) {
+        Expectation expectation = new Expectation(null, Pattern.compile(regex), regex, null);
+        expectation.start(buffer, UTF_8);
+        return expectation;
+    }
+
+    @Test
+    public void literalMatchesAcrossWrites() {
+        ByteRingBuffer buffer = buffer();
+        Expectation expectation = new Expectation(bytes("OK\r\n"), null, "OK", null);
+        expectation.start(buffer, UTF_8);
+        write(buffer, bytes("junk O"));
+        assertEquals(-1, expectation.match());
+        write(buffer, bytes("K\r\n rest"));
+        assertEquals(9, expectation.match());
+        assertEquals("junk OK\r\n", expectation.take(9));
+        expectation.finish();
+        assertEquals(" rest", new String(buffer.read(), UTF_8));
+    }
+
+    @Test
+    public void staleResponseInTheBufferIsNotMatched() {
+        ByteRingBuffer buffer = buffer();
+        write(buffer, bytes("OK\r\n"));
+        Expectation literal = new Expectation(bytes("OK\r\n"), null, "OK", null);
+        literal.start(buffer, UTF_8);
+        assertEquals(-1, literal.match());
+        literal.finish();
+
+        Expectation pattern = expect(buffer, "OK\r\n");
+        assertEquals(-1, pattern.match());
+        write(buffer, bytes("ERROR\r\nOK\r\n"));
+        assertEquals(11, pattern.match());
+        assertEquals("ERROR\r\nOK\r\n", pattern.take(11));
+        pattern.finish();
+        // the unread old response goes with the new one
+        assertEquals(0, buffer.available());
+    }
+
+    @Test
+    public void emptyMatchesAreNoResponse() {
+        assertTrue(Expectation.matchesEmpty(Pattern.compile("x*")));
+        assertTrue(Expectation.matchesEmpty(Pattern.compile("^")));
+        assertFalse(Expectation.matchesEmpty(Pattern.compile("OK")));
+
+        ByteRingBuffer buffer = buffer();
+        Expectation expectation = expect(buffer, "(?<=K)|OK\n");
+        write(buffer, bytes("OK"));
+        assertEquals(-1, expectation.match());
+        write(buffer, bytes("\n"));
+        assertEquals(3, expectation.match());
+    }
+
+    @Test
+    public void patternCountsTheBytesOfMultibyteCharacters() {
+        ByteRingBuffer buffer = buffer();
+        Expectation expectation = expect(buffer, "\\d+°C\r\n");
+        byte[] response = bytes("température: 21°C\r\n");
+        int split = response.length - 3;  // between the two bytes of °
+        write(buffer, Arrays.copyOfRange(response, 0, split));
+        assertEquals(-1, expectation.match());
+        write(buffer, Arrays.copyOfRange(response, split, response.length));
+        write(buffer, bytes("next"));
+        assertEquals(response.length, expectation.match());
+        assertEquals("température: 21°C\r\n", expectation.take(response.length));
+        expectation.finish();
+        assertEquals("next", new String(buffer.read(), UTF_8));
+    }
+
+    @Test
+    public void patternCountsMalformedBytes() {
+        ByteRingBuffer buffer = buffer();
+        Expectation expectation = expect(buffer, "OK\n");
+        write(buffer, new byte[] { (byte) 0xFF, (byte) 0xC3 });
+        assertEquals(-1, expectation.match());
+        write(buffer, bytes("OK\n!"));
+        assertEquals(5, expectation.match());
+        assertEquals("\uFFFD\uFFFDOK\n", expectation.take(5));
+        expectation.finish();
+        assertEquals("!", new String(buffer.read(), UTF_8));
+    }
+
+    @Test
+    public void patternStartsOverWhenTheBytesAreRead() {
+        ByteRingBuffer buffer = buffer();
+        Expectation expectation = expect(buffer, "^OK\n");
+        write(buffer, bytes("abc"));
+        assertEquals(-1, expectation.match());
+        buffer.read();
+        write(buffer, bytes("OK\n"));
+        assertEquals(3, expectation.match());
+        assertEquals("OK\n", expectation.take(3));
+    }
+
+    @Test
+    public void subscribersStillGetTheResponse() {
+        ByteRingBuffer buffer = buffer();
+        ByteRingBuffer.Cursor lines = buffer.newCursor();
+        Expectation expectation = expect(buffer, "OK\r?\n");
+        write(buffer, bytes("line\nOK\nafter"));
+        assertEquals(8, expectation.match());
+        assertEquals("line\nOK\n", expectation.take(8));
+        expectation.finish();
+        assertEquals("after", new String(buffer.peek(), UTF_8));
+        assertEquals("line\n", new String(lines.readUntil(bytes("\n")), UTF_8));
+        assertEquals("OK\n", new String(lines.readUntil(bytes("\n")), UTF_8));
+        assertEquals("after", new String(buffer.read(), UTF_8));
+    }
+}
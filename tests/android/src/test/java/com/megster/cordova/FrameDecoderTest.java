@@ -0,0 +1,240 @@
+package com.megster.cordova;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FrameDecoderTest {
+
+    /**
+     * Collects copies of the decoded frames.
+     */
+    private static class Frames implements FrameDecoder.Listener {
+        final List<byte[]> frames = new ArrayList<byte[]>();
+
+        public void onFrame(byte[] frame, int offset, int length) {
+            frames.add(Arrays.copyOfRange(frame, offset, offset + length));
+        }
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] out = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            out[i] = (byte) values[i];
+        }
+        return out;
+    }
+
+    // Decode the data one byte at a time, so every frame spans several reads
+    private static Frames decodeByteByByte(FrameDecoder decoder, byte[] data) {
+        Frames frames = new Frames();
+        for (int i = 0; i < data.length; i++) {
+            decoder.decode(data, i, 1, frames);
+        }
+        return frames;
+    }
+
+    private static Frames decode(FrameDecoder decoder, byte[] data) {
+        Frames frames = new Frames();
+        decoder.decode(data, 0, data.length, frames);
+        return frames;
+    }
+
+    private static byte[] cobsEncode(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        for (byte b : data) {
+            if (b == 0) {
+                out.write(block.size() + 1);
+                out.write(block.toByteArray(), 0, block.size());
+                block.reset();
+            } else {
+                block.write(b);
+                if (block.size() == 254) {
+                    out.write(0xFF);
+                    out.write(block.toByteArray(), 0, block.size());
+                    block.reset();
+                }
+            }
+        }
+        out.write(block.size() + 1);
+        out.write(block.toByteArray(), 0, block.size());
+        out.write(0);
+        return out.toByteArray();
+    }
+
+    private static FrameDecoder create(String json) throws JSONException {
+        return FrameDecoder.create(new JSONObject(json));
+    }
+
+    @Test
+    public void createReturnsNullWithoutFraming() throws JSONException {
+        assertNull(FrameDecoder.create(null));
+        assertNull(create("{}"));
+    }
+
+    @Test
+    public void createChecksTheOptions() {
+        String[] invalid = {
+                "{framing: 'length', lengthBytes: 3}",
+                "{framing: 'length', maxFrameSize: 0}",
+                "{framing: 'cobs', maxFrameSize: -1}",
+                "{framing: 'slip', maxFrameSize: 2000000}",
+                "{framing: 'fixed', frameSize: 0}",
+                "{framing: 'fixed', frameSize: 2000000}",
+                "{framing: 'fixed'}",
+                "{framing: 'xmodem'}",
+        };
+        for (String options : invalid) {
+            try {
+                create(options);
+                fail("accepted " + options);
+            } catch (JSONException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void createsEachFraming() throws JSONException {
+        assertTrue(create("{framing: 'length'}") instanceof FrameDecoder.LengthPrefix);
+        assertTrue(create("{framing: 'cobs', maxFrameSize: 1048576}") instanceof FrameDecoder.Cobs);
+        assertTrue(create("{framing: 'slip'}") instanceof FrameDecoder.Slip);
+        assertTrue(create("{framing: 'fixed', frameSize: 3}") instanceof FrameDecoder.FixedSize);
+    }
+
+    @Test
+    public void lengthPrefixBigEndian() {
+        FrameDecoder decoder = new FrameDecoder.LengthPrefix(2, false, 16);
+        Frames frames = decodeByteByByte(decoder, bytes(0, 3, 'a', 'b', 'c', 0, 1, 'd'));
+        assertEquals(2, frames.frames.size());
+        assertArrayEquals(bytes('a', 'b', 'c'), frames.frames.get(0));
+        assertArrayEquals(bytes('d'), frames.frames.get(1));
+    }
+
+    @Test
+    public void lengthPrefixLittleEndianFourBytes() {
+        FrameDecoder decoder = new FrameDecoder.LengthPrefix(4, true, 300);
+        byte[] data = new byte[4 + 258];
+        data[0] = 2;
+        data[1] = 1;
+        data[4] = 42;
+        Frames frames = decode(decoder, data);
+        assertEquals(1, frames.frames.size());
+        assertEquals(258, frames.frames.get(0).length);
+        assertEquals(42, frames.frames.get(0)[0]);
+    }
+
+    @Test
+    public void lengthPrefixSkipsEmptyFrames() {
+        FrameDecoder decoder = new FrameDecoder.LengthPrefix(1, false, 16);
+        Frames frames = decode(decoder, bytes(0, 0, 1, 'x'));
+        assertEquals(1, frames.frames.size());
+        assertArrayEquals(bytes('x'), frames.frames.get(0));
+    }
+
+    @Test
+    public void lengthPrefixDropsOversizedFramesAndStaysInStep() {
+        FrameDecoder decoder = new FrameDecoder.LengthPrefix(1, false, 2);
+        Frames frames = decodeByteByByte(decoder, bytes(3, 'a', 'b', 'c', 2, 'd', 'e'));
+        assertEquals(1, frames.frames.size());
+        assertArrayEquals(bytes('d', 'e'), frames.frames.get(0));
+        assertEquals(1, decoder.getDroppedFrames());
+    }
+
+    @Test
+    public void lengthPrefixResetDropsThePartialFrame() {
+        FrameDecoder decoder = new FrameDecoder.LengthPrefix(2, false, 16);
+        decode(decoder, bytes(0, 5, 'a'));
+        decoder.reset();
+        Frames frames = decode(decoder, bytes(0, 1, 'b'));
+        assertEquals(1, frames.frames.size());
+        assertArrayEquals(bytes('b'), frames.frames.get(0));
+    }
+
+    @Test
+    public void cobsDecodesZerosInTheData() {
+        FrameDecoder decoder = new FrameDecoder.Cobs(16);
+        Frames frames = decodeByteByByte(decoder, bytes(3, 0x11, 0x22, 2, 0x33, 0, 1, 1, 0));
+        assertEquals(2, frames.frames.size());
+        assertArrayEquals(bytes(0x11, 0x22, 0, 0x33), frames.frames.get(0));
+        assertArrayEquals(bytes(0), frames.frames.get(1));
+    }
+
+    @Test
+    public void cobsRoundTripsRandomFrames() {
+        Random random = new Random(5);
+        FrameDecoder decoder = new FrameDecoder.Cobs(1024);
+        for (int round = 0; round < 200; round++) {
+            byte[] frame = new byte[1 + random.nextInt(600)];
+            random.nextBytes(frame);
+            if (round % 3 == 0) {
+                // long runs without zeros need the 0xFF code
+                Arrays.fill(frame, (byte) 7);
+            }
+            Frames frames = decode(decoder, cobsEncode(frame));
+            assertEquals(1, frames.frames.size());
+            assertArrayEquals(frame, frames.frames.get(0));
+        }
+        assertEquals(0, decoder.getDroppedFrames());
+    }
+
+    @Test
+    public void cobsDropsTruncatedAndOversizedFrames() {
+        FrameDecoder decoder = new FrameDecoder.Cobs(4);
+        // the code byte promises four more bytes, only two arrive
+        Frames frames = decode(decoder, bytes(5, 'a', 'b', 0));
+        assertEquals(0, frames.frames.size());
+        frames = decode(decoder, cobsEncode(bytes('a', 'b', 'c', 'd', 'e')));
+        assertEquals(0, frames.frames.size());
+        frames = decode(decoder, cobsEncode(bytes('a', 'b', 0, 'd')));
+        assertEquals(1, frames.frames.size());
+        assertArrayEquals(bytes('a', 'b', 0, 'd'), frames.frames.get(0));
+        assertEquals(2, decoder.getDroppedFrames());
+    }
+
+    @Test
+    public void slipUnescapes() {
+        FrameDecoder decoder = new FrameDecoder.Slip(16);
+        Frames frames = decodeByteByByte(decoder, bytes(0xC0, 1, 0xDB, 0xDC, 2, 0xDB, 0xDD, 3, 0xC0, 0xC0, 4, 0xC0));
+        assertEquals(2, frames.frames.size());
+        assertArrayEquals(bytes(1, 0xC0, 2, 0xDB, 3), frames.frames.get(0));
+        assertArrayEquals(bytes(4), frames.frames.get(1));
+    }
+
+    @Test
+    public void slipDropsOversizedFrames() {
+        FrameDecoder decoder = new FrameDecoder.Slip(2);
+        Frames frames = decode(decoder, bytes(1, 2, 3, 0xC0, 4, 5, 0xC0));
+        assertEquals(1, frames.frames.size());
+        assertArrayEquals(bytes(4, 5), frames.frames.get(0));
+        assertEquals(1, decoder.getDroppedFrames());
+    }
+
+    @Test
+    public void fixedSizeSplitsAnyReads() {
+        FrameDecoder decoder = new FrameDecoder.FixedSize(3);
+        Frames frames = new Frames();
+        byte[] data = bytes(1, 2, 3, 4, 5, 6, 7);
+        decoder.decode(data, 0, 2, frames);
+        decoder.decode(data, 2, 5, frames);
+        assertEquals(2, frames.frames.size());
+        assertArrayEquals(bytes(1, 2, 3), frames.frames.get(0));
+        assertArrayEquals(bytes(4, 5, 6), frames.frames.get(1));
+        decoder.reset();
+        frames = decode(decoder, bytes(8, 9, 10));
+        assertArrayEquals(bytes(8, 9, 10), frames.frames.get(0));
+    }
+}
@@ -0,0 +1,63 @@
+package com.megster.cordova;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 32; i++) {
+            histogram.record(i);
+        }
+        assertEquals(32, histogram.getCount());
+        assertEquals(15, histogram.getPercentile(50));
+        assertEquals(28, histogram.getPercentile(90));
+        assertEquals(31, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void bucketsAreAtMostASixteenthWide() {
+        for (long value = 1; value < 1L << 39; value = value * 3 + 1) {
+            for (long v = value; v < value + 40; v++) {
+                long top = LatencyHistogram.highestValueIn(LatencyHistogram.bucketFor(v));
+                assertTrue(v + " in a bucket up to " + top, top >= v && top <= v + v / 16);
+            }
+        }
+    }
+
+    @Test
+    public void percentilesAreCappedByTheMaximum() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(1000);
+        histogram.record(Long.MAX_VALUE / 2);
+        assertEquals(0, histogram.getPercentile(0));
+        // rounded up to the top of its bucket
+        long p50 = histogram.getPercentile(50);
+        assertTrue(p50 + " for 1000", p50 >= 1000 && p50 <= 1000 + 1000 / 16);
+        assertEquals(Long.MAX_VALUE / 2, histogram.getPercentile(99));
+    }
+
+    @Test
+    public void summarizesAsJson() throws JSONException {
+        JSONObject empty = new LatencyHistogram().toJSON();
+        assertEquals(0, empty.getLong("count"));
+        assertEquals(0, empty.getLong("p99"));
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(2);
+        histogram.record(4);
+        JSONObject json = histogram.toJSON();
+        assertEquals(2, json.getLong("count"));
+        assertEquals(2, json.getLong("min"));
+        assertEquals(3.0, json.getDouble("mean"), 0);
+        assertEquals(2, json.getLong("p50"));
+        assertEquals(4, json.getLong("max"));
+    }
+}
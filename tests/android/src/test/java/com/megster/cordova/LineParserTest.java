@@ -0,0 +1,115 @@
+package com.megster.cordova;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class LineParserTest {
+
+    // Add the *hh checksum to the sentence between the $ and the end
+    private static String nmea(String sentence) {
+        int checksum = 0;
+        for (int i = 1; i < sentence.length(); i++) {
+            checksum ^= sentence.charAt(i);
+        }
+        return sentence + String.format("*%02X", checksum);
+    }
+
+    private static double[] parse(LineParser parser, String line) {
+        return parser.parse(line, line.length());
+    }
+
+    private static LineParser create(String json) throws JSONException {
+        return LineParser.fromOptions(new JSONObject(json));
+    }
+
+    @Test
+    public void splitsCsvIntoNumbers() {
+        LineParser parser = new LineParser(',', false, null, LineParser.Format.FLOAT64);
+        assertArrayEquals(new double[] { 1, -2.5, Double.NaN, Double.NaN, 3e2 },
+                parse(parser, "1,-2.5,,abc,3e2\r\n"), 0);
+        assertArrayEquals(new double[] { 4, 5 }, parse(parser, "4,5"), 0);
+    }
+
+    @Test
+    public void picksTheRequestedFields() {
+        LineParser parser = new LineParser(';', false, new int[] { 2, 0, 7 }, LineParser.Format.FLOAT64);
+        assertArrayEquals(new double[] { 3, 1, Double.NaN }, parse(parser, "1;2;3;4"), 0);
+    }
+
+    @Test
+    public void stripsTheNmeaFraming() {
+        LineParser parser = new LineParser(',', true, new int[] { 0, 2, 4 }, LineParser.Format.FLOAT64);
+        String line = nmea("$GPGGA,123519,4807.038,N,01131.000,E") + "\r\n";
+        assertArrayEquals(new double[] { Double.NaN, 4807.038, 1131.0 }, parse(parser, line), 0);
+    }
+
+    @Test
+    public void skipsControlCharactersBeforeTheSentence() throws JSONException {
+        LineParser parser = new LineParser(',', true, null, LineParser.Format.FLOAT64);
+        String sentence = nmea("$GPXTE,1.5,2");
+        // the \n of a \r\n line end when the delimiter is \r
+        assertArrayEquals(new double[] { Double.NaN, 1.5, 2 }, parse(parser, "\n" + sentence + "\r"), 0);
+        assertArrayEquals(new double[] { Double.NaN, 1.5, 2 }, parse(parser, " \t" + sentence), 0);
+        assertEquals(0, parser.getStats().getLong("checksumErrors"));
+        assertEquals(2, parser.getStats().getLong("lines"));
+    }
+
+    @Test
+    public void dropsSentencesWithAWrongOrMissingChecksum() throws JSONException {
+        LineParser parser = new LineParser(',', true, null, LineParser.Format.FLOAT64);
+        String sentence = nmea("$GPXTE,1.5,2");
+        String wrong = sentence.substring(0, sentence.length() - 1)
+                + (sentence.charAt(sentence.length() - 1) == '0' ? '1' : '0');
+        assertNull(parse(parser, wrong));
+        assertNull(parse(parser, "$GPXTE,1.5,2"));
+        assertNull(parse(parser, "$GPXTE,1.5,2*4"));
+        assertEquals(3, parser.getStats().getLong("checksumErrors"));
+        assertEquals(0, parser.getStats().getLong("lines"));
+    }
+
+    @Test
+    public void encodesTheValues() throws JSONException {
+        double[] values = { 1.5, Double.NaN };
+        LineParser float32 = new LineParser(',', false, null, LineParser.Format.FLOAT32);
+        ByteBuffer bytes = ByteBuffer.wrap(float32.toBytes(values)).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(8, bytes.remaining());
+        assertEquals(1.5f, bytes.getFloat(), 0);
+        assertEquals(Float.NaN, bytes.getFloat(), 0);
+
+        LineParser float64 = new LineParser(',', false, null, LineParser.Format.FLOAT64);
+        assertEquals(16, float64.toBytes(values).length);
+        assertEquals("[1.5,null]", float64.toJSON(values).toString());
+    }
+
+    @Test
+    public void readsTheSubscribeOptions() throws JSONException {
+        assertNull(LineParser.fromOptions(null));
+        assertNull(create("{delimiter: '\\n'}"));
+        LineParser parser = create("{parse: {separator: ';', nmea: true, fields: [1], format: 'json'}}");
+        assertEquals(LineParser.Format.JSON, parser.getFormat());
+        assertArrayEquals(new double[] { 7 }, parse(parser, nmea("$X;7")), 0);
+
+        String[] invalid = {
+                "{parse: {separator: ';;'}}",
+                "{parse: {format: 'int8'}}",
+                "{parse: {fields: [-1]}}",
+        };
+        for (String options : invalid) {
+            try {
+                create(options);
+                fail("accepted " + options);
+            } catch (JSONException e) {
+                // expected
+            }
+        }
+    }
+}
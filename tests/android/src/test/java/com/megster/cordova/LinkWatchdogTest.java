@@ -0,0 +1,109 @@
+package com.megster.cordova;
+
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LinkWatchdogTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final SerialConnection connection = new SerialConnection(scheduler);
+    private final Device device = new Device();
+    private final Results connected = new Results();
+
+    @After
+    public void tearDown() {
+        connection.destroy();
+        scheduler.shutdownNow();
+    }
+
+    private SerialSocket connect(String options) throws Exception {
+        connection.connect(new PipeTransport("a", 64, device), new JSONObject(options), connected);
+        SerialSocket socket = device.next();
+        assertTrue(Results.isOk(connected.nextResult()));
+        return socket;
+    }
+
+    private void assertLost(String reason, SerialSocket socket) throws InterruptedException {
+        PluginResult result = connected.nextResult();
+        assertTrue(Results.isError(result));
+        assertEquals(reason, result.getMessage());
+        try {
+            socket.getInputStream().read(new byte[1]);
+            fail("the link is still open");
+        } catch (IOException e) {
+            // closed by the watchdog
+        }
+    }
+
+    @Test
+    public void heartbeatIsSentWhileIdleAndTheLinkClosesWithoutAReply() throws Exception {
+        SerialSocket socket = connect("{heartbeat: {data: 'PING', interval: 100, timeout: 300}}");
+        assertEquals("PING", Device.receive(socket, 4));
+        Device.send(socket, "PONG");
+        // the reply keeps the link up, the next heartbeat follows the next idle interval
+        assertEquals("PING", Device.receive(socket, 4));
+        assertTrue(connection.isConnected());
+        assertLost("No reply to heartbeat within 300ms", socket);
+    }
+
+    @Test
+    public void readTimeoutClosesAQuietLink() throws Exception {
+        SerialSocket socket = connect("{readTimeout: 600}");
+        Thread.sleep(300);
+        Device.send(socket, "x");
+        // the data restarts the timeout, the link outlives the first 600ms
+        assertNull(connected.poll(400));
+        assertLost("No data received for 600ms", socket);
+    }
+
+    @Test
+    public void connectTimesOutWhenTheDeviceDoesNotAnswer() throws Exception {
+        Device silent = new Device() {
+            public void accept(SerialSocket socket) {
+                try {
+                    Thread.sleep(500);
+                } catch (InterruptedException e) {
+                    // give up
+                }
+            }
+        };
+        connection.connect(new PipeTransport("a", 64, silent), new JSONObject("{timeout: 100}"), connected);
+        PluginResult result = connected.nextResult();
+        assertTrue(Results.isError(result));
+        assertEquals("Connect timed out", result.getMessage());
+        assertFalse(connection.isConnected());
+    }
+
+    @Test
+    public void settingsComeFromTheConnectOptions() throws JSONException {
+        assertNull(LinkWatchdog.Settings.fromOptions(null));
+        assertNull(LinkWatchdog.Settings.fromOptions(new JSONObject("{timeout: 100}")));
+        LinkWatchdog.Settings settings = LinkWatchdog.Settings.fromOptions(
+                new JSONObject("{heartbeat: {data: [1, 255], interval: 400}}"));
+        assertEquals(2, settings.heartbeat.length);
+        assertEquals(400, settings.heartbeatTimeout);
+        assertEquals(100, settings.tickMillis());
+        String[] invalid = { "{readTimeout: -1}", "{heartbeat: {data: 'x'}}", "{heartbeat: {data: 'x', interval: 5, timeout: 0}}" };
+        for (String options : invalid) {
+            try {
+                LinkWatchdog.Settings.fromOptions(new JSONObject(options));
+                fail("accepted " + options);
+            } catch (JSONException e) {
+                // expected
+            }
+        }
+    }
+}
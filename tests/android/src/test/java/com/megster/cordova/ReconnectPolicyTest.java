@@ -0,0 +1,91 @@
+package com.megster.cordova;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReconnectPolicyTest {
+
+    @Test
+    public void delayDoublesUpToTheMaximum() {
+        ReconnectPolicy policy = new ReconnectPolicy(0, 100, 1000, 0, true, new Random(1));
+        assertEquals(100, policy.delayBefore(1));
+        assertEquals(200, policy.delayBefore(2));
+        assertEquals(400, policy.delayBefore(3));
+        assertEquals(800, policy.delayBefore(4));
+        assertEquals(1000, policy.delayBefore(5));
+        assertEquals(1000, policy.delayBefore(1000));
+    }
+
+    @Test
+    public void jitterTakesOffUpToTheFraction() {
+        ReconnectPolicy policy = new ReconnectPolicy(0, 1000, 1000, 0.25, true, new Random(2));
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (int i = 0; i < 1000; i++) {
+            long delay = policy.delayBefore(1);
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        assertTrue(min >= 750);
+        assertTrue(max <= 1000);
+        assertTrue(max - min > 200);
+    }
+
+    @Test
+    public void limitsTheAttempts() {
+        ReconnectPolicy policy = new ReconnectPolicy(3, 100, 1000, 0, true, new Random(3));
+        assertTrue(policy.shouldRetry(1));
+        assertTrue(policy.shouldRetry(3));
+        assertFalse(policy.shouldRetry(4));
+
+        ReconnectPolicy unlimited = new ReconnectPolicy(0, 100, 1000, 0, true, new Random(3));
+        assertTrue(unlimited.shouldRetry(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void readsTheConnectOptions() throws JSONException {
+        assertNull(ReconnectPolicy.fromOptions(null));
+        assertNull(ReconnectPolicy.fromOptions(new JSONObject("{timeout: 1000}")));
+        assertNull(ReconnectPolicy.fromOptions(new JSONObject("{reconnect: false}")));
+
+        ReconnectPolicy defaults = ReconnectPolicy.fromOptions(new JSONObject("{reconnect: true}"));
+        assertNotNull(defaults);
+        assertTrue(defaults.shouldRetry(5));
+        assertFalse(defaults.shouldRetry(6));
+        assertTrue(defaults.keepBuffer());
+
+        ReconnectPolicy custom = ReconnectPolicy.fromOptions(new JSONObject(
+                "{reconnect: {maxAttempts: 2, baseDelay: 10, maxDelay: 15, jitter: 0, keepBuffer: false}}"));
+        assertFalse(custom.shouldRetry(3));
+        assertEquals(10, custom.delayBefore(1));
+        assertEquals(15, custom.delayBefore(2));
+        assertFalse(custom.keepBuffer());
+    }
+
+    @Test
+    public void rejectsNegativeOptions() {
+        String[] invalid = {
+                "{reconnect: {maxAttempts: -1}}",
+                "{reconnect: {baseDelay: -1}}",
+                "{reconnect: {maxDelay: -1}}",
+        };
+        for (String options : invalid) {
+            try {
+                ReconnectPolicy.fromOptions(new JSONObject(options));
+                fail("accepted " + options);
+            } catch (JSONException e) {
+                // expected
+            }
+        }
+    }
+}
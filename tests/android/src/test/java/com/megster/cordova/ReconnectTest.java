@@ -0,0 +1,160 @@
+package com.megster.cordova;
+
+import org.apache.cordova.PluginResult;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReconnectTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final SerialConnection connection = new SerialConnection(scheduler);
+    private final Device device = new Device();
+    private final Results connected = new Results();
+
+    @After
+    public void tearDown() {
+        connection.destroy();
+        scheduler.shutdownNow();
+    }
+
+    private SerialSocket connect(String options) throws Exception {
+        connection.connect(new PipeTransport("a", 64, device), new JSONObject(options), connected);
+        SerialSocket socket = device.next();
+        assertTrue(Results.isOk(connected.nextResult()));
+        return socket;
+    }
+
+    // Drop the link from the device end and wait for the reconnect
+    private SerialSocket dropAndReconnect(SerialSocket socket, long delay) throws Exception {
+        socket.close();
+        JSONObject reconnecting = nextEvent();
+        assertEquals("reconnecting", reconnecting.getString("event"));
+        assertEquals(1, reconnecting.getInt("attempt"));
+        assertEquals(delay, reconnecting.getLong("delay"));
+
+        SerialSocket reconnected = device.next();
+        JSONObject event = nextEvent();
+        assertEquals("reconnected", event.getString("event"));
+        assertEquals(1, event.getInt("attempt"));
+        assertFalse(event.has("delay"));
+        assertTrue(connection.isConnected());
+        return reconnected;
+    }
+
+    private JSONObject nextEvent() throws InterruptedException {
+        PluginResult result = connected.nextResult();
+        assertTrue(Results.isOk(result));
+        assertTrue(result.getKeepCallback());
+        return new JSONObject(result.getMessage());
+    }
+
+    @Test
+    public void subscribersSurviveTheReconnect() throws Exception {
+        SerialSocket socket = connect("{reconnect: {baseDelay: 50, jitter: 0}}");
+        Results lines = new Results();
+        connection.subscribe("\n", null, lines);
+        Device.send(socket, "one\n");
+        assertEquals("one\n", lines.nextResult().getMessage());
+
+        socket = dropAndReconnect(socket, 50);
+
+        Device.send(socket, "two\n");
+        assertEquals("two\n", lines.nextResult().getMessage());
+        assertEquals(1, connection.getStats().getJSONObject("connections").getLong("reconnects"));
+    }
+
+    @Test
+    public void partialFrameIsDiscarded() throws Exception {
+        SerialSocket socket = connect("{reconnect: {baseDelay: 50, jitter: 0}}");
+        Results frames = new Results();
+        connection.subscribe(null, new JSONObject("{framing: 'fixed', frameSize: 4}"), frames);
+        frames.next();
+        // the phone reads what was sent before the link dropped
+        Device.send(socket, "AB");
+
+        socket = dropAndReconnect(socket, 50);
+
+        Device.send(socket, "CDEF");
+        PluginResult frame = frames.next();
+        assertEquals("CDEF", new String(Base64.getDecoder().decode(frame.getMessage()), Device.ASCII));
+        assertNull(frames.poll(100));
+    }
+
+    @Test
+    public void unreadDataIsKeptByDefault() throws Exception {
+        SerialSocket socket = connect("{reconnect: {baseDelay: 50, jitter: 0}}");
+        Device.send(socket, "before");
+
+        socket = dropAndReconnect(socket, 50);
+
+        Device.send(socket, " after!");
+        Results lines = new Results();
+        connection.subscribe("!", null, lines);
+        assertEquals("before after!", lines.nextResult().getMessage());
+    }
+
+    @Test
+    public void unreadDataIsClearedWithoutKeepBuffer() throws Exception {
+        SerialSocket socket = connect("{reconnect: {baseDelay: 50, jitter: 0, keepBuffer: false}}");
+        Device.send(socket, "before");
+
+        socket = dropAndReconnect(socket, 50);
+
+        Device.send(socket, " after!");
+        Results lines = new Results();
+        connection.subscribe("!", null, lines);
+        assertEquals(" after!", lines.nextResult().getMessage());
+    }
+
+    @Test
+    public void disconnectCancelsThePendingAttempt() throws Exception {
+        SerialSocket socket = connect("{reconnect: {baseDelay: 300, jitter: 0}}");
+        socket.close();
+        JSONObject reconnecting = nextEvent();
+        assertEquals("reconnecting", reconnecting.getString("event"));
+        assertTrue(connection.isReconnecting());
+        assertTrue(connection.isActive());
+
+        connection.disconnect();
+
+        assertFalse(connection.isReconnecting());
+        assertFalse(connection.isActive());
+        assertNull(device.poll(600));
+        assertNull(connected.poll(0));
+    }
+
+    @Test
+    public void failsOnceTheAttemptsAreUsedUp() throws Exception {
+        PipeTransport.Peer refusing = new PipeTransport.Peer() {
+            private int connections;
+
+            public synchronized void accept(SerialSocket socket) throws IOException {
+                if (++connections > 1) throw new IOException("Refused");
+                device.accept(socket);
+            }
+        };
+        connection.connect(new PipeTransport("a", 64, refusing),
+                new JSONObject("{reconnect: {maxAttempts: 2, baseDelay: 20, jitter: 0}}"), connected);
+        SerialSocket socket = device.next();
+        assertTrue(Results.isOk(connected.nextResult()));
+        socket.close();
+
+        assertEquals(1, nextEvent().getInt("attempt"));
+        assertEquals(2, nextEvent().getInt("attempt"));
+        PluginResult result = connected.nextResult();
+        assertTrue(Results.isError(result));
+        assertEquals("Unable to connect to device", result.getMessage());
+        assertFalse(connection.isReconnecting());
+    }
+}
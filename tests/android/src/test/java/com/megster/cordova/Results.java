@@ -0,0 +1,59 @@
+package com.megster.cordova;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.fail;
+
+/**
+ * A callback that records the results sent to it, for the tests that run
+ * a connection on other threads.
+ */
+class Results extends CallbackContext {
+
+    private final BlockingQueue<PluginResult> results = new LinkedBlockingQueue<PluginResult>();
+
+    Results() {
+        super("results");
+    }
+
+    public void sendPluginResult(PluginResult result) {
+        results.add(result);
+    }
+
+    /**
+     * Return the next result, failing the test when none arrives in time. */
+    PluginResult next() throws InterruptedException {
+        PluginResult result = results.poll(2, TimeUnit.SECONDS);
+        if (result == null) fail("no result");
+        return result;
+    }
+
+    /**
+     * Return the next result other than NO_RESULT. */
+    PluginResult nextResult() throws InterruptedException {
+        PluginResult result;
+        do {
+            result = next();
+        } while (result.getStatus() == PluginResult.Status.NO_RESULT.ordinal());
+        return result;
+    }
+
+    /**
+     * Return the next result if one arrives within millis, null otherwise. */
+    PluginResult poll(long millis) throws InterruptedException {
+        return results.poll(millis, TimeUnit.MILLISECONDS);
+    }
+
+    static boolean isOk(PluginResult result) {
+        return result.getStatus() == PluginResult.Status.OK.ordinal();
+    }
+
+    static boolean isError(PluginResult result) {
+        return result.getStatus() == PluginResult.Status.ERROR.ordinal();
+    }
+}
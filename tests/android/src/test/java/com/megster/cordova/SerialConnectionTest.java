@@ -0,0 +1,94 @@
+package com.megster.cordova;
+
+import org.apache.cordova.PluginResult;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SerialConnectionTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final SerialConnection connection = new SerialConnection(scheduler);
+    private final Device device = new Device();
+
+    @After
+    public void tearDown() {
+        connection.destroy();
+        scheduler.shutdownNow();
+    }
+
+    // Connect to the device and wait until the connect callback reports it
+    private SerialSocket connect(SerialConnection connection, Device device, String address, JSONObject options,
+                                 Results connected) throws Exception {
+        connection.connect(new PipeTransport(address, 1024, device), options, connected);
+        SerialSocket socket = device.next();
+        assertTrue(Results.isOk(connected.nextResult()));
+        return socket;
+    }
+
+    @Test
+    public void writeAndExpectBuffersWhileOnlyFramesAreSubscribed() throws Exception {
+        Results frames = new Results();
+        connection.subscribe(null, new JSONObject("{framing: 'fixed', frameSize: 4}"), frames);
+        SerialSocket socket = connect(connection, device, "a", null, new Results());
+
+        Results response = new Results();
+        connection.writeAndExpect("AT\r".getBytes(Device.ASCII),
+                new Expectation(null, Pattern.compile("OK\r\n"), "OK", response), 2000);
+        assertEquals("AT\r", Device.receive(socket, 3));
+        Device.send(socket, "OK\r\n");
+
+        PluginResult result = response.nextResult();
+        assertTrue(Results.isOk(result));
+        assertEquals("OK\r\n", result.getMessage());
+        assertEquals(PluginResult.MESSAGE_TYPE_ARRAYBUFFER, frames.nextResult().getMessageType());
+    }
+
+    @Test
+    public void subscribeSendsTheLinesAlreadyBuffered() throws Exception {
+        SerialSocket socket = connect(connection, device, "a", null, new Results());
+        Device.send(socket, "first\nsecond\npart");
+        while (connection.available() < 17) {
+            Thread.sleep(10);
+        }
+
+        Results lines = new Results();
+        connection.subscribe("\n", null, lines);
+
+        assertEquals("first\n", lines.nextResult().getMessage());
+        assertEquals("second\n", lines.nextResult().getMessage());
+        assertEquals("part", connection.read());
+    }
+
+    @Test
+    public void connectAnyReportsTheDeviceAndTheTimeSinceTheCall() throws Exception {
+        Device slow = new Device() {
+            public void accept(SerialSocket socket) {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    // the race is over
+                }
+                super.accept(socket);
+            }
+        };
+        Results connected = new Results();
+        connection.connectAny(Arrays.asList(new PipeTransport("a", 64, slow), new PipeTransport("b", 64, device)),
+                0, connected);
+        device.next();
+        PluginResult result = connected.nextResult();
+        assertTrue(Results.isOk(result));
+        JSONObject json = new JSONObject(result.getMessage());
+        assertEquals("b", json.getString("id"));
+        assertTrue(json.getLong("connectTime") >= 0);
+        assertEquals("b", connection.getAddress());
+    }
+}
@@ -0,0 +1,231 @@
+package com.megster.cordova;
+
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Base64;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SubscriberRegistryTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ByteRingBuffer buffer = new ByteRingBuffer(1024, ByteRingBuffer.OverflowPolicy.DROP_OLDEST);
+    private final SubscriberRegistry registry = new SubscriberRegistry(buffer);
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private Results subscribe(String options) throws JSONException {
+        Results results = new Results();
+        registry.add(SubscriberRegistry.Subscriber.fromOptions(null, new JSONObject(options), results, scheduler));
+        return results;
+    }
+
+    private void receive(String text) {
+        byte[] bytes = text.getBytes(Device.ASCII);
+        if (registry.buffersData()) {
+            buffer.write(bytes, 0, bytes.length);
+        }
+        registry.decodeFrames(bytes, 0, bytes.length);
+        registry.deliverLines();
+    }
+
+    private static void assertLine(String line, Results results) throws InterruptedException {
+        PluginResult result = results.next();
+        assertTrue(Results.isOk(result));
+        assertTrue(result.getKeepCallback());
+        assertEquals(line, result.getMessage());
+    }
+
+    private static void assertFrame(String frame, Results results) throws InterruptedException {
+        PluginResult result = results.next();
+        assertEquals(PluginResult.MESSAGE_TYPE_ARRAYBUFFER, result.getMessageType());
+        assertEquals(frame, new String(Base64.getDecoder().decode(result.getMessage()), Device.ASCII));
+    }
+
+    private static void assertClosed(Results results) throws InterruptedException {
+        assertEquals(PluginResult.Status.NO_RESULT.ordinal(), results.next().getStatus());
+    }
+
+    private static void assertNothing(Results results) throws InterruptedException {
+        assertNull(results.poll(0));
+    }
+
+    @Test
+    public void everyNamedSubscriberGetsEveryLine() throws Exception {
+        Results log = subscribe("{name: 'log', delimiter: '\\n'}");
+        Results other = subscribe("{name: 'other', delimiter: '\\n'}");
+        Results records = subscribe("{name: 'records', delimiter: ';'}");
+
+        receive("a;b\nc;\n");
+
+        assertLine("a;b\n", log);
+        assertLine("c;\n", log);
+        assertLine("a;b\n", other);
+        assertLine("c;\n", other);
+        assertLine("a;", records);
+        assertLine("b\nc;", records);
+        assertNothing(log);
+        assertNothing(records);
+    }
+
+    @Test
+    public void subscribingWithANameInUseReplacesTheSubscriber() throws Exception {
+        Results first = subscribe("{name: 'log', delimiter: '\\n'}");
+        Results second = subscribe("{name: 'log', delimiter: '\\r\\n'}");
+        Results unnamed = subscribe("{delimiter: '\\n'}");
+
+        assertClosed(first);
+        receive("x\r\n");
+
+        assertNothing(first);
+        assertLine("x\r\n", second);
+        assertLine("x\r\n", unnamed);
+
+        Results replacement = subscribe("{delimiter: '\\n'}");
+        assertClosed(unnamed);
+        receive("y\n");
+        assertLine("y\n", replacement);
+    }
+
+    @Test
+    public void subscribersWithTheSameDelimiterShareOneCursor() throws Exception {
+        Results a = subscribe("{name: 'a', delimiter: '\\n'}");
+        receive("one\ntw");
+        assertLine("one\n", a);
+
+        // joins the group where it is, it does not get the line again
+        Results b = subscribe("{name: 'b', delimiter: '\\n'}");
+        receive("o\n");
+        assertLine("two\n", a);
+        assertLine("two\n", b);
+        assertNothing(a);
+        assertNothing(b);
+
+        // the group's lines are gone from the buffer
+        assertEquals(0, buffer.available());
+    }
+
+    @Test
+    public void prefixAndMatchFilterTheLines() throws Exception {
+        Results all = subscribe("{name: 'all', delimiter: '\\n'}");
+        Results gga = subscribe("{name: 'gga', delimiter: '\\n', prefix: '$GPGGA'}");
+        Results digits = subscribe("{name: 'digits', delimiter: '\\n', match: '^\\\\d+\\\\s*$'}");
+
+        receive("$GPGGA,1\n$GPRMC,2\n42\n");
+
+        assertLine("$GPGGA,1\n", all);
+        assertLine("$GPRMC,2\n", all);
+        assertLine("42\n", all);
+        assertLine("$GPGGA,1\n", gga);
+        assertNothing(gga);
+        assertLine("42\n", digits);
+        assertNothing(digits);
+    }
+
+    @Test
+    public void prefixFiltersTheFrames() throws Exception {
+        Results frames = subscribe("{name: 'frames', framing: 'fixed', frameSize: 3, prefix: 'A'}");
+
+        receive("AbcXyzAde");
+
+        assertFrame("Abc", frames);
+        assertFrame("Ade", frames);
+        assertNothing(frames);
+    }
+
+    @Test
+    public void matchNeedsADelimiter() {
+        try {
+            subscribe("{framing: 'fixed', frameSize: 3, match: 'a'}");
+            fail("match with framing");
+        } catch (JSONException e) {
+            assertEquals("match needs a delimiter", e.getMessage());
+        }
+    }
+
+    @Test
+    public void onlyFramedSubscribersDoNotBufferData() throws Exception {
+        assertTrue(registry.buffersData());
+        subscribe("{name: 'frames', framing: 'fixed', frameSize: 2}");
+        assertFalse(registry.buffersData());
+        subscribe("{name: 'lines', delimiter: '\\n'}");
+        assertTrue(registry.buffersData());
+        registry.remove("lines");
+        assertFalse(registry.buffersData());
+    }
+
+    @Test
+    public void unsubscribeByNameKeepsTheOthers() throws Exception {
+        Results a = subscribe("{name: 'a', delimiter: '\\n'}");
+        Results b = subscribe("{name: 'b', delimiter: '\\n'}");
+
+        assertTrue(registry.remove("a"));
+        assertFalse(registry.remove("a"));
+        assertFalse(registry.remove("unknown"));
+        assertClosed(a);
+
+        receive("line\n");
+        assertNothing(a);
+        assertLine("line\n", b);
+        assertFalse(registry.isEmpty());
+    }
+
+    @Test
+    public void unsubscribeAllClosesEverySubscriber() throws Exception {
+        Results a = subscribe("{name: 'a', delimiter: '\\n'}");
+        Results b = subscribe("{name: 'b', delimiter: ';'}");
+        Results c = subscribe("{name: 'c', framing: 'fixed', frameSize: 2}");
+
+        registry.removeAll();
+
+        assertClosed(a);
+        assertClosed(b);
+        assertClosed(c);
+        assertTrue(registry.isEmpty());
+        receive("xy\n;");
+        assertNothing(a);
+        assertNothing(b);
+        assertNothing(c);
+        // without line subscribers the direct reads get everything
+        assertEquals("xy\n;", new String(buffer.read(), Device.ASCII));
+    }
+
+    @Test
+    public void newSubscriberGetsTheLinesAlreadyBuffered() throws Exception {
+        byte[] backlog = "early\nlate".getBytes(Device.ASCII);
+        buffer.write(backlog, 0, backlog.length);
+
+        Results results = subscribe("{delimiter: '\\n'}");
+        receive("r\n");
+
+        assertLine("early\n", results);
+        assertLine("later\n", results);
+    }
+
+    @Test
+    public void newGroupDoesNotGetTheLinesAnotherGroupSent() throws Exception {
+        Results lines = subscribe("{name: 'lines', delimiter: '\\n'}");
+        receive("sent\nrest");
+        assertLine("sent\n", lines);
+
+        Results words = subscribe("{name: 'words', delimiter: ' '}");
+        receive(" more\n");
+
+        assertLine("rest more\n", lines);
+        assertLine("rest ", words);
+        assertNothing(words);
+    }
+}
@@ -0,0 +1,59 @@
+package com.megster.cordova;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TextDecoderTest {
+
+    private static final Charset UTF_8 = TextDecoder.UTF_8;
+
+    @Test
+    public void holdsBackASplitCharacter() {
+        TextDecoder decoder = new TextDecoder(UTF_8);
+        byte[] euro = "€".getBytes(UTF_8);
+        assertEquals("a", decoder.decode(new byte[] { 'a', euro[0] }));
+        assertEquals("", decoder.decode(new byte[] { euro[1] }));
+        assertEquals("€b", decoder.decode(new byte[] { euro[2], 'b' }));
+    }
+
+    @Test
+    public void replacesMalformedBytes() {
+        TextDecoder decoder = new TextDecoder(UTF_8);
+        assertEquals("�a�b", decoder.decode(new byte[] { (byte) 0xFF, 'a', (byte) 0xC3, 'b' }));
+    }
+
+    @Test
+    public void resetDropsThePartialCharacter() {
+        TextDecoder decoder = new TextDecoder(UTF_8);
+        assertEquals("", decoder.decode(new byte[] { (byte) 0xE2, (byte) 0x82 }));
+        decoder.reset();
+        assertEquals("x", decoder.decode(new byte[] { 'x' }));
+    }
+
+    @Test
+    public void singleByteCharsetsMapEachByte() {
+        TextDecoder decoder = new TextDecoder(Charset.forName("ISO-8859-1"));
+        assertEquals("éÿ", decoder.decode(new byte[] { (byte) 0xE9, (byte) 0xFF }));
+        assertArrayEquals(new byte[] { (byte) 0xE9 }, decoder.encode("é"));
+    }
+
+    @Test
+    public void recordsWhereEachCharacterEnds() {
+        TextDecoder decoder = new TextDecoder(UTF_8);
+        byte[] data = "aé😀".getBytes(UTF_8);
+        StringBuilder text = new StringBuilder();
+        int[] ends = new int[1];
+        // the é is split between the calls
+        ends = decoder.decode(Arrays.copyOfRange(data, 0, 2), 10, text, ends);
+        assertEquals("a", text.toString());
+        ends = decoder.decode(Arrays.copyOfRange(data, 2, data.length), 12, text, ends);
+        assertEquals("aé😀", text.toString());
+        // both halves of the surrogate pair end after its 4 bytes
+        assertArrayEquals(new int[] { 11, 13, 17, 17 }, Arrays.copyOf(ends, 4));
+    }
+}
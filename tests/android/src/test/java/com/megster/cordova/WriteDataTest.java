@@ -0,0 +1,78 @@
+package com.megster.cordova;
+
+import org.apache.cordova.CordovaArgs;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.junit.Test;
+
+import java.util.Base64;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class WriteDataTest {
+
+    private static String base64(byte[] data) {
+        return Base64.getEncoder().encodeToString(data);
+    }
+
+    private static CordovaArgs args(Object... values) {
+        JSONArray array = new JSONArray();
+        for (Object value : values) {
+            array.put(value);
+        }
+        return new CordovaArgs(array);
+    }
+
+    @Test
+    public void latin1KeepsTheLow8BitsOfEachCharacter() {
+        assertArrayEquals(new byte[] { 'a', 0, (byte) 0xE9, (byte) 0xFF, 0x20 }, WriteData.latin1("a\u0000éÿ†"));
+        assertArrayEquals(new byte[0], WriteData.latin1(""));
+    }
+
+    @Test
+    public void hexDecodesBothCases() {
+        assertArrayEquals(new byte[] { 0x0a, 0x1b, (byte) 0xff, (byte) 0xAB }, WriteData.hex("0a1bFFaB"));
+        assertArrayEquals(new byte[0], WriteData.hex(""));
+    }
+
+    @Test
+    public void hexRejectsOddLengthsAndOtherCharacters() {
+        assertNull(WriteData.hex("abc"));
+        assertNull(WriteData.hex("0g"));
+        assertNull(WriteData.hex("0 "));
+        assertNull(WriteData.hex("é0"));
+    }
+
+    @Test
+    public void joinDecodesEveryPaddingIntoOneArray() {
+        byte[] one = { 1 };
+        byte[] two = { 2, 3 };
+        byte[] three = { 4, 5, 6 };
+        byte[] seven = { (byte) 0xfb, (byte) 0xff, (byte) 0xbf, 0, 10, 20, 30 };
+        byte[] joined = WriteData.join(args("x", base64(one), base64(two), "", base64(three), base64(seven)), 1, 5);
+        assertArrayEquals(new byte[] { 1, 2, 3, 4, 5, 6, (byte) 0xfb, (byte) 0xff, (byte) 0xbf, 0, 10, 20, 30 }, joined);
+    }
+
+    @Test
+    public void joinRejectsInvalidBase64() {
+        assertNull(WriteData.join(args("AAA"), 0, 1));
+        assertNull(WriteData.join(args("AA*A"), 0, 1));
+        assertNull(WriteData.join(args("AAAA", "AéAA"), 0, 2));
+    }
+
+    @Test
+    public void fromArgsPicksTheEncoding() {
+        CordovaArgs args = args(base64(new byte[] { 1, 2 }), "0102", "\u0001\u0002");
+        assertArrayEquals(new byte[] { 1, 2 }, WriteData.fromArgs(args, 0, null));
+        assertArrayEquals(new byte[] { 1, 2 }, WriteData.fromArgs(args, 1, WriteData.HEX));
+        assertArrayEquals(new byte[] { 1, 2 }, WriteData.fromArgs(args, 2, WriteData.LATIN1));
+        try {
+            WriteData.fromArgs(args, 1, "utf16");
+            fail("accepted utf16");
+        } catch (JSONException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.megster.cordova;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WriteQueueTest {
+
+    /**
+     * Records every write to the stream.
+     */
+    private static class RecordingStream extends OutputStream {
+        final List<byte[]> writes = new ArrayList<byte[]>();
+        volatile CountDownLatch blocked;
+        volatile boolean failing;
+
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            CountDownLatch latch = blocked;
+            if (latch != null) {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted");
+                }
+            }
+            if (failing) {
+                throw new IOException("Broken pipe");
+            }
+            synchronized (this) {
+                writes.add(Arrays.copyOfRange(b, off, off + len));
+            }
+        }
+
+        synchronized List<byte[]> writes() {
+            return new ArrayList<byte[]>(writes);
+        }
+    }
+
+    /**
+     * Records the outcome of each write.
+     */
+    private static class Results implements WriteQueue.Callback {
+        final BlockingQueue<String> results = new LinkedBlockingQueue<String>();
+
+        public void onWritten(int length) {
+            results.add("written " + length);
+        }
+
+        public void onError(String message) {
+            results.add("error " + message);
+        }
+
+        String next() throws InterruptedException {
+            return results.poll(2, TimeUnit.SECONDS);
+        }
+    }
+
+    private final RecordingStream out = new RecordingStream();
+    private final WriteQueue queue = new WriteQueue(out, 100);
+
+    @After
+    public void tearDown() {
+        queue.close();
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes();
+    }
+
+    @Test
+    public void writesInOrderAndCallsBack() throws InterruptedException {
+        Results results = new Results();
+        queue.start();
+        queue.write(bytes("ab"), results);
+        queue.write(bytes("cde"), results);
+        assertEquals("written 2", results.next());
+        assertEquals("written 3", results.next());
+        assertEquals(2, out.writes().size());
+        assertArrayEquals(bytes("ab"), out.writes().get(0));
+        assertArrayEquals(bytes("cde"), out.writes().get(1));
+        assertEquals(2, queue.getWriteCount());
+        assertEquals(5, queue.getBytesWritten());
+    }
+
+    @Test
+    public void flushDoesNotWriteAnEmptyArray() throws InterruptedException {
+        Results results = new Results();
+        queue.start();
+        queue.flush(results);
+        assertEquals("written 0", results.next());
+        queue.write(new byte[0], results);
+        assertEquals("written 0", results.next());
+        assertEquals(0, out.writes().size());
+        assertEquals(0, queue.getFlushCount());
+    }
+
+    @Test
+    public void flushWithoutCoalescingDoesNotCutTheNextWindowShort() throws InterruptedException {
+        Results results = new Results();
+        queue.start();
+        queue.flush(results);
+        assertEquals("written 0", results.next());
+
+        queue.setCoalescing(200, 1000);
+        queue.write(bytes("a"), results);
+        queue.write(bytes("b"), results);
+        assertEquals("written 1", results.next());
+        assertEquals("written 1", results.next());
+        assertEquals(1, out.writes().size());
+        assertArrayEquals(bytes("ab"), out.writes().get(0));
+    }
+
+    @Test
+    public void coalescesUntilFlushed() throws InterruptedException {
+        Results results = new Results();
+        queue.setCoalescing(10000, 1000);
+        queue.start();
+        queue.write(bytes("a"), results);
+        queue.write(bytes("b"), results);
+        queue.flush(results);
+        assertEquals("written 1", results.next());
+        assertEquals("written 1", results.next());
+        assertEquals("written 0", results.next());
+        assertEquals(1, out.writes().size());
+        assertArrayEquals(bytes("ab"), out.writes().get(0));
+        assertEquals(2, queue.getWriteCount());
+        assertEquals(1, queue.getFlushCount());
+    }
+
+    @Test
+    public void coalescesUntilMaxBytes() throws InterruptedException {
+        Results results = new Results();
+        queue.setCoalescing(10000, 4);
+        queue.start();
+        queue.write(bytes("ab"), results);
+        queue.write(bytes("cd"), results);
+        assertEquals("written 2", results.next());
+        assertEquals("written 2", results.next());
+        assertArrayEquals(bytes("abcd"), out.writes().get(0));
+    }
+
+    @Test
+    public void rejectsWritesBeyondTheCapacity() throws InterruptedException {
+        Results results = new Results();
+        assertTrue(queue.write(new byte[60], results));
+        assertFalse(queue.write(new byte[60], results));
+        assertEquals("error Write queue full.", results.next());
+        assertEquals(60, queue.getQueuedBytes());
+    }
+
+    @Test
+    public void reportsWatermarks() throws InterruptedException {
+        final BlockingQueue<String> events = new LinkedBlockingQueue<String>();
+        queue.setWatermarks(50, 10, new WriteQueue.WatermarkListener() {
+            public void onHighWatermark(long queuedBytes) {
+                events.add("high " + queuedBytes);
+            }
+
+            public void onLowWatermark(long queuedBytes) {
+                events.add("low " + queuedBytes);
+            }
+        });
+        queue.write(new byte[30], null);
+        queue.write(new byte[30], null);
+        assertEquals("high 60", events.poll(2, TimeUnit.SECONDS));
+        queue.start();
+        assertEquals("low 0", events.poll(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void closeBeforeStartFailsQueuedWrites() throws InterruptedException {
+        Results results = new Results();
+        queue.write(bytes("a"), results);
+        queue.flush(results);
+        queue.close();
+        assertEquals("error Not connected.", results.next());
+        assertEquals("error Not connected.", results.next());
+        assertEquals(0, queue.getQueuedBytes());
+
+        queue.write(bytes("b"), results);
+        assertEquals("error Not connected.", results.next());
+    }
+
+    @Test
+    public void closeFailsQueuedWrites() throws InterruptedException {
+        Results results = new Results();
+        out.blocked = new CountDownLatch(1);
+        queue.start();
+        queue.write(bytes("a"), results);
+        queue.write(bytes("b"), results);
+        Thread.sleep(50);
+        queue.close();
+        // the write in progress fails when the stream is interrupted
+        assertEquals("error Interrupted", results.next());
+        assertEquals("error Not connected.", results.next());
+    }
+
+    @Test
+    public void writeErrorFailsTheBatchAndClosesTheQueue() throws InterruptedException {
+        Results results = new Results();
+        out.failing = true;
+        queue.start();
+        queue.write(bytes("a"), results);
+        assertEquals("error Broken pipe", results.next());
+        queue.write(bytes("b"), results);
+        assertEquals("error Not connected.", results.next());
+    }
+}
@@ -0,0 +1,26 @@
+package android.bluetooth;
+
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Stub, there is no adapter on the JVM.
+ */
+public final class BluetoothAdapter {
+
+    public static BluetoothAdapter getDefaultAdapter() {
+        return null;
+    }
+
+    public boolean cancelDiscovery() {
+        throw new RuntimeException("Stub!");
+    }
+
+    public BluetoothServerSocket listenUsingRfcommWithServiceRecord(String name, UUID uuid) throws IOException {
+        throw new RuntimeException("Stub!");
+    }
+
+    public BluetoothServerSocket listenUsingInsecureRfcommWithServiceRecord(String name, UUID uuid) throws IOException {
+        throw new RuntimeException("Stub!");
+    }
+}
@@ -0,0 +1,26 @@
+package android.bluetooth;
+
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Stub, tests connect through PipeTransport instead.
+ */
+public final class BluetoothDevice {
+
+    public String getAddress() {
+        throw new RuntimeException("Stub!");
+    }
+
+    public String getName() {
+        throw new RuntimeException("Stub!");
+    }
+
+    public BluetoothSocket createRfcommSocketToServiceRecord(UUID uuid) throws IOException {
+        throw new RuntimeException("Stub!");
+    }
+
+    public BluetoothSocket createInsecureRfcommSocketToServiceRecord(UUID uuid) throws IOException {
+        throw new RuntimeException("Stub!");
+    }
+}
@@ -0,0 +1,18 @@
+package android.bluetooth;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Stub, listening is not used on the JVM.
+ */
+public final class BluetoothServerSocket implements Closeable {
+
+    public BluetoothSocket accept() throws IOException {
+        throw new RuntimeException("Stub!");
+    }
+
+    public void close() throws IOException {
+        throw new RuntimeException("Stub!");
+    }
+}
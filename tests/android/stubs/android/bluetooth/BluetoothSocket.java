@@ -0,0 +1,32 @@
+package android.bluetooth;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Stub, tests connect through PipeTransport instead.
+ */
+public final class BluetoothSocket implements Closeable {
+
+    public void connect() throws IOException {
+        throw new RuntimeException("Stub!");
+    }
+
+    public InputStream getInputStream() throws IOException {
+        throw new RuntimeException("Stub!");
+    }
+
+    public OutputStream getOutputStream() throws IOException {
+        throw new RuntimeException("Stub!");
+    }
+
+    public BluetoothDevice getRemoteDevice() {
+        throw new RuntimeException("Stub!");
+    }
+
+    public void close() throws IOException {
+        throw new RuntimeException("Stub!");
+    }
+}
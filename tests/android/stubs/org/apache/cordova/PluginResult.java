@@ -0,0 +1,114 @@
+package org.apache.cordova;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Stub of the Cordova plugin result, keeps the message so tests can check it.
+ */
+public class PluginResult {
+
+    public enum Status {
+        NO_RESULT,
+        OK,
+        CLASS_NOT_FOUND_EXCEPTION,
+        ILLEGAL_ACCESS_EXCEPTION,
+        INSTANTIATION_EXCEPTION,
+        MALFORMED_URL_EXCEPTION,
+        IO_EXCEPTION,
+        INVALID_ACTION,
+        JSON_EXCEPTION,
+        ERROR
+    }
+
+    public static final int MESSAGE_TYPE_STRING = 1;
+    public static final int MESSAGE_TYPE_JSON = 2;
+    public static final int MESSAGE_TYPE_NUMBER = 3;
+    public static final int MESSAGE_TYPE_BOOLEAN = 4;
+    public static final int MESSAGE_TYPE_NULL = 5;
+    public static final int MESSAGE_TYPE_ARRAYBUFFER = 6;
+    public static final int MESSAGE_TYPE_BINARYSTRING = 7;
+    public static final int MESSAGE_TYPE_MULTIPART = 8;
+
+    private final int status;
+    private final int messageType;
+    private final String message;
+    private final List<PluginResult> multipartMessages;
+    private boolean keepCallback;
+
+    public PluginResult(Status status) {
+        this(status, MESSAGE_TYPE_NULL, "null", null);
+    }
+
+    public PluginResult(Status status, String message) {
+        this(status, message == null ? MESSAGE_TYPE_NULL : MESSAGE_TYPE_STRING, message, null);
+    }
+
+    public PluginResult(Status status, JSONArray message) {
+        this(status, MESSAGE_TYPE_JSON, message.toString(), null);
+    }
+
+    public PluginResult(Status status, JSONObject message) {
+        this(status, MESSAGE_TYPE_JSON, message.toString(), null);
+    }
+
+    public PluginResult(Status status, int i) {
+        this(status, MESSAGE_TYPE_NUMBER, Integer.toString(i), null);
+    }
+
+    public PluginResult(Status status, boolean b) {
+        this(status, MESSAGE_TYPE_BOOLEAN, Boolean.toString(b), null);
+    }
+
+    public PluginResult(Status status, byte[] data) {
+        this(status, MESSAGE_TYPE_ARRAYBUFFER, Base64.getEncoder().encodeToString(data), null);
+    }
+
+    public PluginResult(Status status, List<PluginResult> multipartMessages) {
+        this(status, MESSAGE_TYPE_MULTIPART, null, multipartMessages);
+    }
+
+    private PluginResult(Status status, int messageType, String message, List<PluginResult> multipartMessages) {
+        this.status = status.ordinal();
+        this.messageType = messageType;
+        this.message = message;
+        this.multipartMessages = multipartMessages;
+    }
+
+    public void setKeepCallback(boolean keepCallback) {
+        this.keepCallback = keepCallback;
+    }
+
+    public boolean getKeepCallback() {
+        return keepCallback;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public int getMessageType() {
+        return messageType;
+    }
+
+    /**
+     * Return the string, the JSON text, or base64 for binary messages. */
+    public String getMessage() {
+        return message;
+    }
+
+    public String getStrMessage() {
+        return message;
+    }
+
+    public int getMultipartMessagesSize() {
+        return multipartMessages.size();
+    }
+
+    public PluginResult getMultipartMessage(int index) {
+        return multipartMessages.get(index);
+    }
+}
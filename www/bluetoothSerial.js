@@ -1,50 +1,78 @@
 /*global cordova*/
 module.exports = {
 
-    connect: function (macAddress, success, failure) {
-        cordova.exec(success, failure, "BluetoothSerial", "connect", [macAddress]);
+    // options are Android only and may be omitted
+    connect: function (macAddress, options, success, failure) {
+
+        if (typeof options === 'function') {
+            failure = success;
+            success = options;
+            options = null;
+        }
+
+        cordova.exec(success, failure, "BluetoothSerial", "connect", [macAddress, options]);
     },
 
     // Android only - see http://goo.gl/1mFjZY
-    connectInsecure: function (macAddress, success, failure) {
-        cordova.exec(success, failure, "BluetoothSerial", "connectInsecure", [macAddress]);
+    connectInsecure: function (macAddress, options, success, failure) {
+
+        if (typeof options === 'function') {
+            failure = success;
+            success = options;
+            options = null;
+        }
+
+        cordova.exec(success, failure, "BluetoothSerial", "connectInsecure", [macAddress, options]);
+    },
+
+    // Android only - connects to whichever device answers first
+    connectAny: function (macAddresses, timeout, success, failure) {
+        cordova.exec(success, failure, "BluetoothSerial", "connectAny", [macAddresses, timeout]);
     },
 
-    disconnect: function (success, failure) {
-        cordova.exec(success, failure, "BluetoothSerial", "disconnect", []);
+    // disconnects all devices unless a connectionId (Android only) is given
+    disconnect: function (success, failure, connectionId) {
+        cordova.exec(success, failure, "BluetoothSerial", "disconnect", [connectionId]);
     },
 
     // list bound devices
-    list: function (success, failure) {
-        cordova.exec(success, failure, "BluetoothSerial", "list", []);
+    // Android: options {since: version} returns {version, devices} with devices only when they changed
+    list: function (success, failure, options) {
+        cordova.exec(success, failure, "BluetoothSerial", "list", [options]);
     },
 
     isEnabled: function (success, failure) {
         cordova.exec(success, failure, "BluetoothSerial", "isEnabled", []);
     },
 
-    isConnected: function (success, failure) {
-        cordova.exec(success, failure, "BluetoothSerial", "isConnected", []);
+    isConnected: function (success, failure, connectionId) {
+        cordova.exec(success, failure, "BluetoothSerial", "isConnected", [connectionId]);
     },
 
     // the number of bytes of data available to read is passed to the success function
-    available: function (success, failure) {
-        cordova.exec(success, failure, "BluetoothSerial", "available", []);
+    available: function (success, failure, connectionId) {
+        cordova.exec(success, failure, "BluetoothSerial", "available", [connectionId]);
     },
 
     // read all the data in the buffer
-    read: function (success, failure) {
-        cordova.exec(success, failure, "BluetoothSerial", "read", []);
+    read: function (success, failure, connectionId) {
+        cordova.exec(success, failure, "BluetoothSerial", "read", [connectionId]);
     },
 
     // reads the data in the buffer up to and including the delimiter
-    readUntil: function (delimiter, success, failure) {
-        cordova.exec(success, failure, "BluetoothSerial", "readUntil", [delimiter]);
+    readUntil: function (delimiter, success, failure, connectionId) {
+        cordova.exec(success, failure, "BluetoothSerial", "readUntil", [delimiter, connectionId]);
     },
 
     // writes data to the bluetooth serial port
     // data can be an ArrayBuffer, string, integer array, or Uint8Array
-    write: function (data, success, failure) {
+    write: function (data, success, failure, connectionId) {
+
+        // Android takes strings as they are, which is smaller on the bridge than a base64 ArrayBuffer
+        if (typeof data === 'string' && cordova.platformId === 'android') {
+            cordova.exec(success, failure, "BluetoothSerial", "write", [data, connectionId, 'latin1']);
+            return;
+        }
 
         // convert to ArrayBuffer
         if (typeof data === 'string') {
@@ -53,26 +81,82 @@ module.exports = {
             // assuming array of interger
             data = new Uint8Array(data).buffer;
         } else if (data instanceof Uint8Array) {
-            data = data.buffer;
+            data = data.buffer.slice(data.byteOffset, data.byteOffset + data.byteLength);
+        }
+
+        cordova.exec(success, failure, "BluetoothSerial", "write", [data, connectionId]);
+    },
+
+    // Android only - writes a string of hex digits like "0a1bff" as bytes
+    writeHex: function (hex, success, failure, connectionId) {
+        cordova.exec(success, failure, "BluetoothSerial", "write", [hex, connectionId, 'hex']);
+    },
+
+    // Android only - writes an array of ArrayBuffers or Uint8Arrays as one write without joining them first
+    writeParts: function (parts, success, failure, connectionId) {
+        var args = [parts.length, connectionId];
+        for (var i = 0; i < parts.length; i++) {
+            var part = parts[i];
+            if (part instanceof Uint8Array) {
+                // only the bytes of the view, not the whole underlying buffer
+                part = part.buffer.slice(part.byteOffset, part.byteOffset + part.byteLength);
+            }
+            args.push(part);
+        }
+        cordova.exec(success, failure, "BluetoothSerial", "writeParts", args);
+    },
+
+    // Android only - writes data and calls success with the received data up to and including the pattern
+    // pattern can be a string or a RegExp, failure is called when it has not arrived within timeout milliseconds
+    writeAndExpect: function (data, pattern, timeout, success, failure, connectionId) {
+
+        // strings are sent as they are, see write
+        var encoding = null;
+        if (typeof data === 'string') {
+            encoding = 'latin1';
+        } else if (data instanceof Array) {
+            // assuming array of interger
+            data = new Uint8Array(data).buffer;
+        } else if (data instanceof Uint8Array) {
+            data = data.buffer.slice(data.byteOffset, data.byteOffset + data.byteLength);
+        }
+
+        var regex = pattern instanceof RegExp;
+        if (regex) {
+            // pass the flags Java supports as inline flags
+            var flags = (pattern.ignoreCase ? 'i' : '') + (pattern.multiline ? 'm' : '') + (pattern.dotAll ? 's' : '');
+            pattern = (flags ? '(?' + flags + ')' : '') + pattern.source;
         }
 
-        cordova.exec(success, failure, "BluetoothSerial", "write", [data]);
+        cordova.exec(success, failure, "BluetoothSerial", "writeAndExpect", [data, pattern, regex, timeout, connectionId, encoding]);
     },
 
     // calls the success callback when new data is available
-    subscribe: function (delimiter, success, failure) {
-        cordova.exec(success, failure, "BluetoothSerial", "subscribe", [delimiter]);
+    // delimiter can also be an options object {delimiter: '\n', batch: true, maxLatency: 20, maxBatchSize: 64}
+    // or {framing: 'length' | 'cobs' | 'slip' | 'fixed', ...} to receive binary frames as ArrayBuffers
+    // Android: subscriptions with different names are active at the same time, prefix and match filter the data
+    // parse: {separator: ',', nmea: true, fields: [2, 4], format: 'float64' | 'float32' | 'json'} converts fields to numbers
+    subscribe: function (delimiter, success, failure, connectionId) {
+        cordova.exec(success, failure, "BluetoothSerial", "subscribe", [delimiter, connectionId]);
     },
 
-    // removes data subscription
-    unsubscribe: function (success, failure) {
-        cordova.exec(success, failure, "BluetoothSerial", "unsubscribe", []);
+    // removes data subscription, only the one with the given name when a name is passed
+    unsubscribe: function (success, failure, connectionId, name) {
+        cordova.exec(success, failure, "BluetoothSerial", "unsubscribe", [connectionId, name]);
     },
 
     // calls the success callback when new data is available with an ArrayBuffer
-    subscribeRawData: function (success, failure) {
+    // options are optional {batch: true, maxLatency: 20, maxBatchSize: 64}
+    subscribeRawData: function (options, success, failure, connectionId) {
 
-        successWrapper = function(data) {
+        if (typeof options === 'function') {
+            connectionId = failure;
+            failure = success;
+            success = options;
+            options = null;
+        }
+
+        successWrapper = function(data, offsets) {
             // Windows Phone flattens an array of one into a number which
             // breaks the API. Stuff it back into an ArrayBuffer.
             if (typeof data === 'number') {
@@ -80,19 +164,104 @@ module.exports = {
                 a[0] = data;
                 data = a.buffer;
             }
-            success(data);
+            success(data, offsets);
         };
-        cordova.exec(successWrapper, failure, "BluetoothSerial", "subscribeRaw", []);
+        cordova.exec(successWrapper, failure, "BluetoothSerial", "subscribeRaw", [options, connectionId]);
     },
 
     // removes data subscription
-    unsubscribeRawData: function (success, failure) {
-        cordova.exec(success, failure, "BluetoothSerial", "unsubscribeRaw", []);
+    unsubscribeRawData: function (success, failure, connectionId) {
+        cordova.exec(success, failure, "BluetoothSerial", "unsubscribeRaw", [connectionId]);
+    },
+
+    // Android only - counts of items delivered and bridge calls used by batched subscriptions
+    getBatchStats: function (success, failure, connectionId) {
+        cordova.exec(success, failure, "BluetoothSerial", "getBatchStats", [connectionId]);
     },
 
     // clears the data buffer
-    clear: function (success, failure) {
-        cordova.exec(success, failure, "BluetoothSerial", "clear", []);
+    clear: function (success, failure, connectionId) {
+        cordova.exec(success, failure, "BluetoothSerial", "clear", [connectionId]);
+    },
+
+    // Android only - starts sending totalSize bytes in chunks with writeChunk
+    // progress is called with {sent: bytes, total: bytes} and finally with complete: true
+    startTransfer: function (totalSize, progress, failure, connectionId) {
+        cordova.exec(progress, failure, "BluetoothSerial", "startTransfer", [totalSize, connectionId]);
+    },
+
+    // Android only - sends the next chunk of a transfer, sequence starts at 0
+    // success is called once the chunk has been written
+    writeChunk: function (sequence, data, success, failure, connectionId) {
+        if (data instanceof Uint8Array) {
+            data = data.buffer.slice(data.byteOffset, data.byteOffset + data.byteLength);
+        }
+        cordova.exec(success, failure, "BluetoothSerial", "writeChunk", [sequence, data, connectionId]);
+    },
+
+    // Android only - aborts the transfer in progress
+    cancelTransfer: function (success, failure, connectionId) {
+        cordova.exec(success, failure, "BluetoothSerial", "cancelTransfer", [connectionId]);
+    },
+
+    // Android only - combines writes made within windowMillis into one, until maxBytes are waiting
+    // a window of 0 turns coalescing off
+    setWriteCoalescing: function (windowMillis, maxBytes, success, failure, connectionId) {
+        cordova.exec(success, failure, "BluetoothSerial", "setWriteCoalescing", [windowMillis, maxBytes, connectionId]);
+    },
+
+    // Android only - writes coalesced data immediately
+    flush: function (success, failure, connectionId) {
+        cordova.exec(success, failure, "BluetoothSerial", "flush", [connectionId]);
+    },
+
+    // Android only - write counters for the current connection
+    getWriteStats: function (success, failure, connectionId) {
+        cordova.exec(success, failure, "BluetoothSerial", "getWriteStats", [connectionId]);
+    },
+
+    // Android only - how long the phases of the last connect took
+    getConnectTimings: function (success, failure, connectionId) {
+        cordova.exec(success, failure, "BluetoothSerial", "getConnectTimings", [connectionId]);
+    },
+
+    // Android only - counters and latency histograms of the connection
+    getStats: function (success, failure, connectionId) {
+        cordova.exec(success, failure, "BluetoothSerial", "getStats", [connectionId]);
+    },
+
+    // Android only - calls success with the stats every interval milliseconds, default 1000
+    subscribeStats: function (interval, success, failure, connectionId) {
+
+        if (typeof interval === 'function') {
+            connectionId = failure;
+            failure = success;
+            success = interval;
+            interval = null;
+        }
+
+        cordova.exec(success, failure, "BluetoothSerial", "subscribeStats", [interval, connectionId]);
+    },
+
+    // Android only - stops the stats subscription
+    unsubscribeStats: function (success, failure, connectionId) {
+        cordova.exec(success, failure, "BluetoothSerial", "unsubscribeStats", [connectionId]);
+    },
+
+    // Android only - calls and native run time of each plugin action
+    getActionStats: function (success, failure) {
+        cordova.exec(success, failure, "BluetoothSerial", "getActionStats", []);
+    },
+
+    // Android only - sets the receive buffer size in bytes and what happens when it is full
+    // overflowPolicy is "dropOldest", "dropNewest" or "error"
+    configureBuffer: function (capacity, overflowPolicy, success, failure, connectionId) {
+        cordova.exec(success, failure, "BluetoothSerial", "configureBuffer", [capacity, overflowPolicy, connectionId]);
+    },
+
+    // Android only - sets the charset of the strings and delimiters, "UTF-8" by default
+    setCharset: function (charset, success, failure, connectionId) {
+        cordova.exec(success, failure, "BluetoothSerial", "setCharset", [charset, connectionId]);
     },
 
     // reads the RSSI of the *connected* peripherial
@@ -123,6 +292,24 @@ module.exports = {
         cordova.exec(null, null, "BluetoothSerial", "clearDeviceDiscoveredListener", []);
     },
 
+    // Android only - devices found by discoverUnpaired in the last maxAge milliseconds, without a new discovery
+    getCachedDevices: function (maxAge, success, failure) {
+        cordova.exec(success, failure, "BluetoothSerial", "getCachedDevices", [maxAge]);
+    },
+
+    // Android only - notify is called with {event: 'high' | 'low', queued: bytes} when the
+    // number of bytes waiting to be written crosses the watermarks
+    setWriteQueueListener: function (highWatermark, lowWatermark, notify, failure, connectionId) {
+        if (typeof notify != 'function')
+            throw 'BluetoothSerial.setWriteQueueListener: Callback not a function';
+
+        cordova.exec(notify, failure, "BluetoothSerial", "setWriteQueueListener", [highWatermark, lowWatermark, connectionId]);
+    },
+
+    clearWriteQueueListener: function (connectionId) {
+        cordova.exec(null, null, "BluetoothSerial", "clearWriteQueueListener", [connectionId]);
+    },
+
     setName: function (newName) {
         cordova.exec(null, null, "BluetoothSerial", "setName", [newName]);
     },